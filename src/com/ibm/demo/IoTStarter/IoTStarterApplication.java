@@ -27,7 +27,17 @@ import android.util.Log;
 import com.ibm.demo.IoTStarter.utils.Constants;
 import com.ibm.demo.IoTStarter.utils.DeviceSensor;
 import com.ibm.demo.IoTStarter.utils.IoTProfile;
-
+import com.ibm.demo.IoTStarter.utils.JsonCodec;
+import com.ibm.demo.IoTStarter.utils.MessageStore;
+import com.ibm.demo.IoTStarter.utils.MetricsRegistry;
+import com.ibm.demo.IoTStarter.utils.MetricsSnapshot;
+import com.ibm.demo.IoTStarter.utils.PayloadCodec;
+import com.ibm.demo.IoTStarter.utils.PayloadCodecs;
+import com.ibm.demo.IoTStarter.utils.StripedCounter;
+import com.ibm.demo.IoTStarter.utils.TransportBenchmark;
+import com.ibm.demo.IoTStarter.utils.UiRefresher;
+
+import java.io.File;
 import java.util.*;
 
 /**
@@ -45,26 +55,45 @@ public class IoTStarterApplication extends Application {
     private String deviceId;
     private String authToken;
     private Constants.ConnectionType connectionType;
+    private Constants.TransportMode transportMode = Constants.TransportMode.SERVICE;
+    private String payloadFormat = JsonCodec.FORMAT;
 
     private SharedPreferences settings;
 
     // Application state variables
     private boolean connected = false;
-    private int publishCount = 0;
-    private int receiveCount = 0;
-    private int unreadCount = 0;
+    // updated from the publish, MQTT callback, command and UI threads
+    private final StripedCounter publishCount = MetricsRegistry.getInstance().counter(Constants.METRIC_PUBLISHED);
+    private final StripedCounter receiveCount = MetricsRegistry.getInstance().counter(Constants.METRIC_RECEIVED);
+    private final StripedCounter unreadCount = MetricsRegistry.getInstance().counter(Constants.METRIC_UNREAD);
 
     private int color = Color.WHITE;
     private boolean isCameraOn = false;
-    private float[] accelData;
+    private final float[] accelData = new float[3];
+    private final UiRefresher uiRefresher = new UiRefresher(Constants.FRAME_INTERVAL_MS);
     private boolean accelEnabled = true;
+    // 0 publishes the latest reading every publish interval; otherwise the batch window
+    private long accelBatchWindowMillis = 0;
+    private int accelSamplingPeriodMicros = Constants.ACCEL_SAMPLING_PERIOD_US;
+    private long accelPublishIntervalMillis = Constants.ACCEL_PUBLISH_INTERVAL_MS;
+    private volatile boolean accelDeadbandEnabled = false;
+    // 0 turns windowed aggregation off; otherwise the window, moving by the slide
+    private long accelAggregateWindowMillis = 0;
+    private long accelAggregateSlideMillis = Constants.ACCEL_AGGREGATE_SLIDE_MS;
+    private boolean vibrationCaptureEnabled = false;
+    // the snapshot shown last, for counter rates
+    private MetricsSnapshot lastMetricsSnapshot;
+    // results of the last transport benchmark, shown with the diagnostics; null until one has run
+    private volatile String transportBenchmarkResults;
+    private volatile boolean transportBenchmarkRunning = false;
+    private String benchmarkServerUri = Constants.BENCHMARK_SERVER_URI;
 
     private DeviceSensor deviceSensor;
     private Location currentLocation;
     private Camera camera;
 
     // Message log for log activity
-    private ArrayList<String> messageLog = new ArrayList<String>();
+    private MessageStore messageLog;
 
     private List<IoTProfile> profiles = new ArrayList<IoTProfile>();
     private ArrayList<String> profileNames = new ArrayList<String>();
@@ -79,6 +108,10 @@ public class IoTStarterApplication extends Application {
 
         settings = getSharedPreferences(Constants.SETTINGS, 0);
 
+        messageLog = new MessageStore(new File(getFilesDir(), Constants.MESSAGE_STORE_DIR),
+                Constants.MESSAGE_STORE_SEGMENT_SIZE, Constants.MESSAGE_STORE_MAX_SEGMENTS,
+                Constants.MESSAGE_LOG_MAX_ENTRIES, Constants.MESSAGE_LOG_MAX_BYTES);
+
         loadProfiles();
     }
 
@@ -106,9 +139,7 @@ public class IoTStarterApplication extends Application {
         editor.remove(Constants.AUTH_TOKEN);
         editor.commit();
 
-        this.setOrganization(newProfile.getOrganization());
-        this.setDeviceId(newProfile.getDeviceID());
-        this.setAuthToken(newProfile.getAuthorizationToken());
+        applyProfile(newProfile);
 
         return;
     }
@@ -137,9 +168,7 @@ public class IoTStarterApplication extends Application {
                         this.profileNames.add(newProfile.getProfileName());
 
                         if (newProfile.getProfileName().equals("default")) {
-                            this.setOrganization(newProfile.getOrganization());
-                            this.setDeviceId(newProfile.getDeviceID());
-                            this.setAuthToken(newProfile.getAuthorizationToken());
+                            applyProfile(newProfile);
                         }
                     }
                 } catch (Exception e) {
@@ -149,6 +178,58 @@ public class IoTStarterApplication extends Application {
         }
     }
 
+    /**
+     * Make the settings stored in a profile the current application settings.
+     * @param profile The profile to apply.
+     */
+    public void applyProfile(IoTProfile profile) {
+        this.setOrganization(profile.getOrganization());
+        this.setDeviceId(profile.getDeviceID());
+        this.setAuthToken(profile.getAuthorizationToken());
+        this.setTransportMode(profile.getTransportMode());
+        this.setPayloadFormat(profile.getPayloadFormat());
+        this.setAccelSampling(profile.getSamplingPeriodMicros(), profile.getPublishIntervalMillis());
+        this.setBenchmarkServerUri(profile.getBenchmarkServerUri());
+    }
+
+    /**
+     * Create a profile from the current application settings.
+     * @param profileName The name of the new profile.
+     * @return The new profile.
+     */
+    public IoTProfile createProfile(String profileName) {
+        IoTProfile profile = new IoTProfile(profileName, organization, deviceId, authToken);
+        profile.setTransportMode(transportMode);
+        profile.setPayloadFormat(payloadFormat);
+        profile.setSamplingPeriodMicros(accelSamplingPeriodMicros);
+        profile.setPublishIntervalMillis(accelPublishIntervalMillis);
+        profile.setBenchmarkServerUri(benchmarkServerUri);
+        return profile;
+    }
+
+    /**
+     * Switch between the Paho Android Service and the in-process MQTT client.
+     * Takes effect on the next connect.
+     */
+    public void toggleTransportMode() {
+        if (transportMode == Constants.TransportMode.SERVICE) {
+            setTransportMode(Constants.TransportMode.IN_PROCESS);
+        } else {
+            setTransportMode(Constants.TransportMode.SERVICE);
+        }
+        Log.d(TAG, ".toggleTransportMode() - transport mode is now " + transportMode);
+    }
+
+    /**
+     * Switch to the next registered payload format for published events.
+     */
+    public void cyclePayloadFormat() {
+        List<String> formats = PayloadCodecs.getFormats();
+        int next = (formats.indexOf(payloadFormat) + 1) % formats.size();
+        setPayloadFormat(formats.get(next));
+        Log.d(TAG, ".cyclePayloadFormat() - payload format is now " + payloadFormat);
+    }
+
     /**
      * Enables or disables the publishing of accelerometer data
      */
@@ -168,6 +249,202 @@ public class IoTStarterApplication extends Application {
         }
     }
 
+    /**
+     * Switches between publishing the latest accelerometer reading every publish interval and
+     * publishing every sample in ACCEL_BATCH_WINDOW_MS batches.
+     */
+    public void toggleAccelBatching() {
+        setAccelBatchWindowMillis(accelBatchWindowMillis > 0 ? 0 : Constants.ACCEL_BATCH_WINDOW_MS);
+        Log.d(TAG, ".toggleAccelBatching() - batch window is now " + accelBatchWindowMillis + " ms");
+    }
+
+    /**
+     * Switches between publishing every reading and publishing only readings that moved
+     * out of the deadband, plus a heartbeat every ACCEL_HEARTBEAT_MS.
+     */
+    public void toggleAccelDeadband() {
+        accelDeadbandEnabled = !accelDeadbandEnabled;
+        Log.d(TAG, ".toggleAccelDeadband() - deadband filter is now " + (accelDeadbandEnabled ? "on" : "off"));
+    }
+
+    public boolean isAccelDeadbandEnabled() {
+        return accelDeadbandEnabled;
+    }
+
+    public long getAccelBatchWindowMillis() {
+        return accelBatchWindowMillis;
+    }
+
+    /**
+     * @param accelBatchWindowMillis The batch window, or 0 to publish the latest reading every publish interval.
+     */
+    public void setAccelBatchWindowMillis(long accelBatchWindowMillis) {
+        this.accelBatchWindowMillis = accelBatchWindowMillis;
+        if (accelBatchWindowMillis > 0) {
+            this.accelAggregateWindowMillis = 0;
+            this.vibrationCaptureEnabled = false;
+        }
+        restartSensor();
+    }
+
+    /**
+     * Switches between publishing readings and publishing ACCEL_AGGREGATE_WINDOW_MS window
+     * statistics every ACCEL_AGGREGATE_SLIDE_MS.
+     */
+    public void toggleAccelAggregation() {
+        if (accelAggregateWindowMillis > 0) {
+            setAccelAggregation(0, accelAggregateSlideMillis);
+        } else {
+            setAccelAggregation(Constants.ACCEL_AGGREGATE_WINDOW_MS, Constants.ACCEL_AGGREGATE_SLIDE_MS);
+        }
+        Log.d(TAG, ".toggleAccelAggregation() - aggregate window is now " + accelAggregateWindowMillis + " ms");
+    }
+
+    public long getAccelAggregateWindowMillis() {
+        return accelAggregateWindowMillis;
+    }
+
+    public long getAccelAggregateSlideMillis() {
+        return accelAggregateSlideMillis;
+    }
+
+    /**
+     * @param windowMillis The aggregation window, or 0 to publish readings. Rounded to whole slides.
+     * @param slideMillis  How often window statistics are published; equal to the window for tumbling windows.
+     */
+    public void setAccelAggregation(long windowMillis, long slideMillis) {
+        this.accelAggregateWindowMillis = windowMillis;
+        this.accelAggregateSlideMillis = slideMillis;
+        if (windowMillis > 0) {
+            this.accelBatchWindowMillis = 0;
+            this.vibrationCaptureEnabled = false;
+        }
+        restartSensor();
+    }
+
+    /**
+     * Switches between publishing readings and capturing at the fastest sensor rate to
+     * publish vibration spectrum features every VIBRATION_PUBLISH_INTERVAL_MS.
+     */
+    public void toggleVibrationCapture() {
+        setVibrationCaptureEnabled(!vibrationCaptureEnabled);
+        Log.d(TAG, ".toggleVibrationCapture() - vibration capture is now " + (vibrationCaptureEnabled ? "on" : "off"));
+    }
+
+    public boolean isVibrationCaptureEnabled() {
+        return vibrationCaptureEnabled;
+    }
+
+    public void setVibrationCaptureEnabled(boolean vibrationCaptureEnabled) {
+        this.vibrationCaptureEnabled = vibrationCaptureEnabled;
+        if (vibrationCaptureEnabled) {
+            this.accelBatchWindowMillis = 0;
+            this.accelAggregateWindowMillis = 0;
+        }
+        restartSensor();
+    }
+
+    /**
+     * Take a snapshot of the metrics for the diagnostics dialog and write it to the log.
+     * @return Every metric as text, with counter rates since the previous call.
+     */
+    public synchronized String getDiagnostics() {
+        MetricsSnapshot snapshot = MetricsRegistry.getInstance().snapshot();
+        String diagnostics = snapshot.format(lastMetricsSnapshot);
+        if (transportBenchmarkRunning) {
+            diagnostics += "transport benchmark: running\n";
+        } else if (transportBenchmarkResults != null) {
+            diagnostics += "transport benchmark:\n" + transportBenchmarkResults;
+        }
+        lastMetricsSnapshot = snapshot;
+        Log.i(TAG, ".getDiagnostics() - metrics:\n" + diagnostics);
+        return diagnostics;
+    }
+
+    /**
+     * Run the TransportBenchmark on a background thread, publishing BENCHMARK_MESSAGES messages
+     * in each transport mode to the benchmark server of the profile. The results are logged and
+     * shown with the diagnostics. Does nothing if a benchmark is already running, and refuses to
+     * run against the shared IoT Foundation and demo brokers.
+     */
+    public synchronized void runTransportBenchmark() {
+        if (transportBenchmarkRunning) {
+            Log.d(TAG, ".runTransportBenchmark() - already running");
+            return;
+        }
+        final String serverUri = benchmarkServerUri;
+        if (TransportBenchmark.isSharedBroker(serverUri)) {
+            Log.w(TAG, ".runTransportBenchmark() - refusing to run against shared broker " + serverUri);
+            transportBenchmarkResults = "  refused: " + serverUri + " is a shared broker; set a local benchmark server\n";
+            return;
+        }
+        transportBenchmarkRunning = true;
+        Thread benchmarkThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                StringBuilder results = new StringBuilder();
+                try {
+                    for (TransportBenchmark.Result result : TransportBenchmark.runAll(getApplicationContext(),
+                            serverUri, Constants.BENCHMARK_MESSAGES,
+                            Constants.BENCHMARK_PAYLOAD_SIZE, Constants.BENCHMARK_QOS)) {
+                        results.append("  ").append(result).append('\n');
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, ".runTransportBenchmark() - benchmark failed", e);
+                    results.append("  failed: ").append(e).append('\n');
+                } finally {
+                    transportBenchmarkResults = results.toString();
+                    transportBenchmarkRunning = false;
+                }
+            }
+        }, "IoTStarter-benchmark");
+        benchmarkThread.start();
+    }
+
+    public synchronized String getBenchmarkServerUri() {
+        return benchmarkServerUri;
+    }
+
+    /**
+     * @param benchmarkServerUri The broker the transport benchmark publishes to, e.g. tcp://192.168.1.10:1883.
+     */
+    public synchronized void setBenchmarkServerUri(String benchmarkServerUri) {
+        this.benchmarkServerUri = benchmarkServerUri;
+    }
+
+    public int getAccelSamplingPeriodMicros() {
+        return accelSamplingPeriodMicros;
+    }
+
+    public long getAccelPublishIntervalMillis() {
+        return accelPublishIntervalMillis;
+    }
+
+    /**
+     * @param samplingPeriodMicros Period at which the sensors are sampled, at least ACCEL_MIN_SAMPLING_PERIOD_US.
+     * @param publishIntervalMillis Interval at which the latest reading is published when not batching,
+     *                              between ACCEL_MIN_PUBLISH_INTERVAL_MS and ACCEL_MAX_PUBLISH_INTERVAL_MS.
+     */
+    public void setAccelSampling(int samplingPeriodMicros, long publishIntervalMillis) {
+        samplingPeriodMicros = Math.max(samplingPeriodMicros, Constants.ACCEL_MIN_SAMPLING_PERIOD_US);
+        publishIntervalMillis = Math.min(Math.max(publishIntervalMillis, Constants.ACCEL_MIN_PUBLISH_INTERVAL_MS),
+                Constants.ACCEL_MAX_PUBLISH_INTERVAL_MS);
+        if (samplingPeriodMicros == accelSamplingPeriodMicros && publishIntervalMillis == accelPublishIntervalMillis) {
+            return;
+        }
+        this.accelSamplingPeriodMicros = samplingPeriodMicros;
+        this.accelPublishIntervalMillis = publishIntervalMillis;
+        restartSensor();
+    }
+
+    private void restartSensor() {
+        if (deviceSensor != null && deviceSensor.isEnabled()) {
+            // re-register so the new mode, rate and interval take effect
+            deviceSensor.disableSensor();
+            deviceSensor.enableSensor();
+        }
+    }
+
     /**
      * Turn flashlight on or off when a light command message is received.
      */
@@ -277,6 +554,33 @@ public class IoTStarterApplication extends Application {
         return this.connectionType;
     }
 
+    public Constants.TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public void setTransportMode(Constants.TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+
+    public String getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    public void setPayloadFormat(String payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    /**
+     * @return The codec for published events. Quickstart only accepts JSON.
+     */
+    public PayloadCodec getPayloadCodec() {
+        PayloadCodec codec = PayloadCodecs.get(payloadFormat);
+        if (codec == null || connectionType == Constants.ConnectionType.QUICKSTART) {
+            return PayloadCodecs.getDefault();
+        }
+        return codec;
+    }
+
     public boolean isConnected() {
         return connected;
     }
@@ -286,27 +590,46 @@ public class IoTStarterApplication extends Application {
     }
 
     public int getPublishCount() {
-        return publishCount;
+        return (int) publishCount.sum();
     }
 
     public void setPublishCount(int publishCount) {
-        this.publishCount = publishCount;
+        this.publishCount.reset();
+        this.publishCount.add(publishCount);
+        uiRefresher.invalidate();
+    }
+
+    public void addPublishCount(int published) {
+        publishCount.add(published);
+        uiRefresher.invalidate();
     }
 
     public int getReceiveCount() {
-        return receiveCount;
+        return (int) receiveCount.sum();
     }
 
     public void setReceiveCount(int receiveCount) {
-        this.receiveCount = receiveCount;
+        this.receiveCount.reset();
+        this.receiveCount.add(receiveCount);
+        uiRefresher.invalidate();
+    }
+
+    public void incrementReceiveCount() {
+        receiveCount.increment();
+        uiRefresher.invalidate();
     }
 
     public int getUnreadCount() {
-        return unreadCount;
+        return (int) unreadCount.sum();
     }
 
     public void setUnreadCount(int unreadCount) {
-        this.unreadCount = unreadCount;
+        this.unreadCount.reset();
+        this.unreadCount.add(unreadCount);
+    }
+
+    public void incrementUnreadCount() {
+        unreadCount.increment();
     }
 
     public int getColor() {
@@ -319,14 +642,34 @@ public class IoTStarterApplication extends Application {
 
     public float[] getAccelData() { return accelData; };
 
+    /**
+     * Copy the latest accelerometer values for display. The values are copied into a
+     * fixed array rather than cloned, so the sensor path does not allocate.
+     * @param accelData Accelerometer x, y, z.
+     */
     public void setAccelData(float[] accelData) {
-        this.accelData = accelData.clone();
+        System.arraycopy(accelData, 0, this.accelData, 0, this.accelData.length);
+        uiRefresher.invalidate();
     }
 
-    public ArrayList<String> getMessageLog() {
+    /**
+     * @return The refresher that throttles redraws of the visible fragment.
+     */
+    public UiRefresher getUiRefresher() {
+        return uiRefresher;
+    }
+
+    public MessageStore getMessageLog() {
         return messageLog;
     }
 
+    /**
+     * @param message Message text to append to the message log.
+     */
+    public void addToMessageLog(String message) {
+        messageLog.add(message);
+    }
+
     public boolean isAccelEnabled() {
         return accelEnabled;
     }
@@ -27,7 +27,9 @@ import android.view.View;
 import android.widget.*;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.R;
+import com.ibm.demo.IoTStarter.utils.AppEvent;
 import com.ibm.demo.IoTStarter.utils.Constants;
+import com.ibm.demo.IoTStarter.utils.EventBus;
 import com.ibm.demo.IoTStarter.utils.IoTProfile;
 
 import java.util.ArrayList;
@@ -39,7 +41,7 @@ public class ProfilesActivity extends Activity {
     private final static String TAG = ProfilesActivity.class.getName();
     protected Context context;
     protected IoTStarterApplication app;
-    protected BroadcastReceiver broadcastReceiver;
+    protected EventBus.Listener eventListener;
 
     protected ListView listView;
     protected ArrayAdapter<String> listAdapter;
@@ -78,20 +80,15 @@ public class ProfilesActivity extends Activity {
         listAdapter = new ArrayAdapter<String>(this.context, R.layout.list_item, app.getProfileNames());
         listView.setAdapter(listAdapter);
 
-        if (broadcastReceiver == null) {
-            Log.d(TAG, ".onResume() - Registering LogBroadcastReceiver");
-            broadcastReceiver = new BroadcastReceiver() {
-
+        if (eventListener == null) {
+            eventListener = new EventBus.Listener() {
                 @Override
-                public void onReceive(Context context, Intent intent) {
-                    Log.d(TAG, ".onReceive() - Received intent for logBroadcastReceiver");
-                    processIntent(intent);
+                public void onEvent(AppEvent event) {
+                    processEvent(event);
                 }
             };
         }
-
-        getApplicationContext().registerReceiver(broadcastReceiver,
-                new IntentFilter(Constants.APP_ID + Constants.INTENT_PROFILES));
+        EventBus.getInstance().subscribe(Constants.INTENT_PROFILES, eventListener);
 
         // initialise
         initializeProfilesActivity();
@@ -104,7 +101,7 @@ public class ProfilesActivity extends Activity {
     public void onDestroy() {
         Log.d(TAG, ".onDestroy() entered");
 
-        getApplicationContext().unregisterReceiver(broadcastReceiver);
+        EventBus.getInstance().unsubscribe(Constants.INTENT_PROFILES, eventListener);
         super.onDestroy();
     }
 
@@ -143,9 +140,7 @@ public class ProfilesActivity extends Activity {
         ArrayList<IoTProfile> profiles = (ArrayList<IoTProfile>) app.getProfiles();
         for (IoTProfile profile : profiles) {
             if (profile.getProfileName().equals(profileName)) {
-                app.setOrganization(profile.getOrganization());
-                app.setDeviceId(profile.getDeviceID());
-                app.setAuthToken(profile.getAuthorizationToken());
+                app.applyProfile(profile);
                 break;
             }
         }
@@ -167,7 +162,7 @@ public class ProfilesActivity extends Activity {
                 .setPositiveButton(getResources().getString(R.string.save_dialog_ok), new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int whichButton) {
                         Editable value = input.getText();
-                        IoTProfile profile = new IoTProfile(value.toString(), app.getOrganization(), app.getDeviceId(), app.getAuthToken());
+                        IoTProfile profile = app.createProfile(value.toString());
 
                         // Check if profile name already exists.
                         if (app.getProfileNames().contains(profile.getProfileName())) {
@@ -198,18 +193,18 @@ public class ProfilesActivity extends Activity {
     }
 
     /**
-     * Process intents received by the Broadcast Receiver.
-     * @param intent The intent that was received.
+     * Process events posted to the profiles channel.
+     * @param event The event that was received.
      */
-    private void processIntent(Intent intent) {
-        Log.d(TAG, ".processIntent() entered");
+    private void processEvent(AppEvent event) {
+        Log.d(TAG, ".processEvent() entered");
 
-        String data = intent.getStringExtra(Constants.INTENT_DATA);
+        String data = event.getType();
         assert data != null;
         listAdapter.notifyDataSetInvalidated();
 
         if (data.equals(Constants.ALERT_EVENT)) {
-            String message = intent.getStringExtra(Constants.INTENT_DATA_MESSAGE);
+            String message = event.getMessage();
             new AlertDialog.Builder(this)
                     .setTitle(getResources().getString(R.string.alert_dialog_title))
                     .setMessage(message)
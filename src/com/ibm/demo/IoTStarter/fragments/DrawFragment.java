@@ -79,11 +79,6 @@ public class DrawFragment extends IoTStarterFragment {
     public void onDestroy() {
         Log.d(TAG, ".onDestroy() entered");
 
-        try {
-            getActivity().getApplicationContext().unregisterReceiver(broadcastReceiver);
-        } catch (IllegalArgumentException iae) {
-            // Do nothing
-        }
         super.onDestroy();
     }
 }
@@ -29,9 +29,12 @@ import android.widget.TextView;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.R;
 import com.ibm.demo.IoTStarter.activities.MainActivity;
+import com.ibm.demo.IoTStarter.utils.AppEvent;
 import com.ibm.demo.IoTStarter.utils.Constants;
-import com.ibm.demo.IoTStarter.utils.MessageFactory;
+import com.ibm.demo.IoTStarter.utils.EventBus;
 import com.ibm.demo.IoTStarter.utils.MqttHandler;
+import com.ibm.demo.IoTStarter.utils.PayloadCodec;
+import com.ibm.demo.IoTStarter.utils.PayloadWriter;
 import com.ibm.demo.IoTStarter.utils.TopicFactory;
 
 /**
@@ -42,6 +45,28 @@ import com.ibm.demo.IoTStarter.utils.TopicFactory;
 public class IoTFragment extends IoTStarterFragment {
     private final static String TAG = IoTFragment.class.getName();
 
+    // views and strings looked up once per resume, used by every refresh
+    private TextView deviceIdView;
+    private TextView publishedView;
+    private TextView receivedView;
+    private TextView accelXView;
+    private TextView accelYView;
+    private TextView accelZView;
+    private String publishedString;
+    private String receivedString;
+
+    // values currently shown, so unchanged views are not touched
+    private int shownPublishCount;
+    private int shownReceiveCount;
+    private final float[] shownAccelData = new float[3];
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshViews();
+        }
+    };
+
     /**************************************************************************
      * Fragment functions for establishing the fragment
      **************************************************************************/
@@ -62,23 +87,31 @@ public class IoTFragment extends IoTStarterFragment {
         app = (IoTStarterApplication) getActivity().getApplication();
         app.setCurrentRunningActivity(TAG);
 
-        if (broadcastReceiver == null) {
-            Log.d(TAG, ".onResume() - Registering iotBroadcastReceiver");
-            broadcastReceiver = new BroadcastReceiver() {
-
+        if (eventListener == null) {
+            eventListener = new EventBus.Listener() {
                 @Override
-                public void onReceive(Context context, Intent intent) {
-                    Log.d(TAG, ".onReceive() - Received intent for iotBroadcastReceiver");
-                    processIntent(intent);
+                public void onEvent(AppEvent event) {
+                    processEvent(event);
                 }
             };
         }
-
-        getActivity().getApplicationContext().registerReceiver(broadcastReceiver,
-                new IntentFilter(Constants.APP_ID + Constants.INTENT_IOT));
+        EventBus.getInstance().subscribe(Constants.INTENT_IOT, eventListener);
 
         // initialise
         initializeIoTActivity();
+
+        app.getUiRefresher().setTarget(refreshRunnable);
+    }
+
+    /**
+     * Called when the fragment is paused.
+     */
+    @Override
+    public void onPause() {
+        Log.d(TAG, ".onPause() entered");
+
+        app.getUiRefresher().setTarget(null);
+        super.onPause();
     }
 
     /**
@@ -88,11 +121,7 @@ public class IoTFragment extends IoTStarterFragment {
     public void onDestroy() {
         Log.d(TAG, ".onDestroy() entered");
 
-        try {
-            getActivity().getApplicationContext().unregisterReceiver(broadcastReceiver);
-        } catch (IllegalArgumentException iae) {
-            // Do nothing
-        }
+        EventBus.getInstance().unsubscribe(Constants.INTENT_IOT, eventListener);
         super.onDestroy();
     }
 
@@ -104,6 +133,20 @@ public class IoTFragment extends IoTStarterFragment {
 
         context = getActivity().getApplicationContext();
 
+        deviceIdView = (TextView) getActivity().findViewById(R.id.deviceIDIoT);
+        publishedView = (TextView) getActivity().findViewById(R.id.messagesPublishedView);
+        receivedView = (TextView) getActivity().findViewById(R.id.messagesReceivedView);
+        accelXView = (TextView) getActivity().findViewById(R.id.accelX);
+        accelYView = (TextView) getActivity().findViewById(R.id.accelY);
+        accelZView = (TextView) getActivity().findViewById(R.id.accelZ);
+        publishedString = getString(R.string.messages_published);
+        receivedString = getString(R.string.messages_received);
+
+        // force the first refresh to draw every view
+        shownPublishCount = -1;
+        shownReceiveCount = -1;
+        shownAccelData[0] = shownAccelData[1] = shownAccelData[2] = Float.NaN;
+
         updateViewStrings();
 
         // setup button listeners
@@ -124,16 +167,13 @@ public class IoTFragment extends IoTStarterFragment {
         Log.d(TAG, ".updateViewStrings() entered");
         // DeviceId should never be null at this point.
         if (app.getDeviceId() != null) {
-            ((TextView) getActivity().findViewById(R.id.deviceIDIoT)).setText(app.getDeviceId());
+            deviceIdView.setText(app.getDeviceId());
         } else {
-            ((TextView) getActivity().findViewById(R.id.deviceIDIoT)).setText("-");
+            deviceIdView.setText("-");
         }
 
-        // Update publish count view.
-        processPublishIntent();
-
-        // Update receive count view.
-        processReceiveIntent();
+        // Update publish, receive and accel views.
+        refreshViews();
 
         int unreadCount = app.getUnreadCount();
         ((MainActivity) getActivity()).updateBadge(getActivity().getActionBar().getTabAt(2), unreadCount);
@@ -158,9 +198,11 @@ public class IoTFragment extends IoTStarterFragment {
                     .setPositiveButton(getResources().getString(R.string.ok), new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int whichButton) {
                             Editable value = input.getText();
-                            String messageData = MessageFactory.getTextMessage(value.toString());
+                            PayloadCodec codec = app.getPayloadCodec();
+                            PayloadWriter writer = new PayloadWriter();
+                            codec.encodeText(writer, value.toString());
                             MqttHandler mqtt = MqttHandler.getInstance(context);
-                            mqtt.publish(TopicFactory.getEventTopic(Constants.TEXT_EVENT), messageData, false, 0);
+                            mqtt.publish(TopicFactory.getEventTopic(Constants.TEXT_EVENT, codec), writer, false, 0);
                         }
                     }).setNegativeButton(getResources().getString(R.string.cancel), new DialogInterface.OnClickListener() {
                 public void onClick(DialogInterface dialog, int whichButton) {
@@ -179,32 +221,26 @@ public class IoTFragment extends IoTStarterFragment {
     }
 
     /**************************************************************************
-     * Functions to process intent broadcasts from other classes
+     * Functions to process events from other classes
      **************************************************************************/
 
     /**
-     * Process the incoming intent broadcast.
-     * @param intent The intent which was received by the fragment.
+     * Process an event posted to the fragment's channel.
+     * @param event The event which was received by the fragment.
      */
-    private void processIntent(Intent intent) {
-        Log.d(TAG, ".processIntent() entered");
+    private void processEvent(AppEvent event) {
+        Log.d(TAG, ".processEvent() entered");
 
-        // No matter the intent, update log button based on app.unreadCount.
+        // No matter the event, update log button based on app.unreadCount.
         updateViewStrings();
 
-        String data = intent.getStringExtra(Constants.INTENT_DATA);
+        String data = event.getType();
         assert data != null;
-        if (data.equals(Constants.INTENT_DATA_PUBLISHED)) {
-            processPublishIntent();
-        } else if (data.equals(Constants.INTENT_DATA_RECEIVED)) {
-            processReceiveIntent();
-        } else if (data.equals(Constants.ACCEL_EVENT)) {
-            processAccelEvent();
-        } else if (data.equals(Constants.COLOR_EVENT)) {
+        if (data.equals(Constants.COLOR_EVENT)) {
             Log.d(TAG, "Updating background color");
             getView().setBackgroundColor(app.getColor());
         } else if (data.equals(Constants.ALERT_EVENT)) {
-            String message = intent.getStringExtra(Constants.INTENT_DATA_MESSAGE);
+            String message = event.getMessage();
             new AlertDialog.Builder(getActivity())
                     .setTitle(getResources().getString(R.string.alert_dialog_title))
                     .setMessage(message)
@@ -216,35 +252,34 @@ public class IoTFragment extends IoTStarterFragment {
     }
 
     /**
-     * Intent data contained INTENT_DATA_PUBLISH
-     * Update the published messages view based on app.getPublishCount()
+     * Redraw the publish and receive counts and the accel values that changed since the
+     * last refresh. Run by the UiRefresher at most once per refresh interval.
      */
-    private void processPublishIntent() {
-        Log.v(TAG, ".processPublishIntent() entered");
-        String publishedString = this.getString(R.string.messages_published);
-        publishedString = publishedString.replace("0",Integer.toString(app.getPublishCount()));
-        ((TextView) getActivity().findViewById(R.id.messagesPublishedView)).setText(publishedString);
-    }
+    private void refreshViews() {
+        int publishCount = app.getPublishCount();
+        if (publishCount != shownPublishCount) {
+            shownPublishCount = publishCount;
+            publishedView.setText(publishedString.replace("0", Integer.toString(publishCount)));
+        }
 
-    /**
-     * Intent data contained INTENT_DATA_RECEIVE
-     * Update the received messages view based on app.getReceiveCount();
-     */
-    private void processReceiveIntent() {
-        Log.v(TAG, ".processReceiveIntent() entered");
-        String receivedString = this.getString(R.string.messages_received);
-        receivedString = receivedString.replace("0",Integer.toString(app.getReceiveCount()));
-        ((TextView) getActivity().findViewById(R.id.messagesReceivedView)).setText(receivedString);
-    }
+        int receiveCount = app.getReceiveCount();
+        if (receiveCount != shownReceiveCount) {
+            shownReceiveCount = receiveCount;
+            receivedView.setText(receivedString.replace("0", Integer.toString(receiveCount)));
+        }
 
-    /**
-     * Update acceleration view strings
-     */
-    private void processAccelEvent() {
-        Log.v(TAG, ".processAccelEvent()");
         float[] accelData = app.getAccelData();
-        ((TextView) getActivity().findViewById(R.id.accelX)).setText("x: " + accelData[0]);
-        ((TextView) getActivity().findViewById(R.id.accelY)).setText("y: " + accelData[1]);
-        ((TextView) getActivity().findViewById(R.id.accelZ)).setText("z: " + accelData[2]);
+        if (accelData[0] != shownAccelData[0]) {
+            shownAccelData[0] = accelData[0];
+            accelXView.setText("x: " + accelData[0]);
+        }
+        if (accelData[1] != shownAccelData[1]) {
+            shownAccelData[1] = accelData[1];
+            accelYView.setText("y: " + accelData[1]);
+        }
+        if (accelData[2] != shownAccelData[2]) {
+            shownAccelData[2] = accelData[2];
+            accelZView.setText("z: " + accelData[2]);
+        }
     }
 }
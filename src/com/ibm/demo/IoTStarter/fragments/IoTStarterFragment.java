@@ -15,9 +15,10 @@
  *******************************************************************************/
 package com.ibm.demo.IoTStarter.fragments;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
-import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.util.Log;
@@ -29,6 +30,7 @@ import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.R;
 import com.ibm.demo.IoTStarter.activities.MainActivity;
 import com.ibm.demo.IoTStarter.activities.ProfilesActivity;
+import com.ibm.demo.IoTStarter.utils.EventBus;
 
 /**
  * This class provides common properties and functions for fragment subclasses used in the application.
@@ -38,7 +40,7 @@ public class IoTStarterFragment extends Fragment {
     protected Context context;
     protected IoTStarterApplication app;
     protected Menu menu;
-    protected BroadcastReceiver broadcastReceiver;
+    protected EventBus.Listener eventListener;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -73,6 +75,17 @@ public class IoTStarterFragment extends Fragment {
         startActivity(profilesIntent);
     }
 
+    protected void openDiagnostics() {
+        Log.d(TAG, ".openDiagnostics() entered");
+        new AlertDialog.Builder(getActivity())
+                .setTitle(getResources().getString(R.string.diagnostics_dialog_title))
+                .setMessage(app.getDiagnostics())
+                .setPositiveButton(getResources().getString(R.string.ok), new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int whichButton) {
+                    }
+                }).show();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         Log.d(TAG, ".onCreateOptions() entered");
@@ -109,6 +122,30 @@ public class IoTStarterFragment extends Fragment {
             case R.id.action_clear_profiles:
                 app.clearProfiles();
                 return true;
+            case R.id.action_transport:
+                app.toggleTransportMode();
+                return true;
+            case R.id.action_format:
+                app.cyclePayloadFormat();
+                return true;
+            case R.id.action_accel_batching:
+                app.toggleAccelBatching();
+                return true;
+            case R.id.action_accel_deadband:
+                app.toggleAccelDeadband();
+                return true;
+            case R.id.action_accel_aggregation:
+                app.toggleAccelAggregation();
+                return true;
+            case R.id.action_vibration:
+                app.toggleVibrationCapture();
+                return true;
+            case R.id.action_diagnostics:
+                openDiagnostics();
+                return true;
+            case R.id.action_transport_benchmark:
+                app.runTransportBenchmark();
+                return true;
             case R.id.clear:
                 app.setUnreadCount(0);
                 app.getMessageLog().clear();
@@ -20,14 +20,24 @@ import android.app.ListFragment;
 import android.content.*;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.*;
-import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.ListView;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.R;
 import com.ibm.demo.IoTStarter.activities.ProfilesActivity;
+import com.ibm.demo.IoTStarter.utils.AppEvent;
 import com.ibm.demo.IoTStarter.utils.Constants;
+import com.ibm.demo.IoTStarter.utils.EventBus;
+import com.ibm.demo.IoTStarter.utils.MessageIndex;
+import com.ibm.demo.IoTStarter.utils.MessageLogAdapter;
+import com.ibm.demo.IoTStarter.utils.UiRefresher;
 
 /**
  * The Log fragment displays text command messages that have been received by the application.
@@ -37,10 +47,36 @@ public class LogFragment extends ListFragment {
     protected Context context;
     protected IoTStarterApplication app;
     protected Menu menu;
-    protected BroadcastReceiver broadcastReceiver;
+    protected EventBus.Listener eventListener;
 
     protected ListView listView;
-    protected ArrayAdapter<String> listAdapter;
+    protected MessageLogAdapter listAdapter;
+    protected AlertDialog alertDialog;
+    protected EditText searchText;
+    // written on the UI thread, read by searches on the search thread
+    protected volatile String query = "";
+
+    // runs searches, which may read the store from disk, off the UI thread
+    private HandlerThread searchThread;
+    private Handler searchHandler;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean searchPending = false;
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            searchPending = false;
+            search();
+        }
+    };
+
+    // collapses the messages received within a frame into one list update
+    private final UiRefresher listRefresher = new UiRefresher(Constants.FRAME_INTERVAL_MS);
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshList();
+        }
+    };
 
     /**************************************************************************
      * Fragment functions for establishing the fragment
@@ -50,6 +86,9 @@ public class LogFragment extends ListFragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
+        searchThread = new HandlerThread("IoTStarter-search");
+        searchThread.start();
+        searchHandler = new Handler(searchThread.getLooper());
     }
 
     @Override
@@ -73,23 +112,22 @@ public class LogFragment extends ListFragment {
         app.setCurrentRunningActivity(TAG);
         app.setUnreadCount(0);
 
-        listAdapter = new ArrayAdapter<String>(this.context, R.layout.list_item, app.getMessageLog());
+        listAdapter = new MessageLogAdapter(this.context, R.layout.list_item, app.getMessageLog());
         listView.setAdapter(listAdapter);
+        if (query.length() > 0) {
+            scheduleSearch(0);
+        }
 
-        if (broadcastReceiver == null) {
-            Log.d(TAG, ".onResume() - Registering LogBroadcastReceiver");
-            broadcastReceiver = new BroadcastReceiver() {
-
+        if (eventListener == null) {
+            eventListener = new EventBus.Listener() {
                 @Override
-                public void onReceive(Context context, Intent intent) {
-                    Log.d(TAG, ".onReceive() - Received intent for logBroadcastReceiver");
-                    processIntent(intent);
+                public void onEvent(AppEvent event) {
+                    processEvent(event);
                 }
             };
         }
-
-        getActivity().getApplicationContext().registerReceiver(broadcastReceiver,
-                new IntentFilter(Constants.APP_ID + Constants.INTENT_LOG));
+        EventBus.getInstance().subscribe(Constants.INTENT_LOG, eventListener);
+        listRefresher.setTarget(refreshRunnable);
 
         // Set color to black incase it somehow was leftover from iot fragment?
         getView().setBackgroundColor(Color.BLACK);
@@ -98,6 +136,17 @@ public class LogFragment extends ListFragment {
         initializeLogActivity();
     }
 
+    /**
+     * Called when the fragment is paused.
+     */
+    @Override
+    public void onPause() {
+        Log.d(TAG, ".onPause() entered");
+
+        listRefresher.setTarget(null);
+        super.onPause();
+    }
+
     /**
      * Called when the fragment is destroyed.
      */
@@ -105,11 +154,9 @@ public class LogFragment extends ListFragment {
     public void onDestroy() {
         Log.d(TAG, ".onDestroy() entered");
 
-        try {
-            getActivity().getApplicationContext().unregisterReceiver(broadcastReceiver);
-        } catch (IllegalArgumentException iae) {
-            // Do nothing
-        }
+        EventBus.getInstance().unsubscribe(Constants.INTENT_LOG, eventListener);
+        searchHandler.removeCallbacks(searchRunnable);
+        searchThread.quit();
         super.onDestroy();
     }
 
@@ -118,21 +165,57 @@ public class LogFragment extends ListFragment {
      */
     private void initializeLogActivity() {
         Log.d(TAG, ".initializeLogActivity() entered");
+
+        EditText view = (EditText) getActivity().findViewById(R.id.searchText);
+        if (view == searchText) {
+            // listener already added on an earlier resume
+            return;
+        }
+        searchText = view;
+        searchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                String text = s.toString();
+                if (!text.equals(query)) {
+                    query = text;
+                    if (MessageIndex.tokenize(query).size() > 0) {
+                        // wait for a pause in typing rather than searching on every keystroke
+                        searchHandler.removeCallbacks(searchRunnable);
+                        scheduleSearch(Constants.MESSAGE_SEARCH_DEBOUNCE_MS);
+                    } else {
+                        refreshList();
+                    }
+                }
+            }
+        });
     }
 
-    private void processIntent(Intent intent) {
-        Log.d(TAG, ".processIntent() entered");
+    private void processEvent(AppEvent event) {
+        Log.d(TAG, ".processEvent() entered");
 
         app.setUnreadCount(0);
 
-        String data = intent.getStringExtra(Constants.INTENT_DATA);
+        String data = event.getType();
         assert data != null;
         if (data.equals(Constants.TEXT_EVENT)) {
-            listAdapter.notifyDataSetInvalidated();
+            listRefresher.invalidate();
         } else if (data.equals(Constants.ALERT_EVENT)) {
-            listAdapter.notifyDataSetInvalidated();
-            String message = intent.getStringExtra(Constants.INTENT_DATA_MESSAGE);
-            new AlertDialog.Builder(getActivity())
+            listRefresher.invalidate();
+            String message = event.getMessage();
+            if (alertDialog != null && alertDialog.isShowing()) {
+                // during a burst of alerts, show the latest in the open dialog rather than stacking dialogs
+                alertDialog.setMessage(message);
+                return;
+            }
+            alertDialog = new AlertDialog.Builder(getActivity())
                     .setTitle(getResources().getString(R.string.alert_dialog_title))
                     .setMessage(message)
                     .setPositiveButton(getResources().getString(R.string.ok), new DialogInterface.OnClickListener() {
@@ -142,6 +225,57 @@ public class LogFragment extends ListFragment {
         }
     }
 
+    /**
+     * Apply the messages received since the last update to the list, keeping the
+     * entry at the top of the list in place when older entries are dropped. While a
+     * search is entered, the search is run again instead, unless one is already pending.
+     */
+    private void refreshList() {
+        if (MessageIndex.tokenize(query).size() > 0) {
+            if (!searchPending) {
+                scheduleSearch(Constants.MESSAGE_SEARCH_DEBOUNCE_MS);
+            }
+            return;
+        } else if (listAdapter.isShowingResults()) {
+            listAdapter.setResults(null);
+            return;
+        }
+
+        int firstVisible = listView.getFirstVisiblePosition();
+        View top = listView.getChildAt(0);
+        int topOffset = top == null ? 0 : top.getTop();
+
+        int dropped = listAdapter.refresh();
+        if (dropped > 0) {
+            listView.setSelectionFromTop(Math.max(0, firstVisible - dropped), topOffset);
+        }
+    }
+
+    private void scheduleSearch(long delayMillis) {
+        searchPending = true;
+        searchHandler.postDelayed(searchRunnable, delayMillis);
+    }
+
+    /**
+     * Search thread body. Runs the current query and shows the results if the query
+     * has not changed in the meantime.
+     */
+    private void search() {
+        final String searched = query;
+        if (MessageIndex.tokenize(searched).size() == 0) {
+            return;
+        }
+        final long[] results = app.getMessageLog().search(searched, Constants.MESSAGE_SEARCH_LIMIT);
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listAdapter != null && searched.equals(query)) {
+                    listAdapter.setResults(results);
+                }
+            }
+        });
+    }
+
     /**************************************************************************
      * Functions to handle the iot_menu bar
      **************************************************************************/
@@ -152,6 +286,17 @@ public class LogFragment extends ListFragment {
         startActivity(profilesIntent);
     }
 
+    protected void openDiagnostics() {
+        Log.d(TAG, ".openDiagnostics() entered");
+        new AlertDialog.Builder(getActivity())
+                .setTitle(getResources().getString(R.string.diagnostics_dialog_title))
+                .setMessage(app.getDiagnostics())
+                .setPositiveButton(getResources().getString(R.string.ok), new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int whichButton) {
+                    }
+                }).show();
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
         Log.d(TAG, ".onCreateOptions() entered");
@@ -182,11 +327,35 @@ public class LogFragment extends ListFragment {
             case R.id.clear:
                 app.setUnreadCount(0);
                 app.getMessageLog().clear();
-                listAdapter.notifyDataSetInvalidated();
+                refreshList();
                 return true;
             case R.id.action_clear_profiles:
                 app.clearProfiles();
                 return true;
+            case R.id.action_transport:
+                app.toggleTransportMode();
+                return true;
+            case R.id.action_format:
+                app.cyclePayloadFormat();
+                return true;
+            case R.id.action_accel_batching:
+                app.toggleAccelBatching();
+                return true;
+            case R.id.action_accel_deadband:
+                app.toggleAccelDeadband();
+                return true;
+            case R.id.action_accel_aggregation:
+                app.toggleAccelAggregation();
+                return true;
+            case R.id.action_vibration:
+                app.toggleVibrationCapture();
+                return true;
+            case R.id.action_diagnostics:
+                openDiagnostics();
+                return true;
+            case R.id.action_transport_benchmark:
+                app.runTransportBenchmark();
+                return true;
             default:
                 if (item.getTitle().equals(getResources().getString(R.string.app_name))) {
                     getActivity().openOptionsMenu();
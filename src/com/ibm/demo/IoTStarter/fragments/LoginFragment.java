@@ -29,8 +29,10 @@ import android.widget.TextView;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.R;
 import com.ibm.demo.IoTStarter.activities.MainActivity;
+import com.ibm.demo.IoTStarter.utils.AppEvent;
 import com.ibm.demo.IoTStarter.utils.Constants;
 import com.ibm.demo.IoTStarter.utils.DeviceSensor;
+import com.ibm.demo.IoTStarter.utils.EventBus;
 import com.ibm.demo.IoTStarter.utils.LocationUtils;
 import com.ibm.demo.IoTStarter.utils.MqttHandler;
 
@@ -61,20 +63,15 @@ public class LoginFragment extends IoTStarterFragment {
         app = (IoTStarterApplication) getActivity().getApplication();
         app.setCurrentRunningActivity(TAG);
 
-        if (broadcastReceiver == null) {
-            Log.d(TAG, ".onResume() - Registering loginBroadcastReceiver");
-            broadcastReceiver = new BroadcastReceiver() {
-
+        if (eventListener == null) {
+            eventListener = new EventBus.Listener() {
                 @Override
-                public void onReceive(Context context, Intent intent) {
-                    Log.d(TAG, ".onReceive() - Received intent for loginBroadcastReceiver");
-                    processIntent(intent);
+                public void onEvent(AppEvent event) {
+                    processEvent(event);
                 }
             };
         }
-
-        getActivity().getApplicationContext().registerReceiver(broadcastReceiver,
-                new IntentFilter(Constants.APP_ID + Constants.INTENT_LOGIN));
+        EventBus.getInstance().subscribe(Constants.INTENT_LOGIN, eventListener);
 
         // initialise
         initializeLoginActivity();
@@ -87,11 +84,7 @@ public class LoginFragment extends IoTStarterFragment {
     public void onDestroy() {
         Log.d(TAG, ".onDestroy() entered");
 
-        try {
-            getActivity().getApplicationContext().unregisterReceiver(broadcastReceiver);
-        } catch (IllegalArgumentException iae) {
-            // Do nothing
-        }
+        EventBus.getInstance().unsubscribe(Constants.INTENT_LOGIN, eventListener);
         super.onDestroy();
     }
 
@@ -226,7 +219,8 @@ public class LoginFragment extends IoTStarterFragment {
                 displaySetPropertiesDialog();
                 activateButton.setEnabled(true);
             }
-        } else if (buttonTitle.equals(getResources().getString(R.string.deactivate_button)) && app.isConnected() == true) {
+        } else if (buttonTitle.equals(getResources().getString(R.string.deactivate_button))) {
+            // also cancels a pending reconnect if the connection was lost
             mqttHandle.disconnect();
         }
     }
@@ -249,21 +243,21 @@ public class LoginFragment extends IoTStarterFragment {
     }
 
     /**************************************************************************
-     * Functions to process intent broadcasts from other classes
+     * Functions to process events from other classes
      **************************************************************************/
 
     /**
-     * Process the incoming intent broadcast.
+     * Process an event posted to the fragment's channel.
      *
-     * @param intent The intent which was received by the fragment.
+     * @param event The event which was received by the fragment.
      */
-    private void processIntent(Intent intent) {
-        Log.d(TAG, ".processIntent() entered");
+    private void processEvent(AppEvent event) {
+        Log.d(TAG, ".processEvent() entered");
 
-        // No matter the intent, update log button based on app.unreadCount.
+        // No matter the event, update log button based on app.unreadCount.
         updateViewStrings();
 
-        String data = intent.getStringExtra(Constants.INTENT_DATA);
+        String data = event.getType();
         assert data != null;
         if (data.equals(Constants.INTENT_DATA_CONNECT)) {
             processConnectIntent();
@@ -271,7 +265,7 @@ public class LoginFragment extends IoTStarterFragment {
         } else if (data.equals(Constants.INTENT_DATA_DISCONNECT)) {
             processDisconnectIntent();
         } else if (data.equals(Constants.ALERT_EVENT)) {
-            String message = intent.getStringExtra(Constants.INTENT_DATA_MESSAGE);
+            String message = event.getMessage();
             new AlertDialog.Builder(getActivity())
                     .setTitle(getResources().getString(R.string.alert_dialog_title))
                     .setMessage(message)
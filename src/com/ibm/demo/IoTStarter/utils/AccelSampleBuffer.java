@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Preallocated ring buffer of accelerometer samples for batched publishing. Samples
+ * are stored in primitive arrays, so recording one does not allocate.
+ *
+ * One thread (the sensor callback) adds and one thread (the publish timer) drains;
+ * the two only share the volatile write and read counts, so neither takes a lock. When
+ * the buffer is full, new samples are dropped and counted until the next drain.
+ */
+public class AccelSampleBuffer {
+
+    private final int mask;
+    private final long[] timestamps;
+    private final float[] values;
+    private volatile long writeCount = 0;
+    private volatile long readCount = 0;
+    private volatile long droppedCount = 0;
+
+    /**
+     * @param capacity The number of samples held, rounded up to a power of two.
+     */
+    public AccelSampleBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        timestamps = new long[size];
+        values = new float[size * 3];
+    }
+
+    /**
+     * Record a sample. Called only on the sensor thread.
+     *
+     * @param timestamp The SensorEvent timestamp, in nanoseconds.
+     * @param x         Acceleration on the x axis.
+     * @param y         Acceleration on the y axis.
+     * @param z         Acceleration on the z axis.
+     * @return False if the buffer was full and the sample was dropped.
+     */
+    public boolean add(long timestamp, float x, float y, float z) {
+        long write = writeCount;
+        if (write - readCount > mask) {
+            droppedCount++;
+            return false;
+        }
+        int slot = (int) (write & mask);
+        timestamps[slot] = timestamp;
+        values[slot * 3] = x;
+        values[slot * 3 + 1] = y;
+        values[slot * 3 + 2] = z;
+        // publishes the slot to the reader
+        writeCount = write + 1;
+        return true;
+    }
+
+    /**
+     * Move the buffered samples, oldest first, into the caller's arrays. Called only on
+     * the draining thread.
+     *
+     * @param timestamps Receives the sample timestamps; its length is the most drained.
+     * @param values     Receives x, y, z of each sample; at least 3 * timestamps.length long.
+     * @return The number of samples drained.
+     */
+    public int drainTo(long[] timestamps, float[] values) {
+        return drainTo(timestamps, values, 0);
+    }
+
+    /**
+     * Move the buffered samples, oldest first, into the caller's arrays after the samples
+     * already there. Called only on the draining thread.
+     *
+     * @param timestamps Receives the sample timestamps from index offset.
+     * @param values     Receives x, y, z of each sample from index 3 * offset.
+     * @param offset     The number of samples already in the arrays.
+     * @return The number of samples drained.
+     */
+    public int drainTo(long[] timestamps, float[] values, int offset) {
+        long read = readCount;
+        int count = (int) Math.min(writeCount - read, timestamps.length - offset);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((read + i) & mask);
+            int j = offset + i;
+            timestamps[j] = this.timestamps[slot];
+            values[j * 3] = this.values[slot * 3];
+            values[j * 3 + 1] = this.values[slot * 3 + 1];
+            values[j * 3 + 2] = this.values[slot * 3 + 2];
+        }
+        // frees the slots for the writer
+        readCount = read + count;
+        return count;
+    }
+
+    /**
+     * @return The number of samples the buffer holds.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return The number of samples dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+}
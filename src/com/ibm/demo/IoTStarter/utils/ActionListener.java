@@ -16,11 +16,9 @@
 package com.ibm.demo.IoTStarter.utils;
 
 import android.content.Context;
-import android.content.Intent;
 import android.util.Log;
 
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
-import com.ibm.demo.IoTStarter.fragments.LoginFragment;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 
@@ -61,7 +59,7 @@ public class ActionListener implements IMqttActionListener {
                 break;
 
             case PUBLISH:
-                handlePublishSuccess();
+                handlePublishSuccess(token);
                 break;
 
             case DISCONNECTING:
@@ -91,7 +89,7 @@ public class ActionListener implements IMqttActionListener {
                 break;
 
             case PUBLISH:
-                handlePublishFailure(throwable);
+                handlePublishFailure(token, throwable);
                 break;
 
             case DISCONNECTING:
@@ -109,19 +107,7 @@ public class ActionListener implements IMqttActionListener {
     private void handleConnectSuccess() {
         Log.d(TAG, ".handleConnectSuccess() entered");
 
-        app.setConnected(true);
-
-        if (app.getConnectionType() != Constants.ConnectionType.QUICKSTART) {
-            MqttHandler mqttHandler = MqttHandler.getInstance(context);
-            mqttHandler.subscribe(TopicFactory.getCommandTopic("+"), 0);
-        }
-
-        String runningActivity = app.getCurrentRunningActivity();
-        if (runningActivity != null && runningActivity.equals(LoginFragment.class.getName())) {
-            Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
-            actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_CONNECT);
-            context.sendBroadcast(actionIntent);
-        }
+        ConnectionStateMachine.getInstance(context).onConnectSuccess();
     }
 
     /**
@@ -133,9 +119,15 @@ public class ActionListener implements IMqttActionListener {
 
     /**
      * Called on successful publish to the MQTT topic.
+     * @param token The delivery token of the publish.
      */
-    private void handlePublishSuccess() {
+    private void handlePublishSuccess(IMqttToken token) {
         Log.d(TAG, ".handlePublishSuccess() entered");
+
+        Object userContext = token.getUserContext();
+        if (userContext instanceof PublishTiming) {
+            ((PublishTiming) userContext).acknowledged();
+        }
     }
 
     /**
@@ -144,14 +136,7 @@ public class ActionListener implements IMqttActionListener {
     private void handleDisconnectSuccess() {
         Log.d(TAG, ".handleDisconnectSuccess() entered");
 
-        app.setConnected(false);
-
-        String runningActivity = app.getCurrentRunningActivity();
-        if (runningActivity != null && runningActivity.equals(LoginFragment.class.getName())) {
-            Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
-            actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_DISCONNECT);
-            context.sendBroadcast(actionIntent);
-        }
+        ConnectionStateMachine.getInstance(context).onDisconnected();
     }
 
     /**
@@ -163,14 +148,7 @@ public class ActionListener implements IMqttActionListener {
         Log.e(TAG, ".handleConnectFailure() - Failed with exception", throwable.getCause());
         throwable.printStackTrace();
 
-        app.setConnected(false);
-
-        String runningActivity = app.getCurrentRunningActivity();
-        if (runningActivity != null && runningActivity.equals(LoginFragment.class.getName())) {
-            Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
-            actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_DISCONNECT);
-            context.sendBroadcast(actionIntent);
-        }
+        ConnectionStateMachine.getInstance(context).onConnectFailure(throwable);
     }
 
     /**
@@ -184,11 +162,17 @@ public class ActionListener implements IMqttActionListener {
 
     /**
      * Called on failure to publish to the MQTT topic.
+     * @param token The delivery token of the publish.
      * @param throwable The exception corresponding to the failure.
      */
-    private void handlePublishFailure(Throwable throwable) {
+    private void handlePublishFailure(IMqttToken token, Throwable throwable) {
         Log.e(TAG, ".handlePublishFailure() entered");
         Log.e(TAG, ".handlePublishFailure() - Failed with exception", throwable.getCause());
+
+        Object userContext = token.getUserContext();
+        if (userContext instanceof PublishTiming) {
+            ((PublishTiming) userContext).failed();
+        }
     }
 
     /**
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * An application event delivered to the UI through the EventBus.
+ */
+public class AppEvent {
+
+    private final String type;
+    private final String message;
+
+    /**
+     * @param type    What happened, e.g. Constants.INTENT_DATA_CONNECT or Constants.COLOR_EVENT.
+     * @param message Optional message text, e.g. for an alert. May be null.
+     */
+    public AppEvent(String type, String message) {
+        this.type = type;
+        this.message = message;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
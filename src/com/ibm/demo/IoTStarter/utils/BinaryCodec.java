@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * /fmt/bin codec. Fixed-layout little-endian records, identified by the event or
+ * command name in the topic:
+ *
+ *   accel event     float32 acceleration_x, acceleration_y, acceleration_z, roll, pitch, yaw,
+ *                   float64 lon, lat                                         (40 bytes)
+ *   accel batch     int64 t, uint16 count, float32 roll, pitch, yaw, float64 lon, lat,
+ *                   then per sample float32 dt, acceleration_x, y, z     (38 + 16 * count bytes)
+ *   accelstats      int64 t, uint32 window, uint32 n, then per channel (acceleration_x, y, z,
+ *                   azimuth, pitch, roll) float32 min, max, mean, rms, var,
+ *                   float64 lon, lat                                        (152 bytes)
+ *                   azimuth and roll hold the circular mean and variance, and NaN
+ *                   for min, max and rms
+ *   vibration       int64 t, float32 fs, uint16 windows, float32 rms, uint8 peaks, uint8 bands,
+ *                   float32 band_hz, then per peak float32 hz, amplitude, then per band
+ *                   float32 energy, float64 lon, lat               (40 + 8 * peaks + 4 * bands bytes)
+ *   touchmove event float32 screenX, screenY, deltaX, deltaY, uint8 ended     (17 bytes)
+ *   text event      UTF-8 text
+ *
+ *   color command   uint8 r, g, b, float32 alpha                              (7 bytes)
+ *   text command    UTF-8 text
+ *   alert command   UTF-8 text
+ *   other commands  empty, or a JSON object which is decoded as JSON
+ */
+public class BinaryCodec implements PayloadCodec {
+
+    public final static String FORMAT = "bin";
+
+    public final static int ACCEL_SIZE = 6 * 4 + 2 * 8;
+    public final static int ACCEL_BATCH_HEADER_SIZE = 8 + 2 + 3 * 4 + 2 * 8;
+    public final static int ACCEL_BATCH_SAMPLE_SIZE = 4 * 4;
+    public final static int ACCEL_STATS_SIZE = 8 + 4 + 4 + WindowStats.ACCEL_CHANNELS * 5 * 4 + 2 * 8;
+    public final static int VIBRATION_HEADER_SIZE = 8 + 4 + 2 + 4 + 1 + 1 + 4 + 2 * 8;
+    public final static int TOUCH_SIZE = 4 * 4 + 1;
+    public final static int COLOR_SIZE = 3 + 4;
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public void encodeAccel(PayloadWriter out, float[] G, float[] O, float yaw, double lon, double lat) {
+        out.writeFloatLE(G[0]).writeFloatLE(G[1]).writeFloatLE(G[2]);
+        out.writeFloatLE(O[2]).writeFloatLE(O[1]).writeFloatLE(yaw);
+        out.writeDoubleLE(lon).writeDoubleLE(lat);
+    }
+
+    @Override
+    public void encodeAccelBatch(PayloadWriter out, long time, long[] timestamps, float[] samples, int count,
+                                 float[] O, float yaw, double lon, double lat) {
+        out.writeLittleEndian(time, 8).writeLittleEndian(count, 2);
+        out.writeFloatLE(O[2]).writeFloatLE(O[1]).writeFloatLE(yaw);
+        out.writeDoubleLE(lon).writeDoubleLE(lat);
+        for (int i = 0; i < count; i++) {
+            out.writeFloatLE((float) ((timestamps[i] - timestamps[0]) / 1e6));
+            out.writeFloatLE(samples[i * 3]).writeFloatLE(samples[i * 3 + 1]).writeFloatLE(samples[i * 3 + 2]);
+        }
+    }
+
+    @Override
+    public void encodeAccelStats(PayloadWriter out, WindowStats stats, double lon, double lat) {
+        out.writeLittleEndian(stats.getStartTime(), 8);
+        out.writeLittleEndian(stats.getDurationMillis(), 4).writeLittleEndian(stats.getCount(), 4);
+        for (int channel = 0; channel < WindowStats.ACCEL_CHANNELS; channel++) {
+            out.writeFloatLE(stats.getMin(channel)).writeFloatLE(stats.getMax(channel));
+            out.writeFloatLE(stats.getMean(channel)).writeFloatLE(stats.getRms(channel));
+            out.writeFloatLE(stats.getVariance(channel));
+        }
+        out.writeDoubleLE(lon).writeDoubleLE(lat);
+    }
+
+    @Override
+    public void encodeVibration(PayloadWriter out, VibrationFeatures features, double lon, double lat) {
+        out.writeLittleEndian(features.getTime(), 8).writeFloatLE(features.getSampleRate());
+        out.writeLittleEndian(features.getWindows(), 2).writeFloatLE(features.getRms());
+        out.writeByte(features.getPeakCount()).writeByte(features.getBandCount());
+        out.writeFloatLE(features.getBandWidth());
+        for (int i = 0; i < features.getPeakCount(); i++) {
+            out.writeFloatLE(features.getPeakFrequency(i)).writeFloatLE(features.getPeakAmplitude(i));
+        }
+        for (int i = 0; i < features.getBandCount(); i++) {
+            out.writeFloatLE(features.getBandEnergy(i));
+        }
+        out.writeDoubleLE(lon).writeDoubleLE(lat);
+    }
+
+    @Override
+    public void encodeText(PayloadWriter out, String text) {
+        out.writeUtf8(text);
+    }
+
+    @Override
+    public void encodeTouch(PayloadWriter out, double x, double y, double dX, double dY, boolean ended) {
+        out.writeFloatLE((float) x).writeFloatLE((float) y).writeFloatLE((float) dX).writeFloatLE((float) dY);
+        out.writeByte(ended ? 1 : 0);
+    }
+
+    @Override
+    public boolean readCommand(String command, byte[] payload, CommandMessage message) {
+        if (Constants.COLOR_EVENT.equals(command)) {
+            if (payload.length < COLOR_SIZE) {
+                return false;
+            }
+            message.setNumber(CommandMessage.FIELD_R, payload[0] & 0xff);
+            message.setNumber(CommandMessage.FIELD_G, payload[1] & 0xff);
+            message.setNumber(CommandMessage.FIELD_B, payload[2] & 0xff);
+            int alphaBits = (payload[3] & 0xff) | (payload[4] & 0xff) << 8
+                    | (payload[5] & 0xff) << 16 | (payload[6] & 0xff) << 24;
+            message.setNumber(CommandMessage.FIELD_ALPHA, Float.intBitsToFloat(alphaBits));
+            return true;
+        } else if (Constants.TEXT_EVENT.equals(command) || Constants.ALERT_EVENT.equals(command)) {
+            message.setText(JsonCodec.fromBytes(payload));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public JSONObject decodeCommand(String command, byte[] payload) throws JSONException {
+        JSONObject d = new JSONObject();
+        if (Constants.COLOR_EVENT.equals(command)) {
+            if (payload.length < COLOR_SIZE) {
+                throw new JSONException("Binary color command must be " + COLOR_SIZE + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+            d.put("r", buffer.get() & 0xff);
+            d.put("g", buffer.get() & 0xff);
+            d.put("b", buffer.get() & 0xff);
+            d.put("alpha", (double) buffer.getFloat());
+        } else if (Constants.TEXT_EVENT.equals(command) || Constants.ALERT_EVENT.equals(command)) {
+            d.put("text", JsonCodec.fromBytes(payload));
+        } else if (payload.length > 0 && payload[0] == '{') {
+            return new JSONObject(JsonCodec.fromBytes(payload)).getJSONObject("d");
+        }
+        return d;
+    }
+}
@@ -0,0 +1,552 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * /fmt/cbor codec (RFC 7049). Messages have the same {"d": {...}} structure as the
+ * JSON messages, with sensor values encoded as 32-bit floats and location as
+ * 64-bit floats. Only definite-length items are produced or accepted. The well-known
+ * command fields are read without building a JSON tree; other payloads are decoded
+ * into org.json objects.
+ */
+public class CborCodec implements PayloadCodec {
+
+    public final static String FORMAT = "cbor";
+
+    private final static int MAJOR_UNSIGNED = 0;
+    private final static int MAJOR_NEGATIVE = 1;
+    private final static int MAJOR_BYTES = 2;
+    private final static int MAJOR_TEXT = 3;
+    private final static int MAJOR_ARRAY = 4;
+    private final static int MAJOR_MAP = 5;
+    private final static int MAJOR_SIMPLE = 7;
+
+    private final static int FALSE = 0xf4;
+    private final static int TRUE = 0xf5;
+    private final static int NULL = 0xf6;
+    private final static int SIMPLE_VALUE = 0xf8;
+    private final static int HALF_FLOAT = 0xf9;
+    private final static int SINGLE_FLOAT = 0xfa;
+    private final static int DOUBLE_FLOAT = 0xfb;
+    // deepest nesting of arrays and maps accepted in a payload
+    private final static int MAX_DEPTH = 32;
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public void encodeAccel(PayloadWriter out, float[] G, float[] O, float yaw, double lon, double lat) {
+        writeHeader(out, MAJOR_MAP, 1);
+        writeText(out, "d");
+        writeHeader(out, MAJOR_MAP, 8);
+        writeText(out, "acceleration_x");
+        writeFloat(out, G[0]);
+        writeText(out, "acceleration_y");
+        writeFloat(out, G[1]);
+        writeText(out, "acceleration_z");
+        writeFloat(out, G[2]);
+        writeText(out, "roll");
+        writeFloat(out, O[2]);
+        writeText(out, "pitch");
+        writeFloat(out, O[1]);
+        writeText(out, "yaw");
+        writeFloat(out, yaw);
+        writeText(out, "lon");
+        writeDouble(out, lon);
+        writeText(out, "lat");
+        writeDouble(out, lat);
+    }
+
+    @Override
+    public void encodeAccelBatch(PayloadWriter out, long time, long[] timestamps, float[] samples, int count,
+                                 float[] O, float yaw, double lon, double lat) {
+        writeHeader(out, MAJOR_MAP, 1);
+        writeText(out, "d");
+        writeHeader(out, MAJOR_MAP, 10);
+        writeText(out, "t");
+        writeHeader(out, MAJOR_UNSIGNED, time);
+        writeText(out, "dt");
+        writeHeader(out, MAJOR_ARRAY, count);
+        for (int i = 0; i < count; i++) {
+            writeFloat(out, (float) ((timestamps[i] - timestamps[0]) / 1e6));
+        }
+        String[] axes = {"acceleration_x", "acceleration_y", "acceleration_z"};
+        for (int axis = 0; axis < 3; axis++) {
+            writeText(out, axes[axis]);
+            writeHeader(out, MAJOR_ARRAY, count);
+            for (int i = 0; i < count; i++) {
+                writeFloat(out, samples[i * 3 + axis]);
+            }
+        }
+        writeText(out, "roll");
+        writeFloat(out, O[2]);
+        writeText(out, "pitch");
+        writeFloat(out, O[1]);
+        writeText(out, "yaw");
+        writeFloat(out, yaw);
+        writeText(out, "lon");
+        writeDouble(out, lon);
+        writeText(out, "lat");
+        writeDouble(out, lat);
+    }
+
+    @Override
+    public void encodeAccelStats(PayloadWriter out, WindowStats stats, double lon, double lat) {
+        writeHeader(out, MAJOR_MAP, 1);
+        writeText(out, "d");
+        writeHeader(out, MAJOR_MAP, 5 + WindowStats.ACCEL_CHANNELS);
+        writeText(out, "t");
+        writeHeader(out, MAJOR_UNSIGNED, stats.getStartTime());
+        writeText(out, "window");
+        writeHeader(out, MAJOR_UNSIGNED, stats.getDurationMillis());
+        writeText(out, "n");
+        writeHeader(out, MAJOR_UNSIGNED, stats.getCount());
+        for (int channel = 0; channel < WindowStats.ACCEL_CHANNELS; channel++) {
+            writeText(out, WindowStats.ACCEL_CHANNEL_NAMES[channel]);
+            if (stats.isAngular(channel)) {
+                writeHeader(out, MAJOR_MAP, 2);
+            } else {
+                writeHeader(out, MAJOR_MAP, 5);
+                writeText(out, "min");
+                writeFloat(out, stats.getMin(channel));
+                writeText(out, "max");
+                writeFloat(out, stats.getMax(channel));
+            }
+            writeText(out, "mean");
+            writeFloat(out, stats.getMean(channel));
+            if (!stats.isAngular(channel)) {
+                writeText(out, "rms");
+                writeFloat(out, stats.getRms(channel));
+            }
+            writeText(out, "var");
+            writeFloat(out, stats.getVariance(channel));
+        }
+        writeText(out, "lon");
+        writeDouble(out, lon);
+        writeText(out, "lat");
+        writeDouble(out, lat);
+    }
+
+    @Override
+    public void encodeVibration(PayloadWriter out, VibrationFeatures features, double lon, double lat) {
+        writeHeader(out, MAJOR_MAP, 1);
+        writeText(out, "d");
+        writeHeader(out, MAJOR_MAP, 10);
+        writeText(out, "t");
+        writeHeader(out, MAJOR_UNSIGNED, features.getTime());
+        writeText(out, "fs");
+        writeFloat(out, features.getSampleRate());
+        writeText(out, "windows");
+        writeHeader(out, MAJOR_UNSIGNED, features.getWindows());
+        writeText(out, "rms");
+        writeFloat(out, features.getRms());
+        writeText(out, "peak_hz");
+        writeHeader(out, MAJOR_ARRAY, features.getPeakCount());
+        for (int i = 0; i < features.getPeakCount(); i++) {
+            writeFloat(out, features.getPeakFrequency(i));
+        }
+        writeText(out, "peak_amplitude");
+        writeHeader(out, MAJOR_ARRAY, features.getPeakCount());
+        for (int i = 0; i < features.getPeakCount(); i++) {
+            writeFloat(out, features.getPeakAmplitude(i));
+        }
+        writeText(out, "band_hz");
+        writeFloat(out, features.getBandWidth());
+        writeText(out, "band_energy");
+        writeHeader(out, MAJOR_ARRAY, features.getBandCount());
+        for (int i = 0; i < features.getBandCount(); i++) {
+            writeFloat(out, features.getBandEnergy(i));
+        }
+        writeText(out, "lon");
+        writeDouble(out, lon);
+        writeText(out, "lat");
+        writeDouble(out, lat);
+    }
+
+    @Override
+    public void encodeText(PayloadWriter out, String text) {
+        writeHeader(out, MAJOR_MAP, 1);
+        writeText(out, "d");
+        writeHeader(out, MAJOR_MAP, 1);
+        writeText(out, "text");
+        writeText(out, text);
+    }
+
+    @Override
+    public void encodeTouch(PayloadWriter out, double x, double y, double dX, double dY, boolean ended) {
+        writeHeader(out, MAJOR_MAP, 1);
+        writeText(out, "d");
+        writeHeader(out, MAJOR_MAP, ended ? 5 : 4);
+        writeText(out, "screenX");
+        writeFloat(out, (float) x);
+        writeText(out, "screenY");
+        writeFloat(out, (float) y);
+        writeText(out, "deltaX");
+        writeFloat(out, (float) dX);
+        writeText(out, "deltaY");
+        writeFloat(out, (float) dY);
+        if (ended) {
+            writeText(out, "ended");
+            writeHeader(out, MAJOR_UNSIGNED, 1);
+        }
+    }
+
+    @Override
+    public boolean readCommand(String command, byte[] payload, CommandMessage message) {
+        try {
+            return new Reader(payload).scanCommand(message);
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public JSONObject decodeCommand(String command, byte[] payload) throws JSONException {
+        Reader reader = new Reader(payload);
+        Object top = reader.readItem();
+        if (!(top instanceof JSONObject)) {
+            throw new JSONException("CBOR command payload is not a map");
+        }
+        return ((JSONObject) top).getJSONObject("d");
+    }
+
+    /**************************************************************************
+     * Encoding helpers
+     **************************************************************************/
+
+    private static void writeHeader(PayloadWriter out, int major, long value) {
+        int type = major << 5;
+        if (value < 24) {
+            out.writeByte(type | (int) value);
+        } else if (value <= 0xff) {
+            out.writeByte(type | 24).writeByte((int) value);
+        } else if (value <= 0xffff) {
+            out.writeByte(type | 25).writeBigEndian(value, 2);
+        } else if (value <= 0xffffffffL) {
+            out.writeByte(type | 26).writeBigEndian(value, 4);
+        } else {
+            out.writeByte(type | 27).writeBigEndian(value, 8);
+        }
+    }
+
+    private static void writeText(PayloadWriter out, String text) {
+        writeHeader(out, MAJOR_TEXT, PayloadWriter.utf8Length(text));
+        out.writeUtf8(text);
+    }
+
+    private static void writeFloat(PayloadWriter out, float value) {
+        out.writeByte(SINGLE_FLOAT).writeBigEndian(Float.floatToIntBits(value), 4);
+    }
+
+    private static void writeDouble(PayloadWriter out, double value) {
+        out.writeByte(DOUBLE_FLOAT).writeBigEndian(Double.doubleToLongBits(value), 8);
+    }
+
+    /**************************************************************************
+     * Decoding
+     **************************************************************************/
+
+    /**
+     * Decodes CBOR items into the org.json object model used by MessageConductor.
+     */
+    private static class Reader {
+        private final byte[] data;
+        private int pos = 0;
+        private int depth = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        Object readItem() throws JSONException {
+            int initial = readByte();
+            int major = initial >>> 5;
+            int info = initial & 0x1f;
+
+            if (major == MAJOR_SIMPLE) {
+                switch (initial) {
+                    case FALSE:
+                        return Boolean.FALSE;
+                    case TRUE:
+                        return Boolean.TRUE;
+                    case NULL:
+                        return JSONObject.NULL;
+                    case HALF_FLOAT:
+                        return (double) halfToFloat((int) readBigEndian(2));
+                    case SINGLE_FLOAT:
+                        return (double) Float.intBitsToFloat((int) readBigEndian(4));
+                    case DOUBLE_FLOAT:
+                        return Double.longBitsToDouble(readBigEndian(8));
+                    default:
+                        throw new JSONException("Unsupported CBOR simple value " + initial);
+                }
+            }
+
+            long value = readArgument(info);
+            switch (major) {
+                case MAJOR_UNSIGNED:
+                    return value;
+                case MAJOR_NEGATIVE:
+                    return -1 - value;
+                case MAJOR_BYTES:
+                    pos += checkLength(value);
+                    return JSONObject.NULL;
+                case MAJOR_TEXT: {
+                    int length = checkLength(value);
+                    String text = JsonCodec.fromBytes(data, pos, length);
+                    pos += length;
+                    return text;
+                }
+                case MAJOR_ARRAY: {
+                    enter();
+                    JSONArray array = new JSONArray();
+                    for (long i = 0; i < value; i++) {
+                        array.put(readItem());
+                    }
+                    depth--;
+                    return array;
+                }
+                case MAJOR_MAP: {
+                    enter();
+                    JSONObject map = new JSONObject();
+                    for (long i = 0; i < value; i++) {
+                        Object key = readItem();
+                        map.put(String.valueOf(key), readItem());
+                    }
+                    depth--;
+                    return map;
+                }
+                default:
+                    throw new JSONException("Unsupported CBOR major type " + major);
+            }
+        }
+
+        /**
+         * Read the well-known fields of the "d" map of a {"d": {...}} command into message,
+         * skipping everything else.
+         * @return False if the payload does not have that shape.
+         */
+        boolean scanCommand(CommandMessage message) throws JSONException {
+            long entries = readMapHeader();
+            if (entries < 0) {
+                return false;
+            }
+            boolean found = false;
+            for (long i = 0; i < entries; i++) {
+                int keyLength = readKey();
+                if (keyLength < 0) {
+                    return false;
+                }
+                if (keyLength == 1 && data[pos - 1] == 'd') {
+                    if (!scanData(message)) {
+                        return false;
+                    }
+                    found = true;
+                } else {
+                    skipItem();
+                }
+            }
+            return found && pos == data.length;
+        }
+
+        private boolean scanData(CommandMessage message) throws JSONException {
+            long entries = readMapHeader();
+            if (entries < 0) {
+                return false;
+            }
+            for (long i = 0; i < entries; i++) {
+                int keyLength = readKey();
+                if (keyLength < 0) {
+                    return false;
+                }
+                int field = CommandMessage.fieldIndex(data, pos - keyLength, keyLength);
+                if (field == CommandMessage.FIELD_TEXT) {
+                    int initial = readByte();
+                    if (initial >>> 5 != MAJOR_TEXT) {
+                        return false;
+                    }
+                    int length = checkLength(readArgument(initial & 0x1f));
+                    message.setText(JsonCodec.fromBytes(data, pos, length));
+                    pos += length;
+                } else if (field >= 0) {
+                    int initial = readByte();
+                    switch (initial >>> 5) {
+                        case MAJOR_UNSIGNED:
+                            message.setNumber(field, readArgument(initial & 0x1f));
+                            break;
+                        case MAJOR_NEGATIVE:
+                            message.setNumber(field, -1 - readArgument(initial & 0x1f));
+                            break;
+                        default:
+                            if (initial == HALF_FLOAT) {
+                                message.setNumber(field, halfToFloat((int) readBigEndian(2)));
+                            } else if (initial == SINGLE_FLOAT) {
+                                message.setNumber(field, Float.intBitsToFloat((int) readBigEndian(4)));
+                            } else if (initial == DOUBLE_FLOAT) {
+                                message.setNumber(field, Double.longBitsToDouble(readBigEndian(8)));
+                            } else {
+                                return false;
+                            }
+                            break;
+                    }
+                } else {
+                    skipItem();
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return The number of entries in the map at the current position, or -1 if it is not a map.
+         */
+        private long readMapHeader() throws JSONException {
+            int initial = readByte();
+            if (initial >>> 5 != MAJOR_MAP) {
+                return -1;
+            }
+            return readArgument(initial & 0x1f);
+        }
+
+        /**
+         * Skip over a text key, leaving the position just after it.
+         * @return The length of the key in bytes, or -1 if the key is not text.
+         */
+        private int readKey() throws JSONException {
+            int initial = readByte();
+            if (initial >>> 5 != MAJOR_TEXT) {
+                return -1;
+            }
+            int length = checkLength(readArgument(initial & 0x1f));
+            pos += length;
+            return length;
+        }
+
+        private void skipItem() throws JSONException {
+            int initial = readByte();
+            int major = initial >>> 5;
+            if (major == MAJOR_SIMPLE) {
+                if (initial == SIMPLE_VALUE) {
+                    pos += checkLength(1);
+                } else if (initial == HALF_FLOAT) {
+                    pos += checkLength(2);
+                } else if (initial == SINGLE_FLOAT) {
+                    pos += checkLength(4);
+                } else if (initial == DOUBLE_FLOAT) {
+                    pos += checkLength(8);
+                } else if (initial > DOUBLE_FLOAT) {
+                    throw new JSONException("Unsupported CBOR simple value " + initial);
+                }
+                return;
+            }
+            long value = readArgument(initial & 0x1f);
+            switch (major) {
+                case MAJOR_BYTES:
+                case MAJOR_TEXT:
+                    pos += checkLength(value);
+                    break;
+                case MAJOR_ARRAY:
+                    enter();
+                    for (long i = 0; i < value; i++) {
+                        skipItem();
+                    }
+                    depth--;
+                    break;
+                case MAJOR_MAP:
+                    enter();
+                    for (long i = 0; i < value * 2; i++) {
+                        skipItem();
+                    }
+                    depth--;
+                    break;
+                case MAJOR_UNSIGNED:
+                case MAJOR_NEGATIVE:
+                    break;
+                default:
+                    throw new JSONException("Unsupported CBOR major type " + major);
+            }
+        }
+
+        /**
+         * Start reading an array or map, refusing payloads nested deeper than MAX_DEPTH
+         * rather than recursing until the stack overflows.
+         */
+        private void enter() throws JSONException {
+            if (++depth > MAX_DEPTH) {
+                throw new JSONException("CBOR payload nested deeper than " + MAX_DEPTH);
+            }
+        }
+
+        private long readArgument(int info) throws JSONException {
+            if (info < 24) {
+                return info;
+            }
+            switch (info) {
+                case 24:
+                    return readBigEndian(1);
+                case 25:
+                    return readBigEndian(2);
+                case 26:
+                    return readBigEndian(4);
+                case 27:
+                    return readBigEndian(8);
+                default:
+                    throw new JSONException("Indefinite length CBOR items are not supported");
+            }
+        }
+
+        private int checkLength(long length) throws JSONException {
+            if (length < 0 || length > data.length - pos) {
+                throw new JSONException("CBOR item length exceeds payload");
+            }
+            return (int) length;
+        }
+
+        private int readByte() throws JSONException {
+            if (pos >= data.length) {
+                throw new JSONException("Unexpected end of CBOR payload");
+            }
+            return data[pos++] & 0xff;
+        }
+
+        private long readBigEndian(int bytes) throws JSONException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        private static float halfToFloat(int half) {
+            int exponent = (half >> 10) & 0x1f;
+            int mantissa = half & 0x3ff;
+            float value;
+            if (exponent == 0) {
+                value = mantissa * (float) Math.pow(2, -24);
+            } else if (exponent == 31) {
+                value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+            } else {
+                value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+            }
+            return (half & 0x8000) != 0 ? -value : value;
+        }
+    }
+}
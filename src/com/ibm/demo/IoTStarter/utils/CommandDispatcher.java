@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.util.Log;
+import org.json.JSONException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs received commands off the MQTT callback thread. Each command name has its own
+ * lane: commands in a lane run one at a time in arrival order, while different lanes
+ * run in parallel on a small shared thread pool. A slow handler (e.g. light, which
+ * opens the camera) therefore only delays later commands of the same name.
+ *
+ * Each lane holds at most queueLimit waiting commands; when it is full the overflow
+ * policy decides whether the new or the oldest command is dropped. A busy lane runs at
+ * most COMMAND_LANE_BATCH commands before going to the back of the pool's queue, so a
+ * burst of one command cannot hold a thread while other lanes wait.
+ */
+public class CommandDispatcher {
+
+    private final static String TAG = CommandDispatcher.class.getName();
+
+    private final CommandRouter router;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<String, Lane>();
+    private volatile int queueLimit;
+    private volatile Constants.OverflowPolicy overflowPolicy;
+
+    // totals across all lanes, published in the metrics registry; each lane also has its own
+    private final StripedCounter droppedTotal = MetricsRegistry.getInstance().counter(Constants.METRIC_COMMAND_DROPPED);
+    private final Histogram queueTimeMicros = MetricsRegistry.getInstance().histogram(Constants.METRIC_COMMAND_QUEUE_TIME);
+
+    /**
+     * @param router         The router that runs each command.
+     * @param threads        Number of commands that can run at the same time.
+     * @param queueLimit     Maximum number of commands waiting in each lane.
+     * @param overflowPolicy What to drop when a lane is full.
+     */
+    public CommandDispatcher(CommandRouter router, int threads, int queueLimit, Constants.OverflowPolicy overflowPolicy) {
+        this.router = router;
+        this.queueLimit = queueLimit;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "IoTStarter-command-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queue a command to be routed on the command's lane. Returns immediately.
+     *
+     * @param topic   The topic the command was received on.
+     * @param payload The payload of the command.
+     */
+    public void dispatch(String topic, byte[] payload) {
+        String command = TopicFactory.getCommand(topic);
+        if (command == null || router.getHandler(command) == null) {
+            Log.w(TAG, ".dispatch() - No handler for topic " + topic);
+            return;
+        }
+        getLane(command).add(new Task(topic, payload));
+    }
+
+    private Lane getLane(String command) {
+        Lane lane = lanes.get(command);
+        if (lane == null) {
+            Lane created = new Lane(command);
+            lane = lanes.putIfAbsent(command, created);
+            if (lane == null) {
+                lane = created;
+            }
+        }
+        return lane;
+    }
+
+    public void setQueueLimit(int queueLimit) {
+        this.queueLimit = queueLimit;
+    }
+
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    public void setOverflowPolicy(Constants.OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public Constants.OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return The names of the commands that have been dispatched.
+     */
+    public List<String> getCommands() {
+        return new ArrayList<String>(lanes.keySet());
+    }
+
+    /**
+     * @param command The command name.
+     * @return The number of commands waiting in the lane.
+     */
+    public int getQueueDepth(String command) {
+        Lane lane = lanes.get(command);
+        if (lane == null) {
+            return 0;
+        }
+        synchronized (lane) {
+            return lane.queue.size();
+        }
+    }
+
+    /**
+     * @return The number of commands waiting in all lanes.
+     */
+    public int getTotalQueueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                depth += lane.queue.size();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * @param command The command name.
+     * @return The number of commands that have been run.
+     */
+    public long getDispatchedCount(String command) {
+        Lane lane = lanes.get(command);
+        return lane == null ? 0 : lane.dispatchedCount;
+    }
+
+    /**
+     * @param command The command name.
+     * @return The number of commands dropped because the lane was full.
+     */
+    public long getDroppedCount(String command) {
+        Lane lane = lanes.get(command);
+        return lane == null ? 0 : lane.droppedCount;
+    }
+
+    /**
+     * @param command The command name.
+     * @return The mean time commands waited in the lane before running, in milliseconds.
+     */
+    public double getAverageQueueTimeMillis(String command) {
+        Lane lane = lanes.get(command);
+        if (lane == null) {
+            return 0;
+        }
+        synchronized (lane) {
+            return lane.dispatchedCount == 0 ? 0 : lane.totalQueueNanos / 1e6 / lane.dispatchedCount;
+        }
+    }
+
+    /**
+     * @param command The command name.
+     * @return The longest time a command waited in the lane before running, in milliseconds.
+     */
+    public double getMaxQueueTimeMillis(String command) {
+        Lane lane = lanes.get(command);
+        return lane == null ? 0 : lane.maxQueueNanos / 1e6;
+    }
+
+    private static class Task {
+        final String topic;
+        final byte[] payload;
+        final long enqueueTime = System.nanoTime();
+
+        Task(String topic, byte[] payload) {
+            this.topic = topic;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * The queue of one command name. At most one drain of a lane is scheduled on the
+     * executor at a time, which is what keeps the lane in order.
+     */
+    private class Lane implements Runnable {
+        private final String command;
+        private final ArrayDeque<Task> queue = new ArrayDeque<Task>();
+        private boolean scheduled = false;
+        private volatile long dispatchedCount = 0;
+        private volatile long droppedCount = 0;
+        private long totalQueueNanos = 0;
+        private volatile long maxQueueNanos = 0;
+        private final Histogram laneQueueTimeMicros;
+
+        Lane(String command) {
+            this.command = command;
+            laneQueueTimeMicros = MetricsRegistry.getInstance()
+                    .histogram(Constants.METRIC_COMMAND_QUEUE_TIME_BY_COMMAND, command);
+        }
+
+        synchronized void add(Task task) {
+            if (queue.size() >= queueLimit) {
+                droppedCount++;
+                droppedTotal.increment();
+                MetricsRegistry.getInstance().counter(Constants.METRIC_COMMAND_DROPPED_BY_COMMAND, command).increment();
+                if (overflowPolicy == Constants.OverflowPolicy.DROP_NEWEST) {
+                    Log.w(TAG, ".dispatch() - " + command + " queue full, dropping newest");
+                    return;
+                }
+                Log.w(TAG, ".dispatch() - " + command + " queue full, dropping oldest");
+                queue.poll();
+            }
+            queue.add(task);
+            if (!scheduled) {
+                scheduled = true;
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int run = 0; ; run++) {
+                Task task;
+                long queueNanos;
+                synchronized (this) {
+                    if (run == Constants.COMMAND_LANE_BATCH && !queue.isEmpty()) {
+                        // yield the thread; the lane stays scheduled and continues after the others
+                        executor.execute(this);
+                        return;
+                    }
+                    task = queue.poll();
+                    if (task == null) {
+                        scheduled = false;
+                        return;
+                    }
+                    queueNanos = System.nanoTime() - task.enqueueTime;
+                    dispatchedCount++;
+                    totalQueueNanos += queueNanos;
+                    if (queueNanos > maxQueueNanos) {
+                        maxQueueNanos = queueNanos;
+                    }
+                }
+                queueTimeMicros.record(queueNanos / 1000);
+                laneQueueTimeMicros.record(queueNanos / 1000);
+
+                try {
+                    router.route(task.topic, task.payload);
+                } catch (JSONException e) {
+                    Log.e(TAG, ".run() - Exception caught while handling " + command, e);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, ".run() - Exception caught while handling " + command, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+
+/**
+ * Handles one command received on iot-2/cmd/[command]/fmt/[format].
+ * Handlers are registered by command name with the CommandRouter.
+ */
+public interface CommandHandler {
+
+    /**
+     * @param message The received command.
+     * @throws JSONException If the command payload cannot be decoded.
+     */
+    void handleCommand(CommandMessage message) throws JSONException;
+}
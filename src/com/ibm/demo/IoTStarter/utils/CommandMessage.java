@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A received command. The well-known fields of the "d" object (r, g, b, alpha and text)
+ * are read straight from the payload bytes by the codec's streaming reader, so the
+ * common commands never build a JSON tree. Any other field, or a payload the streaming
+ * reader does not understand, falls back to the codec's full org.json decode, which is
+ * done at most once per message.
+ */
+public class CommandMessage {
+
+    public final static int FIELD_R = 0;
+    public final static int FIELD_G = 1;
+    public final static int FIELD_B = 2;
+    public final static int FIELD_ALPHA = 3;
+    public final static int FIELD_TEXT = 4;
+
+    private final static String[] FIELD_NAMES = {"r", "g", "b", "alpha", "text"};
+
+    private final String command;
+    private final byte[] payload;
+    private final PayloadCodec codec;
+
+    private final boolean streamed;
+    private final double[] numbers = new double[FIELD_TEXT];
+    private String text;
+    private int present = 0;
+    private JSONObject data;
+
+    /**
+     * @param command The command name from the topic.
+     * @param codec   The codec for the topic's format.
+     * @param payload The payload received.
+     */
+    public CommandMessage(String command, PayloadCodec codec, byte[] payload) {
+        this.command = command;
+        this.codec = codec;
+        this.payload = payload;
+        this.streamed = codec.readCommand(command, payload, this);
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public PayloadCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return True if the well-known fields were read by the streaming reader.
+     */
+    public boolean isStreamed() {
+        return streamed;
+    }
+
+    /**
+     * @return The full "d" object, decoded with org.json on first use.
+     * @throws JSONException If the payload cannot be decoded.
+     */
+    public synchronized JSONObject getData() throws JSONException {
+        if (data == null) {
+            data = codec.decodeCommand(command, payload);
+        }
+        return data;
+    }
+
+    public int getInt(String key) throws JSONException {
+        int field = numberField(key);
+        if (field >= 0) {
+            return (int) numbers[field];
+        }
+        return getData().getInt(key);
+    }
+
+    public double getDouble(String key) throws JSONException {
+        int field = numberField(key);
+        if (field >= 0) {
+            return numbers[field];
+        }
+        return getData().getDouble(key);
+    }
+
+    public String getString(String key) throws JSONException {
+        if (streamed && FIELD_NAMES[FIELD_TEXT].equals(key) && (present & (1 << FIELD_TEXT)) != 0) {
+            return text;
+        }
+        return getData().getString(key);
+    }
+
+    private int numberField(String key) {
+        if (!streamed) {
+            return -1;
+        }
+        for (int field = 0; field < FIELD_TEXT; field++) {
+            if (FIELD_NAMES[field].equals(key)) {
+                return (present & (1 << field)) != 0 ? field : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**************************************************************************
+     * Used by the codecs' streaming readers
+     **************************************************************************/
+
+    /**
+     * Match a key against the well-known field names without creating a String.
+     *
+     * @param bytes  Buffer holding the key as ASCII or UTF-8.
+     * @param offset Start of the key.
+     * @param length Length of the key in bytes.
+     * @return The FIELD_ constant for the key, or -1 if it is not a well-known field.
+     */
+    static int fieldIndex(byte[] bytes, int offset, int length) {
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            String name = FIELD_NAMES[field];
+            if (name.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && bytes[offset + i] == name.charAt(i)) {
+                i++;
+            }
+            if (i == length) {
+                return field;
+            }
+        }
+        return -1;
+    }
+
+    void setNumber(int field, double value) {
+        numbers[field] = value;
+        present |= 1 << field;
+    }
+
+    void setText(String value) {
+        text = value;
+        present |= 1 << FIELD_TEXT;
+    }
+}
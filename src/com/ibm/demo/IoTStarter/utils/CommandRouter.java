@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.util.Log;
+import org.json.JSONException;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes received commands to the handler registered for the exact command name
+ * in the topic iot-2/cmd/[command]/fmt/[format].
+ */
+public class CommandRouter {
+
+    private final static String TAG = CommandRouter.class.getName();
+
+    private final ConcurrentHashMap<String, CommandHandler> handlers = new ConcurrentHashMap<String, CommandHandler>();
+
+    /**
+     * Register a handler for a command, replacing any handler already registered for it.
+     * @param command The command name, e.g. "color".
+     * @param handler The handler to call for the command.
+     */
+    public void register(String command, CommandHandler handler) {
+        Log.d(TAG, ".register() entered - " + command);
+        handlers.put(command, handler);
+    }
+
+    /**
+     * @param command The command name to remove the handler for.
+     */
+    public void unregister(String command) {
+        Log.d(TAG, ".unregister() entered - " + command);
+        handlers.remove(command);
+    }
+
+    /**
+     * @param command The command name.
+     * @return The handler registered for the command, or null if there is none.
+     */
+    public CommandHandler getHandler(String command) {
+        return handlers.get(command);
+    }
+
+    /**
+     * Call the handler registered for the command in the topic. The payload is read by
+     * the codec matching the /fmt/ segment of the topic, falling back to JSON.
+     *
+     * @param topic The topic the command was received on.
+     * @param payload The payload of the command.
+     * @return True if a handler was called, false if the command is not registered.
+     * @throws JSONException If the handler cannot decode the payload.
+     */
+    public boolean route(String topic, byte[] payload) throws JSONException {
+        String command = TopicFactory.getCommand(topic);
+        CommandHandler handler = command == null ? null : handlers.get(command);
+        if (handler == null) {
+            Log.w(TAG, ".route() - No handler for topic " + topic);
+            return false;
+        }
+
+        String format = TopicFactory.getFormat(topic);
+        PayloadCodec codec = format == null ? null : PayloadCodecs.get(format);
+        if (codec == null) {
+            Log.w(TAG, ".route() - No codec for format " + format + ", trying JSON");
+            codec = PayloadCodecs.getDefault();
+        }
+        handler.handleCommand(new CommandMessage(command, codec, payload));
+        return true;
+    }
+}
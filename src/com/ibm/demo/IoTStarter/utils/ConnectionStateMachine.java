@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.ibm.demo.IoTStarter.IoTStarterApplication;
+import com.ibm.demo.IoTStarter.fragments.LoginFragment;
+
+import java.util.Random;
+
+/**
+ * Owns the lifecycle of the MQTT connection. Tracks the connection state
+ * (DISCONNECTED, CONNECTING, CONNECTED, BACKING_OFF) and, after a connection that
+ * was once established is lost, reconnects automatically using capped exponential
+ * backoff with full jitter. The command subscription is restored on every connect.
+ */
+public class ConnectionStateMachine {
+
+    private final static String TAG = ConnectionStateMachine.class.getName();
+    private static ConnectionStateMachine instance;
+    private Context context;
+    private IoTStarterApplication app;
+    private Handler handler;
+    private Random random = new Random();
+
+    private Constants.ConnectionState state = Constants.ConnectionState.DISCONNECTED;
+    // true while the user wants the device to be connected (between Activate and Deactivate)
+    private boolean connectRequested = false;
+    // true once a connection has succeeded since the user pressed Activate
+    private boolean everConnected = false;
+    private int attempt = 0;
+
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    };
+
+    private ConnectionStateMachine(Context context) {
+        this.context = context;
+        this.app = (IoTStarterApplication) context.getApplicationContext();
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * @param context The application context for the object.
+     * @return The ConnectionStateMachine object for the application.
+     */
+    public static synchronized ConnectionStateMachine getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConnectionStateMachine(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Connect at the user's request.
+     */
+    public synchronized void requestConnect() {
+        Log.d(TAG, ".requestConnect() entered in state " + state);
+        connectRequested = true;
+        everConnected = false;
+        attempt = 0;
+        if (state == Constants.ConnectionState.DISCONNECTED || state == Constants.ConnectionState.BACKING_OFF) {
+            handler.removeCallbacks(reconnectTask);
+            startConnect();
+        }
+    }
+
+    /**
+     * Disconnect at the user's request. Any pending reconnect is cancelled.
+     */
+    public synchronized void requestDisconnect() {
+        Log.d(TAG, ".requestDisconnect() entered in state " + state);
+        connectRequested = false;
+        handler.removeCallbacks(reconnectTask);
+        if (state == Constants.ConnectionState.CONNECTED || state == Constants.ConnectionState.CONNECTING) {
+            MqttHandler.getInstance(context).closeConnection();
+        } else {
+            onDisconnected();
+        }
+    }
+
+    /**
+     * Called when the client has connected to the MQTT server.
+     */
+    public void onConnectSuccess() {
+        synchronized (this) {
+            Log.d(TAG, ".onConnectSuccess() entered in state " + state);
+            setState(Constants.ConnectionState.CONNECTED);
+            if (!connectRequested) {
+                // the user deactivated while the connect was in flight
+                MqttHandler.getInstance(context).closeConnection();
+                return;
+            }
+            everConnected = true;
+            attempt = 0;
+        }
+
+        MqttHandler mqttHandler = MqttHandler.getInstance(context);
+        if (app.getConnectionType() != Constants.ConnectionType.QUICKSTART) {
+            // clean sessions drop subscriptions, so restore the command subscription on every connect.
+            // Commands may arrive in any format that has a registered codec.
+            mqttHandler.subscribe(TopicFactory.getCommandTopic("+", "+"), 0);
+        }
+
+        // forward anything published while the client was disconnected
+        mqttHandler.replayOfflineMessages();
+
+        postToLogin(Constants.INTENT_DATA_CONNECT);
+    }
+
+    /**
+     * Called when an attempt to connect failed.
+     *
+     * @param throwable The exception corresponding to the failure.
+     */
+    public synchronized void onConnectFailure(Throwable throwable) {
+        Log.d(TAG, ".onConnectFailure() entered in state " + state);
+        if (connectRequested && everConnected) {
+            scheduleReconnect();
+        } else {
+            // the initial connect failed, let the user correct the settings
+            connectRequested = false;
+            onDisconnected();
+        }
+    }
+
+    /**
+     * Called when an established connection was lost.
+     *
+     * @param throwable The exception corresponding to the loss, or null.
+     */
+    public synchronized void onConnectionLost(Throwable throwable) {
+        Log.d(TAG, ".onConnectionLost() entered in state " + state);
+        if (state != Constants.ConnectionState.CONNECTED) {
+            return;
+        }
+        MqttHandler.getInstance(context).getOfflineQueue().stopReplay();
+        if (connectRequested) {
+            scheduleReconnect();
+        } else {
+            onDisconnected();
+        }
+    }
+
+    /**
+     * Called when the client has disconnected from the MQTT server.
+     */
+    public synchronized void onDisconnected() {
+        Log.d(TAG, ".onDisconnected() entered in state " + state);
+        handler.removeCallbacks(reconnectTask);
+        MqttHandler.getInstance(context).getOfflineQueue().stopReplay();
+        setState(Constants.ConnectionState.DISCONNECTED);
+        postToLogin(Constants.INTENT_DATA_DISCONNECT);
+    }
+
+    /**
+     * @return The current connection state.
+     */
+    public synchronized Constants.ConnectionState getState() {
+        return state;
+    }
+
+    /**
+     * Schedule the next connection attempt. The delay is drawn uniformly from
+     * [0, min(max, base * 2^attempt)) so that devices disconnected by the same
+     * broker outage do not all reconnect at once.
+     */
+    private void scheduleReconnect() {
+        long ceiling = Constants.RECONNECT_BASE_DELAY_MS << Math.min(attempt, 20);
+        ceiling = Math.min(ceiling, Constants.RECONNECT_MAX_DELAY_MS);
+        long delay = (long) (random.nextDouble() * ceiling);
+        attempt++;
+        Log.d(TAG, ".scheduleReconnect() - Attempt " + attempt + " in " + delay + "ms");
+        setState(Constants.ConnectionState.BACKING_OFF);
+        handler.removeCallbacks(reconnectTask);
+        handler.postDelayed(reconnectTask, delay);
+    }
+
+    private synchronized void reconnect() {
+        if (state == Constants.ConnectionState.BACKING_OFF && connectRequested) {
+            startConnect();
+        }
+    }
+
+    private void startConnect() {
+        setState(Constants.ConnectionState.CONNECTING);
+        MqttHandler.getInstance(context).openConnection();
+    }
+
+    private void setState(Constants.ConnectionState newState) {
+        if (state != newState) {
+            Log.d(TAG, ".setState() - " + state + " -> " + newState);
+            state = newState;
+        }
+        app.setConnected(newState == Constants.ConnectionState.CONNECTED);
+    }
+
+    private void postToLogin(String data) {
+        String runningActivity = app.getCurrentRunningActivity();
+        if (runningActivity != null && runningActivity.equals(LoginFragment.class.getName())) {
+            EventBus.getInstance().post(Constants.INTENT_LOGIN, data);
+        }
+    }
+}
@@ -46,6 +46,24 @@ public class Constants {
         CONNECTING, DISCONNECTING, SUBSCRIBE, UNSUBSCRIBE, PUBLISH
     }
 
+    public enum TransportMode {
+        // Paho Android Service, MqttAndroidClient
+        SERVICE,
+        // Paho MqttAsyncClient running in the application process
+        IN_PROCESS
+    }
+
+    public enum ConnectionState {
+        DISCONNECTED, CONNECTING, CONNECTED, BACKING_OFF
+    }
+
+    public enum OverflowPolicy {
+        // discard the command that did not fit
+        DROP_NEWEST,
+        // discard the longest-waiting command to make room
+        DROP_OLDEST
+    }
+
     // IoT properties
     public final static String AUTH_TOKEN = "authtoken";
     public final static String DEVICE_ID = "deviceid";
@@ -56,6 +74,7 @@ public class Constants {
     public final static String EVENT_TOPIC = "iot-2/evt/";
     public final static String COMMAND_TOPIC = "iot-2/cmd/";
     public final static String FORMAT_TOPIC = "/fmt/json";
+    public final static String FORMAT_PREFIX = "/fmt/";
 
     // IoT events and commands
     public final static String ACCEL_EVENT = "accel";
@@ -66,6 +85,8 @@ public class Constants {
     public final static String ALERT_EVENT = "alert";
     public final static String UNREAD_EVENT = "unread";
     public final static String STATUS_EVENT = "status";
+    public final static String ACCEL_STATS_EVENT = "accelstats";
+    public final static String VIBRATION_EVENT = "vibration";
 
     public final static String CONNECTIVITY_MESSAGE = "connectivityMessage";
     public final static String ACTION_INTENT_CONNECTIVITY_MESSAGE_RECEIVED = Constants.APP_ID + "." + "CONNECTIVITY_MESSAGE_RECEIVED";
@@ -87,6 +108,118 @@ public class Constants {
 
     public final static int ERROR_BROKER_UNAVAILABLE = 3;
 
+    // Publish pipeline
+    public final static int PUBLISH_QUEUE_CAPACITY = 1024;
+    public final static int PUBLISH_MAX_BATCH_SIZE = 32;
+    public final static long PUBLISH_LINGER_MS = 20;
+
+    // Reconnect backoff
+    public final static long RECONNECT_BASE_DELAY_MS = 1000;
+    public final static long RECONNECT_MAX_DELAY_MS = 5 * 60 * 1000;
+
+    // Offline store-and-forward queue
+    public final static String OFFLINE_QUEUE_DIR = "offline";
+    public final static int OFFLINE_SEGMENT_SIZE = 256 * 1024;
+    public final static int OFFLINE_MAX_SEGMENTS = 16;
+    public final static int OFFLINE_REPLAY_RATE = 50;
+    public final static long OFFLINE_REPLAY_BACKOFF_MS = 100;
+
+    // Command dispatch
+    public final static int COMMAND_DISPATCH_THREADS = 4;
+    public final static int COMMAND_QUEUE_LIMIT = 64;
+    // commands a lane runs before giving its pool thread to the other lanes
+    public final static int COMMAND_LANE_BATCH = 16;
+
+    // Accel sampling and publish scheduling: per-profile defaults and adaptive backoff
+    public final static int ACCEL_SAMPLING_PERIOD_US = 200000;
+    public final static long ACCEL_PUBLISH_INTERVAL_MS = 1000;
+    public final static long ACCEL_MAX_PUBLISH_INTERVAL_MS = 30000;
+    // lower limits; sampling periods below 4 us would be read as the SENSOR_DELAY_ constants
+    public final static int ACCEL_MIN_SAMPLING_PERIOD_US = 5000;
+    public final static long ACCEL_MIN_PUBLISH_INTERVAL_MS = 100;
+    public final static int SAMPLE_CONGESTION_QUEUE_DEPTH = PUBLISH_MAX_BATCH_SIZE;
+    public final static long SAMPLE_CONGESTION_ACK_LATENCY_MS = 1000;
+    public final static int SAMPLE_RECOVERY_STEPS = 8;
+
+    // Accel deadband: publish only readings that changed, or a heartbeat
+    public final static float ACCEL_DEADBAND = 0.2f;
+    public final static float ORIENTATION_DEADBAND = 0.05f;
+    public final static float LOCATION_DEADBAND_M = Constants.LOCATION_MIN_DISTANCE;
+    public final static long ACCEL_HEARTBEAT_MS = 60000;
+
+    // Orientation filter time constants, with and without a gyroscope
+    public final static float ORIENTATION_GYRO_TIME_CONSTANT_S = 1.0f;
+    public final static float ORIENTATION_SMOOTHING_TIME_CONSTANT_S = 0.05f;
+
+    // Batched accel publishing: window 0 publishes the latest reading every publish interval
+    public final static long ACCEL_BATCH_WINDOW_MS = 1000;
+    public final static int ACCEL_BATCH_SAMPLING_PERIOD_US = 20000;
+    public final static int ACCEL_BATCH_MAX_SAMPLES = 4096;
+
+    // Windowed accel aggregation: window 0 turns it off; a window of one slide is tumbling
+    public final static long ACCEL_AGGREGATE_WINDOW_MS = 60000;
+    public final static long ACCEL_AGGREGATE_SLIDE_MS = 10000;
+
+    // Vibration capture: accelerometer at the fastest rate, FFT spectrum features every publish interval
+    public final static int VIBRATION_FFT_SIZE = 256;
+    public final static int VIBRATION_HOP_SIZE = VIBRATION_FFT_SIZE / 2;
+    public final static int VIBRATION_PEAKS = 5;
+    public final static int VIBRATION_BANDS = 8;
+    public final static long VIBRATION_PUBLISH_INTERVAL_MS = 1000;
+    public final static int VIBRATION_BUFFER_SAMPLES = 4096;
+
+    // Message log: recent messages kept in memory, full history in segment files
+    public final static int MESSAGE_LOG_MAX_ENTRIES = 1000;
+    public final static int MESSAGE_LOG_MAX_BYTES = 512 * 1024;
+    public final static String MESSAGE_STORE_DIR = "messages";
+    public final static int MESSAGE_STORE_SEGMENT_SIZE = 1024 * 1024;
+    public final static int MESSAGE_STORE_MAX_SEGMENTS = 64;
+    public final static int MESSAGE_SEARCH_LIMIT = 500;
+    // search runs this long after the last keystroke, off the UI thread
+    public final static long MESSAGE_SEARCH_DEBOUNCE_MS = 150;
+
+    // Metric names (MetricsRegistry)
+    public final static String METRIC_PUBLISHED = "publish.count";
+    public final static String METRIC_PUBLISHED_BYTES = "publish.bytes";
+    public final static String METRIC_PUBLISHED_BY_TOPIC = "publish.topic";
+    public final static String METRIC_PUBLISH_DROPPED = "publish.dropped";
+    public final static String METRIC_PUBLISH_SPILLED = "publish.spilled";
+    public final static String METRIC_PUBLISH_BATCH_SIZE = "publish.batch.size";
+    public final static String METRIC_PUBLISH_QUEUE_DEPTH = "publish.queue.depth";
+    public final static String METRIC_PUBLISH_SEND_LATENCY = "publish.send.latency.us";
+    public final static String METRIC_PUBLISH_ACK_LATENCY = "publish.ack.latency.us";
+    public final static String METRIC_PUBLISH_FAILED = "publish.failed";
+    public final static String METRIC_RECEIVED = "receive.count";
+    public final static String METRIC_RECEIVED_BYTES = "receive.bytes";
+    public final static String METRIC_RECEIVED_BY_TOPIC = "receive.topic";
+    public final static String METRIC_UNREAD = "unread.count";
+    public final static String METRIC_OFFLINE_QUEUE_DEPTH = "offline.queue.depth";
+    public final static String METRIC_OFFLINE_EVICTED = "offline.evicted";
+    public final static String METRIC_OFFLINE_REPLAYED = "offline.replayed";
+    public final static String METRIC_OFFLINE_REPLAY_RATE = "offline.replay.rate";
+    public final static String METRIC_COMMAND_QUEUE_DEPTH = "command.queue.depth";
+    public final static String METRIC_COMMAND_DROPPED = "command.dropped";
+    public final static String METRIC_COMMAND_QUEUE_TIME = "command.queue.time.us";
+    public final static String METRIC_COMMAND_QUEUE_TIME_BY_COMMAND = "command.lane.queue.time.us";
+    public final static String METRIC_COMMAND_DROPPED_BY_COMMAND = "command.lane.dropped";
+    public final static String METRIC_STATE_OFFERED = "state.offered";
+    public final static String METRIC_STATE_APPLIED = "state.applied";
+    public final static String METRIC_STATE_COALESCED = "state.coalesced";
+    public final static String METRIC_PUBLISH_ACK_LATENCY_SMOOTHED = "publish.ack.latency.smoothed.us";
+    public final static String METRIC_ACCEL_PUBLISH_INTERVAL = "accel.publish.interval.ms";
+    public final static String METRIC_ACCEL_SUPPRESSED = "accel.suppressed";
+    public final static String METRIC_ACCEL_SAMPLES_DROPPED = "accel.samples.dropped";
+
+    // TransportBenchmark, run from the Run Transport Benchmark menu item against a local broker; the
+    // default reaches a broker on the device, or on a development machine through adb reverse tcp:1883
+    public final static String BENCHMARK_SERVER_URI = "tcp://localhost:" + SETTINGS_MQTT_PORT;
+    public final static int BENCHMARK_MESSAGES = 1000;
+    public final static int BENCHMARK_PAYLOAD_SIZE = 128;
+    public final static int BENCHMARK_QOS = 0;
+
+    // Interval at which coalesced state and UI updates are applied (about 60 fps)
+    public final static long FRAME_INTERVAL_MS = 16;
+
     // Location Services
     public final static int LOCATION_MIN_TIME = 30000;
     public final static float LOCATION_MIN_DISTANCE = 5;
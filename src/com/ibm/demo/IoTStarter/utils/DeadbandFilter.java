@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Decides whether a sensor reading differs enough from the last published one to be
+ * worth publishing. Each channel has its own deadband:
+ *
+ *   acceleration  Euclidean distance between x, y, z vectors, in m/s^2
+ *   orientation   largest change of azimuth, pitch or roll, in radians
+ *   location      distance moved, in meters
+ *
+ * A reading is published when any channel moves out of its deadband, or when the
+ * heartbeat interval has passed since the last publish, so subscribers can tell a
+ * quiet device from one that is gone. A deadband of 0 publishes every change on that
+ * channel; a negative deadband ignores the channel.
+ *
+ * Not thread safe; used from the publishing thread only.
+ */
+public class DeadbandFilter {
+
+    private final static double METERS_PER_DEGREE = 111320.0;
+
+    private float accelDeadband;
+    private float orientationDeadband;
+    private float locationDeadbandMeters;
+    private long heartbeatMillis;
+
+    private final float[] lastAccel = new float[3];
+    private final float[] lastOrientation = new float[3];
+    private double lastLon;
+    private double lastLat;
+    private long lastPublishTime;
+    private boolean hasPublished = false;
+
+    /**
+     * @param accelDeadband          Acceleration change, in m/s^2, that triggers a publish.
+     * @param orientationDeadband    Orientation change, in radians, that triggers a publish.
+     * @param locationDeadbandMeters Movement, in meters, that triggers a publish.
+     * @param heartbeatMillis        Longest time without a publish.
+     */
+    public DeadbandFilter(float accelDeadband, float orientationDeadband, float locationDeadbandMeters,
+                          long heartbeatMillis) {
+        setThresholds(accelDeadband, orientationDeadband, locationDeadbandMeters, heartbeatMillis);
+    }
+
+    public void setThresholds(float accelDeadband, float orientationDeadband, float locationDeadbandMeters,
+                              long heartbeatMillis) {
+        this.accelDeadband = accelDeadband;
+        this.orientationDeadband = orientationDeadband;
+        this.locationDeadbandMeters = locationDeadbandMeters;
+        this.heartbeatMillis = heartbeatMillis;
+    }
+
+    /**
+     * Check a reading against the last published one. If it should be published, it
+     * becomes the new reference.
+     *
+     * @param now         Current time in milliseconds (SystemClock.uptimeMillis()).
+     * @param accel       Accelerometer x, y, z.
+     * @param orientation Azimuth, pitch, roll.
+     * @param lon         Device longitude.
+     * @param lat         Device latitude.
+     * @return True if the reading should be published.
+     */
+    public boolean accept(long now, float[] accel, float[] orientation, double lon, double lat) {
+        boolean publish = !hasPublished
+                || now - lastPublishTime >= heartbeatMillis
+                || accelChanged(accel)
+                || orientationChanged(orientation)
+                || locationChanged(lon, lat);
+        if (publish) {
+            System.arraycopy(accel, 0, lastAccel, 0, 3);
+            System.arraycopy(orientation, 0, lastOrientation, 0, 3);
+            lastLon = lon;
+            lastLat = lat;
+            lastPublishTime = now;
+            hasPublished = true;
+        }
+        return publish;
+    }
+
+    /**
+     * Forget the last published reading, so the next one is published.
+     */
+    public void reset() {
+        hasPublished = false;
+    }
+
+    private boolean accelChanged(float[] accel) {
+        if (accelDeadband < 0) {
+            return false;
+        }
+        float dx = accel[0] - lastAccel[0];
+        float dy = accel[1] - lastAccel[1];
+        float dz = accel[2] - lastAccel[2];
+        return dx * dx + dy * dy + dz * dz > accelDeadband * accelDeadband;
+    }
+
+    private boolean orientationChanged(float[] orientation) {
+        if (orientationDeadband < 0) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            float delta = Math.abs(orientation[i] - lastOrientation[i]);
+            // azimuth and roll wrap around at +/- pi
+            if (delta > Math.PI) {
+                delta = (float) (2 * Math.PI) - delta;
+            }
+            if (delta > orientationDeadband) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean locationChanged(double lon, double lat) {
+        if (locationDeadbandMeters < 0) {
+            return false;
+        }
+        // equirectangular approximation; accurate enough at deadband distances
+        double dLat = (lat - lastLat) * METERS_PER_DEGREE;
+        double dLon = (lon - lastLon) * METERS_PER_DEGREE * Math.cos(Math.toRadians((lat + lastLat) / 2));
+        return dLat * dLat + dLon * dLon > (double) locationDeadbandMeters * locationDeadbandMeters;
+    }
+}
@@ -16,40 +16,89 @@
 package com.ibm.demo.IoTStarter.utils;
 
 import android.content.Context;
-import android.content.Intent;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
-import com.ibm.demo.IoTStarter.fragments.IoTFragment;
-
-import java.util.Timer;
-import java.util.TimerTask;
 
 /**
  * This class implements the SensorEventListener interface. When the application creates the MQTT
- * connection, it registers listeners for the accelerometer and magnetometer sensors.
+ * connection, it registers listeners for the accelerometer and magnetometer sensors, and
+ * the gyroscope if the device has one. Orientation is estimated by an OrientationFilter.
+ * Sensor events are delivered on a dedicated looper thread, so high sampling rates put
+ * no work on the main thread.
  * Output from these sensors is used to publish accel event messages.
+ *
+ * By default the latest reading is published every publish interval. In batching mode
+ * every accelerometer sample is recorded into an AccelSampleBuffer and the samples of
+ * each window are published together as one message.
+ *
+ * In aggregation mode the accelerometer and orientation samples feed a WindowAggregator,
+ * and the statistics of each window are published as an accelstats event instead.
+ *
+ * In vibration capture mode the accelerometer runs at the fastest rate and its samples
+ * feed a VibrationAnalyzer; spectrum peaks and band energies are published as a
+ * vibration event.
+ *
+ * With the deadband filter on, a reading is published only if it moved out of the
+ * DeadbandFilter's deadband or the heartbeat interval has passed.
+ *
+ * The sampling period and publish interval come from the current profile. Publishing
+ * runs on a SampleScheduler, which backs the interval off while the link is congested.
  */
 public class DeviceSensor implements SensorEventListener {
     private final String TAG = DeviceSensor.class.getName();
+    // per-sample logging builds Strings on the sensor thread; enable only when debugging
+    private final static boolean LOG_SAMPLES = false;
     private static DeviceSensor instance;
     private IoTStarterApplication app;
     private SensorManager sensorManager;
     private Sensor accelerometer;
     private Sensor magnetometer;
+    private Sensor gyroscope;
     private Context context;
-    private Timer timer;
+    private final SampleScheduler scheduler;
+    // sensor callbacks are delivered here rather than on the main thread
+    private final Handler sensorHandler;
+    private final StripedCounter suppressedCount = MetricsRegistry.getInstance().counter(Constants.METRIC_ACCEL_SUPPRESSED);
+    // samples lost because a batch or vibration buffer was full
+    private final StripedCounter droppedSamples =
+            MetricsRegistry.getInstance().counter(Constants.METRIC_ACCEL_SAMPLES_DROPPED);
     private boolean isEnabled = false;
+    // read by the sensor thread on every sample; replaced by BatchSendTask when it grows the buffer
+    private volatile AccelSampleBuffer sampleBuffer;
+    private WindowAggregator aggregator;
+    // accel and orientation of the sample being aggregated; only touched on the sensor thread
+    private final float[] aggregateSample = new float[WindowStats.ACCEL_CHANNELS];
+    // offset from SensorEvent timestamps (ns) to wall-clock milliseconds; set before the
+    // first sample is added, so the scheduler thread sees it once it drains that sample
+    private long timestampOffsetMillis;
+    private boolean timestampOffsetKnown = false;
 
     public DeviceSensor(Context context) {
         this.context = context;
         sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
         magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        orientationFilter = new OrientationFilter(gyroscope != null
+                ? Constants.ORIENTATION_GYRO_TIME_CONSTANT_S : Constants.ORIENTATION_SMOOTHING_TIME_CONSTANT_S);
         app = (IoTStarterApplication) context.getApplicationContext();
+        HandlerThread sensorThread = new HandlerThread("IoTStarter-sensor");
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        scheduler = new SampleScheduler("IoTStarter-sensor-publish", MqttHandler.getInstance(context).getPublishPipeline());
+        MetricsRegistry.getInstance().gauge(Constants.METRIC_ACCEL_PUBLISH_INTERVAL, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return scheduler.isRunning() ? scheduler.getIntervalMillis() : 0;
+            }
+        });
     }
 
     /**
@@ -70,62 +119,168 @@ public class DeviceSensor implements SensorEventListener {
     public void enableSensor() {
         Log.i(TAG, ".enableSensor() entered");
         if (isEnabled == false) {
-            sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
-            sensorManager.registerListener(this, magnetometer, SensorManager.SENSOR_DELAY_NORMAL);
-            timer = new Timer();
-            timer.scheduleAtFixedRate(new SendTimerTask(), 1000, 1000);
+            long batchWindow = app.getAccelBatchWindowMillis();
+            int samplingPeriod = app.getAccelSamplingPeriodMicros();
+            long aggregateWindow = app.getAccelAggregateWindowMillis();
+            aggregator = null;
+            // on the sensor thread, after any events still queued from before the last disable
+            sensorHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    orientationFilter.reset();
+                }
+            });
+            if (app.isVibrationCaptureEnabled()) {
+                sampleBuffer = new AccelSampleBuffer(Constants.VIBRATION_BUFFER_SAMPLES);
+                timestampOffsetKnown = false;
+                sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_FASTEST, sensorHandler);
+                registerOrientationSensors(samplingPeriod);
+                scheduler.start(new VibrationSendTask(sampleBuffer), Constants.VIBRATION_PUBLISH_INTERVAL_MS,
+                        Math.max(Constants.VIBRATION_PUBLISH_INTERVAL_MS, Constants.ACCEL_MAX_PUBLISH_INTERVAL_MS));
+            } else if (batchWindow > 0) {
+                // batches need at least the batch sampling rate
+                int batchPeriod = Math.min(samplingPeriod, Constants.ACCEL_BATCH_SAMPLING_PERIOD_US);
+                // room for two windows of samples at the requested rate, in case a publish runs
+                // late; BatchSendTask grows it if samples arrive faster or windows are stretched
+                int capacity = (int) Math.min(Constants.ACCEL_BATCH_MAX_SAMPLES,
+                        2 * batchWindow * 1000 / batchPeriod);
+                sampleBuffer = new AccelSampleBuffer(capacity);
+                timestampOffsetKnown = false;
+                sensorManager.registerListener(this, accelerometer, batchPeriod, sensorHandler);
+                registerOrientationSensors(samplingPeriod);
+                scheduler.start(new BatchSendTask(sampleBuffer), batchWindow,
+                        Math.max(batchWindow, Constants.ACCEL_MAX_PUBLISH_INTERVAL_MS));
+            } else if (aggregateWindow > 0) {
+                sampleBuffer = null;
+                long slide = app.getAccelAggregateSlideMillis();
+                if (slide <= 0 || slide > aggregateWindow) {
+                    slide = aggregateWindow;
+                }
+                // statistics need the batch sampling rate, for orientation as well
+                int aggregatePeriod = Math.min(samplingPeriod, Constants.ACCEL_BATCH_SAMPLING_PERIOD_US);
+                aggregator = new WindowAggregator(WindowStats.ACCEL_CHANNELS, WindowStats.ACCEL_ANGULAR_CHANNELS,
+                        (int) (aggregateWindow / slide),
+                        System.currentTimeMillis());
+                sensorManager.registerListener(this, accelerometer, aggregatePeriod, sensorHandler);
+                registerOrientationSensors(aggregatePeriod);
+                scheduler.start(new AggregateSendTask(aggregator), slide,
+                        Math.max(slide, Constants.ACCEL_MAX_PUBLISH_INTERVAL_MS));
+            } else {
+                sampleBuffer = null;
+                sensorManager.registerListener(this, accelerometer, samplingPeriod, sensorHandler);
+                registerOrientationSensors(samplingPeriod);
+                long publishInterval = app.getAccelPublishIntervalMillis();
+                scheduler.start(new SendTask(), publishInterval,
+                        Math.max(publishInterval, Constants.ACCEL_MAX_PUBLISH_INTERVAL_MS));
+            }
             isEnabled = true;
         }
     }
 
+    /**
+     * Register the sensors the orientation is estimated from, besides the accelerometer.
+     */
+    private void registerOrientationSensors(int samplingPeriod) {
+        sensorManager.registerListener(this, magnetometer, samplingPeriod, sensorHandler);
+        if (gyroscope != null) {
+            sensorManager.registerListener(this, gyroscope, samplingPeriod, sensorHandler);
+        }
+    }
+
     /**
      * Disable the listeners.
      */
     public void disableSensor() {
         Log.d(TAG, ".disableSensor() entered");
-        if (timer != null && isEnabled) {
-            timer.cancel();
+        if (isEnabled) {
+            scheduler.stop();
             sensorManager.unregisterListener(this);
             isEnabled = false;
         }
     }
 
-    // Values used for accelerometer, magnetometer, orientation sensor data
-    float G[] = new float[3]; // gravity x,y,z
-    float M[] = new float[3]; // geomagnetic field x,y,z
-    float R[] = new float[9]; // rotation matrix
-    float I[] = new float[9]; // inclination matrix
-    float O[] = new float[3]; // orientation azimuth, pitch, roll
-    float previousO[] = new float[3]; // orientation azimuth, pitch, roll
+    /**
+     * @return The latest accelerometer and orientation reading, for consistent reads from any thread.
+     */
+    public SensorSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return True if the sensor listeners are registered.
+     */
+    public boolean isEnabled() {
+        return isEnabled;
+    }
+
+    // Values used for accelerometer, magnetometer, orientation sensor data. Only touched on
+    // the sensor thread; publishers read the latest values from the snapshot.
+    final float G[] = new float[3]; // gravity x,y,z
+    final float M[] = new float[3]; // geomagnetic field x,y,z
+    final float O[] = new float[3]; // orientation azimuth, pitch, roll
     float yaw;
+    private final OrientationFilter orientationFilter;
+    private final SensorSnapshot snapshot = new SensorSnapshot();
 
     /**
-     * Callback for processing data from the registered sensors. Accelerometer and magnetometer
-     * data are used together to get orientation data.
+     * Callback for processing data from the registered sensors. Accelerometer, magnetometer
+     * and gyroscope data are fed to the orientation filter, which is read after each event.
+     * Yaw is the filtered azimuth.
+     *
+     * The framework reuses the event's values array, so readings are copied out of it,
+     * and nothing is allocated here.
      *
      * @param sensorEvent The event containing the sensor data values.
      */
     @Override
     public void onSensorChanged(SensorEvent sensorEvent) {
         Log.v(TAG, "onSensorChanged() entered");
-        if (sensorEvent.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            Log.v(TAG, "Accelerometer -- x: " + sensorEvent.values[0] + " y: "
-                    + sensorEvent.values[1] + " z: " + sensorEvent.values[2]);
-            G = sensorEvent.values;
+        boolean isAccel = sensorEvent.sensor.getType() == Sensor.TYPE_ACCELEROMETER;
+        if (isAccel) {
+            if (LOG_SAMPLES) {
+                Log.v(TAG, "Accelerometer -- x: " + sensorEvent.values[0] + " y: "
+                        + sensorEvent.values[1] + " z: " + sensorEvent.values[2]);
+            }
+            System.arraycopy(sensorEvent.values, 0, G, 0, 3);
+            orientationFilter.updateAccelerometer(sensorEvent.timestamp, G);
+            AccelSampleBuffer buffer = sampleBuffer;
+            if (buffer != null) {
+                if (!timestampOffsetKnown) {
+                    timestampOffsetMillis = System.currentTimeMillis() - sensorEvent.timestamp / 1000000;
+                    timestampOffsetKnown = true;
+                }
+                buffer.add(sensorEvent.timestamp, G[0], G[1], G[2]);
+            }
 
         } else if (sensorEvent.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-            Log.v(TAG, "Magnetometer -- x: " + sensorEvent.values[0] + " y: "
-                    + sensorEvent.values[1] + " z: " + sensorEvent.values[2]);
-            M = sensorEvent.values;
+            if (LOG_SAMPLES) {
+                Log.v(TAG, "Magnetometer -- x: " + sensorEvent.values[0] + " y: "
+                        + sensorEvent.values[1] + " z: " + sensorEvent.values[2]);
+            }
+            System.arraycopy(sensorEvent.values, 0, M, 0, 3);
+            orientationFilter.updateMagnetometer(sensorEvent.timestamp, M);
+
+        } else if (sensorEvent.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+            orientationFilter.updateGyroscope(sensorEvent.timestamp, sensorEvent.values);
         }
-        if (G != null && M != null) {
-            if (sensorManager.getRotationMatrix(R, I, G, M)) {
-                previousO = O.clone();
-                O = sensorManager.getOrientation(R, O);
-                yaw = O[0] - previousO[0];
-                Log.v(TAG, "Orientation: azimuth: " + O[0] + " pitch: " + O[1] + " roll: " + O[2] + " yaw: " + yaw);
+        if (orientationFilter.getOrientation(O)) {
+            yaw = O[0];
+            if (LOG_SAMPLES) {
+                Log.v(TAG, "Orientation: azimuth: " + O[0] + " pitch: " + O[1] + " roll: " + O[2]);
             }
         }
+        snapshot.write(G, O, yaw);
+
+        WindowAggregator windowAggregator = aggregator;
+        if (isAccel && windowAggregator != null) {
+            aggregateSample[WindowStats.ACCEL_X] = G[0];
+            aggregateSample[WindowStats.ACCEL_Y] = G[1];
+            aggregateSample[WindowStats.ACCEL_Z] = G[2];
+            aggregateSample[WindowStats.AZIMUTH] = O[0];
+            aggregateSample[WindowStats.PITCH] = O[1];
+            aggregateSample[WindowStats.ROLL] = O[2];
+            windowAggregator.add(aggregateSample);
+        }
     }
 
     /**
@@ -140,16 +295,26 @@ public class DeviceSensor implements SensorEventListener {
     }
 
     /**
-     * Timer task for sending accel data on 1000ms intervals
+     * Task for sending the latest accel data every publish interval
      */
-    private class SendTimerTask extends TimerTask {
+    private class SendTask implements Runnable {
+        // reused for every sample; only touched on the scheduler thread
+        protected final PayloadWriter writer = new PayloadWriter();
+        protected final float[] reading = new float[SensorSnapshot.FIELDS];
+        protected final float[] accel = new float[3];
+        protected final float[] orientation = new float[3];
+        private final DeadbandFilter deadband = new DeadbandFilter(Constants.ACCEL_DEADBAND,
+                Constants.ORIENTATION_DEADBAND, Constants.LOCATION_DEADBAND_M, Constants.ACCEL_HEARTBEAT_MS);
+        private PayloadCodec topicCodec;
+        private Constants.ConnectionType topicConnectionType;
+        private String topic;
 
         /**
          * Publish an accel event message.
          */
         @Override
         public void run() {
-            Log.v(TAG, "SendTimerTask.run() entered");
+            Log.v(TAG, "SendTask.run() entered");
 
             double lon = 0.0;
             double lat = 0.0;
@@ -157,25 +322,258 @@ public class DeviceSensor implements SensorEventListener {
                 lon = app.getCurrentLocation().getLongitude();
                 lat = app.getCurrentLocation().getLatitude();
             }
-            String messageData = MessageFactory.getAccelMessage(G, O, yaw, lon, lat);
-            String topic;
-            if (app.getConnectionType() == Constants.ConnectionType.QUICKSTART) {
-                topic = TopicFactory.getEventTopic(Constants.STATUS_EVENT);
-            } else {
-                topic = TopicFactory.getEventTopic(Constants.ACCEL_EVENT);
+            readSnapshot();
+            if (!app.isAccelDeadbandEnabled()) {
+                deadband.reset();
+            } else if (!deadband.accept(SystemClock.uptimeMillis(), accel, orientation, lon, lat)) {
+                suppressedCount.increment();
+                app.setAccelData(accel);
+                return;
+            }
+            PayloadCodec codec = app.getPayloadCodec();
+            codec.encodeAccel(writer.reset(), accel, orientation, reading[SensorSnapshot.YAW], lon, lat);
+
+            MqttHandler mqttHandler = MqttHandler.getInstance(context);
+            mqttHandler.publish(getTopic(codec), writer, false, 0);
+
+            app.setAccelData(accel);
+        }
+
+        /**
+         * Take a consistent copy of the latest reading into accel and orientation.
+         */
+        protected void readSnapshot() {
+            snapshot.read(reading);
+            accel[0] = reading[SensorSnapshot.ACCEL_X];
+            accel[1] = reading[SensorSnapshot.ACCEL_Y];
+            accel[2] = reading[SensorSnapshot.ACCEL_Z];
+            orientation[0] = reading[SensorSnapshot.AZIMUTH];
+            orientation[1] = reading[SensorSnapshot.PITCH];
+            orientation[2] = reading[SensorSnapshot.ROLL];
+        }
+
+        /**
+         * @return The event published by this task.
+         */
+        protected String getEvent(Constants.ConnectionType connectionType) {
+            if (connectionType == Constants.ConnectionType.QUICKSTART) {
+                return Constants.STATUS_EVENT;
+            }
+            return Constants.ACCEL_EVENT;
+        }
+
+        /**
+         * @return The event topic for the codec, rebuilt only when the codec or connection type changes.
+         */
+        protected String getTopic(PayloadCodec codec) {
+            Constants.ConnectionType connectionType = app.getConnectionType();
+            if (topic == null || codec != topicCodec || connectionType != topicConnectionType) {
+                topic = TopicFactory.getEventTopic(getEvent(connectionType), codec);
+                topicCodec = codec;
+                topicConnectionType = connectionType;
+            }
+            return topic;
+        }
+    }
+
+    /**
+     * Task for sending the samples recorded during each batch window as one message
+     */
+    private class BatchSendTask extends SendTask {
+        private AccelSampleBuffer buffer;
+        // the buffer replaced by a larger one, drained once more in case the sensor thread added to it
+        private AccelSampleBuffer retired;
+        private long bufferDropped = 0;
+        private long retiredDropped = 0;
+        // drained samples; preallocated to the buffer size and only touched on the scheduler thread
+        private long[] timestamps;
+        private float[] samples;
+        private final float[] latest = new float[3];
+
+        BatchSendTask(AccelSampleBuffer buffer) {
+            this.buffer = buffer;
+            this.timestamps = new long[buffer.getCapacity()];
+            this.samples = new float[buffer.getCapacity() * 3];
+        }
+
+        /**
+         * Publish the samples recorded since the last run as one accel event message.
+         */
+        @Override
+        public void run() {
+            Log.v(TAG, "BatchSendTask.run() entered");
+
+            int count = 0;
+            long dropped = 0;
+            if (retired != null) {
+                count = retired.drainTo(timestamps, samples);
+                dropped += retired.getDroppedCount() - retiredDropped;
+                retired = null;
+            }
+            count += buffer.drainTo(timestamps, samples, count);
+            long bufferDroppedNow = buffer.getDroppedCount();
+            dropped += bufferDroppedNow - bufferDropped;
+            bufferDropped = bufferDroppedNow;
+            if (dropped > 0) {
+                droppedSamples.add(dropped);
+                Log.w(TAG, "BatchSendTask.run() - batch buffer full, dropped " + dropped + " sample(s)");
+            }
+            resize(count + dropped);
+            if (count == 0) {
+                return;
             }
+            double lon = 0.0;
+            double lat = 0.0;
+            if (app.getCurrentLocation() != null) {
+                lon = app.getCurrentLocation().getLongitude();
+                lat = app.getCurrentLocation().getLatitude();
+            }
+            readSnapshot();
+            long time = timestampOffsetMillis + timestamps[0] / 1000000;
+            PayloadCodec codec = app.getPayloadCodec();
+            codec.encodeAccelBatch(writer.reset(), time, timestamps, samples, count, orientation,
+                    reading[SensorSnapshot.YAW], lon, lat);
 
             MqttHandler mqttHandler = MqttHandler.getInstance(context);
-            mqttHandler.publish(topic, messageData, false, 0);
+            mqttHandler.publish(getTopic(codec), writer, false, 0);
+
+            System.arraycopy(samples, (count - 1) * 3, latest, 0, 3);
+            app.setAccelData(latest);
+        }
+
+        /**
+         * Size the buffer from the observed rate rather than the requested sampling period:
+         * sensors often deliver faster than requested, and congestion backoff stretches the
+         * time between runs. Grows to hold twice the samples that arrived since the last run.
+         *
+         * @param arrived The samples drained and dropped in this run.
+         */
+        private void resize(long arrived) {
+            int capacity = buffer.getCapacity();
+            long needed = Math.min(Constants.ACCEL_BATCH_MAX_SAMPLES, 2 * arrived);
+            if (needed <= capacity || sampleBuffer != buffer) {
+                return;
+            }
+            AccelSampleBuffer grown = new AccelSampleBuffer((int) needed);
+            Log.d(TAG, "BatchSendTask.resize() - growing batch buffer from " + capacity + " to "
+                    + grown.getCapacity() + " samples");
+            // the old buffer may receive a few more samples; they are drained before the new one's
+            retired = buffer;
+            retiredDropped = bufferDropped;
+            buffer = grown;
+            bufferDropped = 0;
+            timestamps = new long[retired.getCapacity() + grown.getCapacity()];
+            samples = new float[timestamps.length * 3];
+            sampleBuffer = grown;
+        }
+    }
+
+    /**
+     * Task for sending the statistics of the window ending at each slide as one message
+     */
+    private class AggregateSendTask extends SendTask {
+        private final WindowAggregator aggregator;
+        // reused for every window; only touched on the scheduler thread
+        private final WindowStats stats = new WindowStats(WindowStats.ACCEL_CHANNELS);
+
+        AggregateSendTask(WindowAggregator aggregator) {
+            this.aggregator = aggregator;
+        }
+
+        @Override
+        protected String getEvent(Constants.ConnectionType connectionType) {
+            return Constants.ACCEL_STATS_EVENT;
+        }
 
-            app.setAccelData(G);
+        /**
+         * Publish the statistics of the window as one accelstats event message.
+         */
+        @Override
+        public void run() {
+            Log.v(TAG, "AggregateSendTask.run() entered");
 
-            String runningActivity = app.getCurrentRunningActivity();
-            if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
-                Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
-                actionIntent.putExtra(Constants.INTENT_DATA, Constants.ACCEL_EVENT);
-                context.sendBroadcast(actionIntent);
+            if (aggregator.advance(System.currentTimeMillis(), stats) == 0) {
+                return;
+            }
+            double lon = 0.0;
+            double lat = 0.0;
+            if (app.getCurrentLocation() != null) {
+                lon = app.getCurrentLocation().getLongitude();
+                lat = app.getCurrentLocation().getLatitude();
             }
+            PayloadCodec codec = app.getPayloadCodec();
+            codec.encodeAccelStats(writer.reset(), stats, lon, lat);
+
+            MqttHandler mqttHandler = MqttHandler.getInstance(context);
+            mqttHandler.publish(getTopic(codec), writer, false, 0);
+
+            readSnapshot();
+            app.setAccelData(accel);
+        }
+    }
+
+    /**
+     * Task for analysing the samples captured since the last run and sending their
+     * vibration spectrum features as one message
+     */
+    private class VibrationSendTask extends SendTask {
+        private final AccelSampleBuffer buffer;
+        private final VibrationAnalyzer analyzer = new VibrationAnalyzer(Constants.VIBRATION_FFT_SIZE,
+                Constants.VIBRATION_HOP_SIZE);
+        // preallocated and only touched on the scheduler thread
+        private final VibrationFeatures features = new VibrationFeatures(Constants.VIBRATION_PEAKS,
+                Constants.VIBRATION_BANDS);
+        private final long[] timestamps;
+        private final float[] samples;
+        private long droppedCount = 0;
+
+        VibrationSendTask(AccelSampleBuffer buffer) {
+            this.buffer = buffer;
+            this.timestamps = new long[buffer.getCapacity()];
+            this.samples = new float[buffer.getCapacity() * 3];
+        }
+
+        @Override
+        protected String getEvent(Constants.ConnectionType connectionType) {
+            return Constants.VIBRATION_EVENT;
+        }
+
+        /**
+         * Feed the captured samples to the analyzer and publish the features of the
+         * windows completed since the last run as one vibration event message.
+         */
+        @Override
+        public void run() {
+            Log.v(TAG, "VibrationSendTask.run() entered");
+
+            int count = buffer.drainTo(timestamps, samples);
+            for (int i = 0; i < count; i++) {
+                analyzer.add(timestamps[i], samples[i * 3], samples[i * 3 + 1], samples[i * 3 + 2]);
+            }
+            long dropped = buffer.getDroppedCount();
+            if (dropped != droppedCount) {
+                // the buffer overflowed after these samples; do not analyse across the gap
+                droppedSamples.add(dropped - droppedCount);
+                droppedCount = dropped;
+                analyzer.restart();
+            }
+            if (analyzer.getFeatures(timestampOffsetMillis, features) == 0) {
+                return;
+            }
+            double lon = 0.0;
+            double lat = 0.0;
+            if (app.getCurrentLocation() != null) {
+                lon = app.getCurrentLocation().getLongitude();
+                lat = app.getCurrentLocation().getLatitude();
+            }
+            PayloadCodec codec = app.getPayloadCodec();
+            codec.encodeVibration(writer.reset(), features, lon, lat);
+
+            MqttHandler mqttHandler = MqttHandler.getInstance(context);
+            mqttHandler.publish(getTopic(codec), writer, false, 0);
+
+            readSnapshot();
+            app.setAccelData(accel);
         }
     }
 }
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-process replacement for the UI intent broadcasts. Events are posted to a channel
+ * (Constants.INTENT_LOGIN, INTENT_IOT, INTENT_LOG, INTENT_PROFILES) from any thread
+ * and delivered on the main thread to the listeners subscribed to that channel.
+ *
+ * Listener lists are copy-on-write arrays swapped with compare-and-set, so posting and
+ * delivery never take a lock. Events are queued as pooled Handler messages.
+ */
+public class EventBus {
+
+    private final static String TAG = EventBus.class.getName();
+    private final static Listener[] NO_LISTENERS = new Listener[0];
+
+    private static EventBus instance;
+
+    /**
+     * Receives the events of the channels it is subscribed to, on the main thread.
+     */
+    public interface Listener {
+        void onEvent(AppEvent event);
+    }
+
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<String, Channel>();
+
+    private final Handler handler = new Handler(Looper.getMainLooper(), new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message message) {
+            Delivery delivery = (Delivery) message.obj;
+            for (Listener listener : delivery.channel.listeners.get()) {
+                listener.onEvent(delivery.event);
+            }
+            return true;
+        }
+    });
+
+    private EventBus() {
+    }
+
+    public static synchronized EventBus getInstance() {
+        if (instance == null) {
+            instance = new EventBus();
+        }
+        return instance;
+    }
+
+    /**
+     * Subscribe a listener to a channel. Subscribing a listener twice has no effect.
+     * @param channel  The channel name.
+     * @param listener The listener to add.
+     */
+    public void subscribe(String channel, Listener listener) {
+        AtomicReference<Listener[]> listeners = getChannel(channel).listeners;
+        while (true) {
+            Listener[] current = listeners.get();
+            for (Listener existing : current) {
+                if (existing == listener) {
+                    return;
+                }
+            }
+            Listener[] updated = new Listener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = listener;
+            if (listeners.compareAndSet(current, updated)) {
+                Log.d(TAG, ".subscribe() - " + channel + " now has " + updated.length + " listener(s)");
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param channel  The channel name.
+     * @param listener The listener to remove.
+     */
+    public void unsubscribe(String channel, Listener listener) {
+        AtomicReference<Listener[]> listeners = getChannel(channel).listeners;
+        while (true) {
+            Listener[] current = listeners.get();
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == listener) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            Listener[] updated = current.length == 1 ? NO_LISTENERS : new Listener[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (listeners.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param channel The channel name.
+     * @return True if at least one listener is subscribed to the channel.
+     */
+    public boolean hasListeners(String channel) {
+        Channel c = channels.get(channel);
+        return c != null && c.listeners.get().length > 0;
+    }
+
+    /**
+     * Post an event to a channel. Does nothing if the channel has no listeners.
+     * @param channel The channel name.
+     * @param type    The event type.
+     */
+    public void post(String channel, String type) {
+        post(channel, type, null);
+    }
+
+    /**
+     * Post an event with a message to a channel. Does nothing if the channel has no listeners.
+     * @param channel The channel name.
+     * @param type    The event type.
+     * @param message The message text.
+     */
+    public void post(String channel, String type, String message) {
+        Channel c = getChannel(channel);
+        if (c.listeners.get().length == 0) {
+            return;
+        }
+        handler.obtainMessage(0, new Delivery(c, new AppEvent(type, message))).sendToTarget();
+    }
+
+    private Channel getChannel(String name) {
+        Channel channel = channels.get(name);
+        if (channel == null) {
+            Channel created = new Channel();
+            channel = channels.putIfAbsent(name, created);
+            if (channel == null) {
+                channel = created;
+            }
+        }
+        return channel;
+    }
+
+    private static class Channel {
+        final AtomicReference<Listener[]> listeners = new AtomicReference<Listener[]>(NO_LISTENERS);
+    }
+
+    private static class Delivery {
+        final Channel channel;
+        final AppEvent event;
+
+        Delivery(Channel channel, AppEvent event) {
+            this.channel = channel;
+            this.event = event;
+        }
+    }
+}
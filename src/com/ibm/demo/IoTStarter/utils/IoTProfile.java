@@ -24,11 +24,21 @@ public class IoTProfile {
     private String organization;
     private String deviceID;
     private String authorizationToken;
+    private Constants.TransportMode transportMode = Constants.TransportMode.SERVICE;
+    private String payloadFormat = JsonCodec.FORMAT;
+    private int samplingPeriodMicros = Constants.ACCEL_SAMPLING_PERIOD_US;
+    private long publishIntervalMillis = Constants.ACCEL_PUBLISH_INTERVAL_MS;
+    private String benchmarkServerUri = Constants.BENCHMARK_SERVER_URI;
 
     private static final String NAME_PREFIX = "name:";
     private static final String ORG_PREFIX = "org:";
     private static final String DEVICE_ID_PREFIX = "deviceId:";
     private static final String AUTH_TOKEN_PREFIX = "authToken:";
+    private static final String TRANSPORT_PREFIX = "transport:";
+    private static final String FORMAT_PREFIX = "format:";
+    private static final String SAMPLING_PERIOD_PREFIX = "samplingPeriodUs:";
+    private static final String PUBLISH_INTERVAL_PREFIX = "publishIntervalMs:";
+    private static final String BENCHMARK_SERVER_PREFIX = "benchmarkServer:";
 
     public IoTProfile(String profileName, String organization, String deviceID, String authorizationToken) {
         this.profileName = profileName;
@@ -41,7 +51,10 @@ public class IoTProfile {
         Iterator<String> iter = profileSet.iterator();
         while (iter.hasNext()) {
             String value = iter.next();
-            if (value.contains(NAME_PREFIX)) {
+            // checked first, as a URI may contain the other prefixes, e.g. tcp://broker.example.org:1883
+            if (value.startsWith(BENCHMARK_SERVER_PREFIX)) {
+                this.benchmarkServerUri = value.substring(BENCHMARK_SERVER_PREFIX.length());
+            } else if (value.contains(NAME_PREFIX)) {
                 this.profileName = value.substring(NAME_PREFIX.length());
             } else if (value.contains(ORG_PREFIX)) {
                 this.organization = value.substring(ORG_PREFIX.length());
@@ -49,6 +62,33 @@ public class IoTProfile {
                 this.deviceID = value.substring(DEVICE_ID_PREFIX.length());
             } else if (value.contains(AUTH_TOKEN_PREFIX)) {
                 this.authorizationToken = value.substring(AUTH_TOKEN_PREFIX.length());
+            } else if (value.startsWith(TRANSPORT_PREFIX)) {
+                try {
+                    this.transportMode = Constants.TransportMode.valueOf(value.substring(TRANSPORT_PREFIX.length()));
+                } catch (IllegalArgumentException e) {
+                    // unknown mode, keep the default
+                }
+            } else if (value.startsWith(FORMAT_PREFIX)) {
+                this.payloadFormat = value.substring(FORMAT_PREFIX.length());
+            } else if (value.startsWith(SAMPLING_PERIOD_PREFIX)) {
+                try {
+                    int period = Integer.parseInt(value.substring(SAMPLING_PERIOD_PREFIX.length()));
+                    if (period >= Constants.ACCEL_MIN_SAMPLING_PERIOD_US) {
+                        this.samplingPeriodMicros = period;
+                    }
+                } catch (NumberFormatException e) {
+                    // malformed value, keep the default
+                }
+            } else if (value.startsWith(PUBLISH_INTERVAL_PREFIX)) {
+                try {
+                    long interval = Long.parseLong(value.substring(PUBLISH_INTERVAL_PREFIX.length()));
+                    if (interval >= Constants.ACCEL_MIN_PUBLISH_INTERVAL_MS
+                            && interval <= Constants.ACCEL_MAX_PUBLISH_INTERVAL_MS) {
+                        this.publishIntervalMillis = interval;
+                    }
+                } catch (NumberFormatException e) {
+                    // malformed value, keep the default
+                }
             }
         }
     }
@@ -60,6 +100,11 @@ public class IoTProfile {
         profileSet.add(ORG_PREFIX + this.organization);
         profileSet.add(DEVICE_ID_PREFIX + this.deviceID);
         profileSet.add(AUTH_TOKEN_PREFIX + this.authorizationToken);
+        profileSet.add(TRANSPORT_PREFIX + this.transportMode.name());
+        profileSet.add(FORMAT_PREFIX + this.payloadFormat);
+        profileSet.add(SAMPLING_PERIOD_PREFIX + this.samplingPeriodMicros);
+        profileSet.add(PUBLISH_INTERVAL_PREFIX + this.publishIntervalMillis);
+        profileSet.add(BENCHMARK_SERVER_PREFIX + this.benchmarkServerUri);
 
         return profileSet;
     }
@@ -79,4 +124,44 @@ public class IoTProfile {
     public String getAuthorizationToken() {
         return authorizationToken;
     }
+
+    public Constants.TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public void setTransportMode(Constants.TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+
+    public String getPayloadFormat() {
+        return payloadFormat;
+    }
+
+    public void setPayloadFormat(String payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    public int getSamplingPeriodMicros() {
+        return samplingPeriodMicros;
+    }
+
+    public void setSamplingPeriodMicros(int samplingPeriodMicros) {
+        this.samplingPeriodMicros = samplingPeriodMicros;
+    }
+
+    public long getPublishIntervalMillis() {
+        return publishIntervalMillis;
+    }
+
+    public void setPublishIntervalMillis(long publishIntervalMillis) {
+        this.publishIntervalMillis = publishIntervalMillis;
+    }
+
+    public String getBenchmarkServerUri() {
+        return benchmarkServerUri;
+    }
+
+    public void setBenchmarkServerUri(String benchmarkServerUri) {
+        this.benchmarkServerUri = benchmarkServerUri;
+    }
 }
@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The default /fmt/json codec. Event payloads are built by MessageFactory. The
+ * well-known command fields are read by a streaming scanner over the payload bytes;
+ * anything it does not handle is decoded with org.json.
+ */
+public class JsonCodec implements PayloadCodec {
+
+    public final static String FORMAT = "json";
+
+    @Override
+    public String getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public void encodeAccel(PayloadWriter out, float[] G, float[] O, float yaw, double lon, double lat) {
+        MessageFactory.writeAccelMessage(out, G, O, yaw, lon, lat);
+    }
+
+    @Override
+    public void encodeAccelBatch(PayloadWriter out, long time, long[] timestamps, float[] samples, int count,
+                                 float[] O, float yaw, double lon, double lat) {
+        MessageFactory.writeAccelBatchMessage(out, time, timestamps, samples, count, O, yaw, lon, lat);
+    }
+
+    @Override
+    public void encodeAccelStats(PayloadWriter out, WindowStats stats, double lon, double lat) {
+        MessageFactory.writeAccelStatsMessage(out, stats, lon, lat);
+    }
+
+    @Override
+    public void encodeVibration(PayloadWriter out, VibrationFeatures features, double lon, double lat) {
+        MessageFactory.writeVibrationMessage(out, features, lon, lat);
+    }
+
+    @Override
+    public void encodeText(PayloadWriter out, String text) {
+        MessageFactory.writeTextMessage(out, text);
+    }
+
+    @Override
+    public void encodeTouch(PayloadWriter out, double x, double y, double dX, double dY, boolean ended) {
+        MessageFactory.writeTouchMessage(out, x, y, dX, dY, ended);
+    }
+
+    @Override
+    public boolean readCommand(String command, byte[] payload, CommandMessage message) {
+        return new Scanner(payload, message).scan();
+    }
+
+    @Override
+    public JSONObject decodeCommand(String command, byte[] payload) throws JSONException {
+        JSONObject top = new JSONObject(fromBytes(payload));
+        return top.getJSONObject("d");
+    }
+
+    static byte[] toBytes(String message) {
+        try {
+            return message.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return message.getBytes();
+        }
+    }
+
+    static String fromBytes(byte[] payload) {
+        return fromBytes(payload, 0, payload.length);
+    }
+
+    static String fromBytes(byte[] payload, int offset, int length) {
+        try {
+            return new String(payload, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return new String(payload, offset, length);
+        }
+    }
+
+    /**************************************************************************
+     * Streaming command scanner
+     **************************************************************************/
+
+    /**
+     * Reads the well-known fields of the "d" object of a {"d": {...}} command directly
+     * from the payload bytes. Other members are skipped without being decoded. Anything
+     * unexpected - a missing or non-object "d", a well-known field of the wrong type,
+     * escaped keys - makes scan() return false so the caller falls back to org.json.
+     */
+    private static class Scanner {
+        private final static double[] POWERS_OF_TEN = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+        };
+
+        private final byte[] data;
+        private final CommandMessage message;
+        private int pos = 0;
+        private int keyStart;
+        private int keyLength;
+
+        Scanner(byte[] data, CommandMessage message) {
+            this.data = data;
+            this.message = message;
+        }
+
+        boolean scan() {
+            try {
+                skipWhitespace();
+                expect('{');
+                boolean found = false;
+                boolean first = true;
+                while (nextMember(first)) {
+                    first = false;
+                    if (keyLength == 1 && data[keyStart] == 'd') {
+                        scanData();
+                        found = true;
+                    } else {
+                        skipValue();
+                    }
+                }
+                skipWhitespace();
+                return found && pos == data.length;
+            } catch (JSONException e) {
+                return false;
+            }
+        }
+
+        private void scanData() throws JSONException {
+            expect('{');
+            boolean first = true;
+            while (nextMember(first)) {
+                first = false;
+                int field = CommandMessage.fieldIndex(data, keyStart, keyLength);
+                if (field == CommandMessage.FIELD_TEXT) {
+                    expect('"');
+                    message.setText(readString());
+                } else if (field >= 0) {
+                    message.setNumber(field, readNumber());
+                } else {
+                    skipValue();
+                }
+            }
+        }
+
+        /**
+         * Advance to the value of the next member of the current object, recording its key.
+         * @param first True for the first member of the object.
+         * @return False if the end of the object was reached instead.
+         */
+        private boolean nextMember(boolean first) throws JSONException {
+            skipWhitespace();
+            int c = readByte();
+            if (c == '}') {
+                return false;
+            }
+            if (!first) {
+                if (c != ',') {
+                    throw new JSONException("Expected , at " + (pos - 1));
+                }
+                skipWhitespace();
+                c = readByte();
+            }
+            if (c != '"') {
+                throw new JSONException("Expected key at " + (pos - 1));
+            }
+            keyStart = pos;
+            int c2;
+            while ((c2 = readByte()) != '"') {
+                if (c2 == '\\') {
+                    throw new JSONException("Escaped key");
+                }
+            }
+            keyLength = pos - 1 - keyStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            return true;
+        }
+
+        private double readNumber() throws JSONException {
+            int start = pos;
+            boolean negative = false;
+            if (pos < data.length && data[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean exact = true;
+            while (pos < data.length && isDigit(data[pos])) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (data[pos] - '0');
+                    digits++;
+                } else {
+                    exponent++;
+                    exact = false;
+                }
+                pos++;
+            }
+            if (pos == start || (negative && pos == start + 1)) {
+                throw new JSONException("Expected number at " + start);
+            }
+            if (pos < data.length && data[pos] == '.') {
+                pos++;
+                int fractionStart = pos;
+                while (pos < data.length && isDigit(data[pos])) {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (data[pos] - '0');
+                        digits++;
+                        exponent--;
+                    } else {
+                        exact = false;
+                    }
+                    pos++;
+                }
+                if (pos == fractionStart) {
+                    throw new JSONException("Expected fraction at " + pos);
+                }
+            }
+            if (pos < data.length && (data[pos] == 'e' || data[pos] == 'E')) {
+                // uncommon in commands, let the platform parse it
+                pos++;
+                if (pos < data.length && (data[pos] == '+' || data[pos] == '-')) {
+                    pos++;
+                }
+                while (pos < data.length && isDigit(data[pos])) {
+                    pos++;
+                }
+                exact = false;
+            }
+
+            double value;
+            if (exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+                // both operands are exact doubles, so one multiply or divide is correctly rounded
+                value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+                return negative ? -value : value;
+            }
+            try {
+                return Double.parseDouble(new String(data, start, pos - start, "US-ASCII"));
+            } catch (NumberFormatException e) {
+                throw new JSONException("Invalid number at " + start);
+            } catch (UnsupportedEncodingException e) {
+                throw new JSONException(e.getMessage());
+            }
+        }
+
+        /**
+         * Read a string whose opening quote has been consumed.
+         */
+        private String readString() throws JSONException {
+            int start = pos;
+            int c;
+            while ((c = readByte()) != '"') {
+                if (c == '\\') {
+                    pos = start;
+                    return readEscapedString();
+                }
+            }
+            return decode(start, pos - 1);
+        }
+
+        private String readEscapedString() throws JSONException {
+            StringBuilder text = new StringBuilder();
+            int segment = pos;
+            int c;
+            while ((c = readByte()) != '"') {
+                if (c != '\\') {
+                    continue;
+                }
+                text.append(decode(segment, pos - 1));
+                c = readByte();
+                switch (c) {
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > data.length) {
+                            throw new JSONException("Truncated escape");
+                        }
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(data[pos++], 16);
+                            if (digit < 0) {
+                                throw new JSONException("Invalid escape");
+                            }
+                            code = (code << 4) | digit;
+                        }
+                        text.append((char) code);
+                        break;
+                    default:
+                        text.append((char) c);
+                        break;
+                }
+                segment = pos;
+            }
+            text.append(decode(segment, pos - 1));
+            return text.toString();
+        }
+
+        private String decode(int start, int end) {
+            return fromBytes(data, start, end - start);
+        }
+
+        private void skipValue() throws JSONException {
+            int c = readByte();
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                int depth = 1;
+                while (depth > 0) {
+                    c = readByte();
+                    if (c == '"') {
+                        skipString();
+                    } else if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                }
+            } else {
+                // number or literal
+                while (pos < data.length) {
+                    c = data[pos];
+                    if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                        break;
+                    }
+                    pos++;
+                }
+            }
+        }
+
+        private void skipString() throws JSONException {
+            int c;
+            while ((c = readByte()) != '"') {
+                if (c == '\\') {
+                    readByte();
+                }
+            }
+        }
+
+        private void expect(int expected) throws JSONException {
+            if (readByte() != expected) {
+                throw new JSONException("Expected " + (char) expected + " at " + (pos - 1));
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < data.length && isWhitespace(data[pos])) {
+                pos++;
+            }
+        }
+
+        private int readByte() throws JSONException {
+            if (pos >= data.length) {
+                throw new JSONException("Unexpected end of JSON payload");
+            }
+            return data[pos++];
+        }
+
+        private static boolean isDigit(int c) {
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+    }
+}
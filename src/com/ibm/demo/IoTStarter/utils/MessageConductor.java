@@ -16,7 +16,6 @@
 package com.ibm.demo.IoTStarter.utils;
 
 import android.content.Context;
-import android.content.Intent;
 import android.graphics.Color;
 import android.util.Log;
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
@@ -25,13 +24,11 @@ import com.ibm.demo.IoTStarter.fragments.IoTFragment;
 import com.ibm.demo.IoTStarter.fragments.LogFragment;
 import com.ibm.demo.IoTStarter.fragments.LoginFragment;
 import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Steer incoming MQTT messages to the proper activities based on their content.
+ * Commands are dispatched by name through a CommandRouter; the built-in color, light,
+ * text and alert handlers are registered when the conductor is created.
  */
 public class MessageConductor {
 
@@ -40,9 +37,28 @@ public class MessageConductor {
     private Context context;
     private IoTStarterApplication app;
 
+    private final CommandRouter commandRouter = new CommandRouter();
+    private final CommandDispatcher commandDispatcher = new CommandDispatcher(commandRouter,
+            Constants.COMMAND_DISPATCH_THREADS, Constants.COMMAND_QUEUE_LIMIT, Constants.OverflowPolicy.DROP_OLDEST);
+    private final StateCoalescer stateCoalescer = new StateCoalescer(Constants.FRAME_INTERVAL_MS);
+
     private MessageConductor(Context context) {
         this.context = context;
         app = (IoTStarterApplication) context.getApplicationContext();
+
+        commandRouter.register(Constants.COLOR_EVENT, new ColorCommandHandler());
+        commandRouter.register(Constants.LIGHT_EVENT, new LightCommandHandler());
+        commandRouter.register(Constants.TEXT_EVENT, new TextCommandHandler());
+        commandRouter.register(Constants.ALERT_EVENT, new AlertCommandHandler());
+
+        stateCoalescer.register(Constants.COLOR_EVENT, new ColorStateApplier());
+
+        MetricsRegistry.getInstance().gauge(Constants.METRIC_COMMAND_QUEUE_DEPTH, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return commandDispatcher.getTotalQueueDepth();
+            }
+        });
     }
 
     public static MessageConductor getInstance(Context context) {
@@ -53,18 +69,47 @@ public class MessageConductor {
     }
 
     /**
-     * Steer incoming MQTT messages to the proper activities based on their content.
+     * @return The router used to steer commands. Register handlers with it to add custom commands.
+     */
+    public CommandRouter getCommandRouter() {
+        return commandRouter;
+    }
+
+    /**
+     * @return The dispatcher that runs commands off the MQTT callback thread, for its
+     * queue settings and per-command queue metrics.
+     */
+    public CommandDispatcher getCommandDispatcher() {
+        return commandDispatcher;
+    }
+
+    /**
+     * @return The coalescer that applies the latest value of state commands once per frame.
+     * Handlers of other idempotent commands can register with it as well.
+     */
+    public StateCoalescer getStateCoalescer() {
+        return stateCoalescer;
+    }
+
+    /**
+     * Steer incoming MQTT messages to the handler registered for the command in the topic.
+     * The handler runs later on the command's dispatch lane, so this returns immediately.
      *
-     * @param payload The log of the MQTT message.
+     * @param payload The payload of the MQTT message.
      * @param topic The topic the MQTT message was received on.
-     * @throws JSONException If the message contains invalid JSON.
      */
-    public void steerMessage(String payload, String topic) throws JSONException {
+    public void steerMessage(byte[] payload, String topic) {
         Log.d(TAG, ".steerMessage() entered");
-        JSONObject top = new JSONObject(payload);
-        JSONObject d = top.getJSONObject("d");
+        commandDispatcher.dispatch(topic, payload);
+    }
 
-        if (topic.contains(Constants.COLOR_EVENT)) {
+    /**
+     * Read the r, g, b and alpha fields of a color command. Only the latest color of each
+     * frame is applied, by ColorStateApplier.
+     */
+    private class ColorCommandHandler implements CommandHandler {
+        @Override
+        public void handleCommand(CommandMessage d) throws JSONException {
             Log.d(TAG, "Color Event");
             int r = d.getInt("r");
             int g = d.getInt("g");
@@ -78,87 +123,105 @@ public class MessageConductor {
                 return;
             }
 
-            app.setColor(Color.argb(alpha, r, g, b));
+            stateCoalescer.offer(Constants.COLOR_EVENT, Color.argb(alpha, r, g, b));
+        }
+    }
+
+    /**
+     * Set the application color and tell the IoT fragment to redraw.
+     */
+    private class ColorStateApplier implements StateCoalescer.StateApplier {
+        @Override
+        public void applyState(String key, Object value) {
+            app.setColor((Integer) value);
 
             String runningActivity = app.getCurrentRunningActivity();
             if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
-                Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
-                actionIntent.putExtra(Constants.INTENT_DATA, Constants.COLOR_EVENT);
-                context.sendBroadcast(actionIntent);
+                EventBus.getInstance().post(Constants.INTENT_IOT, Constants.COLOR_EVENT);
             }
-        } else if (topic.contains(Constants.LIGHT_EVENT)) {
+        }
+    }
+
+    /**
+     * Toggle the camera flash.
+     */
+    private class LightCommandHandler implements CommandHandler {
+        @Override
+        public void handleCommand(CommandMessage d) {
             app.handleLightMessage();
-        } else if (topic.contains(Constants.TEXT_EVENT)) {
-            int unreadCount = app.getUnreadCount();
-            app.setUnreadCount(++unreadCount);
+        }
+    }
 
-            // save payload in an arrayList
-            List messageRecvd = new ArrayList<String>();
-            messageRecvd.add(payload);
+    /**
+     * Add the text of a text command to the message log.
+     */
+    private class TextCommandHandler implements CommandHandler {
+        @Override
+        public void handleCommand(CommandMessage d) throws JSONException {
+            app.incrementUnreadCount();
 
-            app.getMessageLog().add(d.getString("text"));
+            app.addToMessageLog(d.getString("text"));
 
             String runningActivity = app.getCurrentRunningActivity();
-            if (runningActivity != null && runningActivity.equals(LogFragment.class.getName())) {
-                Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
-                actionIntent.putExtra(Constants.INTENT_DATA, Constants.TEXT_EVENT);
-                context.sendBroadcast(actionIntent);
+            if (runningActivity == null) {
+                return;
+            }
+            if (runningActivity.equals(LogFragment.class.getName())) {
+                EventBus.getInstance().post(Constants.INTENT_LOG, Constants.TEXT_EVENT);
             }
 
-            Intent unreadIntent;
+            String unreadChannel;
             if (runningActivity.equals(LogFragment.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
+                unreadChannel = Constants.INTENT_LOG;
             } else if (runningActivity.equals(LoginFragment.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
+                unreadChannel = Constants.INTENT_LOGIN;
             } else if (runningActivity.equals(IoTFragment.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
+                unreadChannel = Constants.INTENT_IOT;
             } else if (runningActivity.equals(ProfilesActivity.class.getName())) {
-                unreadIntent = new Intent(Constants.APP_ID + Constants.INTENT_PROFILES);
+                unreadChannel = Constants.INTENT_PROFILES;
             } else {
                 return;
             }
 
             String messageText = d.getString("text");
             if (messageText != null) {
-                unreadIntent.putExtra(Constants.INTENT_DATA, Constants.UNREAD_EVENT);
-                context.sendBroadcast(unreadIntent);
+                EventBus.getInstance().post(unreadChannel, Constants.UNREAD_EVENT);
             }
-        } else if (topic.contains(Constants.ALERT_EVENT)) {
-            // save payload in an arrayList
-            int unreadCount = app.getUnreadCount();
-            app.setUnreadCount(++unreadCount);
+        }
+    }
 
-            List messageRecvd = new ArrayList<String>();
-            messageRecvd.add(payload);
+    /**
+     * Add the text of an alert command to the message log and show it as an alert.
+     */
+    private class AlertCommandHandler implements CommandHandler {
+        @Override
+        public void handleCommand(CommandMessage d) throws JSONException {
+            app.incrementUnreadCount();
 
-            app.getMessageLog().add(d.getString("text"));
+            app.addToMessageLog(d.getString("text"));
 
             String runningActivity = app.getCurrentRunningActivity();
             if (runningActivity != null) {
                 if (runningActivity.equals(LogFragment.class.getName())) {
-                    Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
-                    actionIntent.putExtra(Constants.INTENT_DATA, Constants.TEXT_EVENT);
-                    context.sendBroadcast(actionIntent);
+                    EventBus.getInstance().post(Constants.INTENT_LOG, Constants.TEXT_EVENT);
                 }
 
-                Intent alertIntent;
+                String alertChannel;
                 if (runningActivity.equals(LogFragment.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOG);
+                    alertChannel = Constants.INTENT_LOG;
                 } else if (runningActivity.equals(LoginFragment.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
+                    alertChannel = Constants.INTENT_LOGIN;
                 } else if (runningActivity.equals(IoTFragment.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
+                    alertChannel = Constants.INTENT_IOT;
                 } else if (runningActivity.equals(ProfilesActivity.class.getName())) {
-                    alertIntent = new Intent(Constants.APP_ID + Constants.INTENT_PROFILES);
+                    alertChannel = Constants.INTENT_PROFILES;
                 } else {
                     return;
                 }
 
                 String messageText = d.getString("text");
                 if (messageText != null) {
-                    alertIntent.putExtra(Constants.INTENT_DATA, Constants.ALERT_EVENT);
-                    alertIntent.putExtra(Constants.INTENT_DATA_MESSAGE, d.getString("text"));
-                    context.sendBroadcast(alertIntent);
+                    EventBus.getInstance().post(alertChannel, Constants.ALERT_EVENT, messageText);
                 }
             }
         }
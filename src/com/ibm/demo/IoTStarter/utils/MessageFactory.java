@@ -83,4 +83,162 @@ public class MessageFactory {
         return messageData;
     }
 
+    /**
+     * Write a JSON formatted accel event message without building intermediate Strings.
+     * @param out PayloadWriter to append the message to
+     * @param G Float array with accelerometer x, y, z data
+     * @param O Float array with gyroscope roll, pitch data
+     * @param yaw Float representing gyroscope yaw value
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    public static void writeAccelMessage(PayloadWriter out, float G[], float O[], float yaw, double lon, double lat) {
+        out.writeAscii("{\"d\":{\"acceleration_x\":").writeDecimal(G[0]);
+        out.writeAscii(",\"acceleration_y\":").writeDecimal(G[1]);
+        out.writeAscii(",\"acceleration_z\":").writeDecimal(G[2]);
+        out.writeAscii(",\"roll\":").writeDecimal(O[2]);
+        out.writeAscii(",\"pitch\":").writeDecimal(O[1]);
+        out.writeAscii(",\"yaw\":").writeDecimal(yaw);
+        out.writeAscii(",\"lon\":").writeDecimal(lon);
+        out.writeAscii(",\"lat\":").writeDecimal(lat);
+        out.writeAscii("}}");
+    }
+
+    /**
+     * Write a JSON formatted accel event message holding a batch of samples.
+     * @param out PayloadWriter to append the message to
+     * @param time Wall-clock time of the first sample, in milliseconds since the epoch
+     * @param timestamps SensorEvent timestamps of the samples, in nanoseconds
+     * @param samples Accelerometer x, y, z of each sample, interleaved
+     * @param count Number of samples
+     * @param O Float array with gyroscope roll, pitch data
+     * @param yaw Float representing gyroscope yaw value
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    public static void writeAccelBatchMessage(PayloadWriter out, long time, long[] timestamps, float[] samples,
+                                              int count, float O[], float yaw, double lon, double lat) {
+        out.writeAscii("{\"d\":{\"t\":").writeDecimal(time);
+        out.writeAscii(",\"dt\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.writeByte(',');
+            }
+            out.writeFixed((timestamps[i] - timestamps[0]) / 1e6, 3);
+        }
+        String[] axes = {"],\"acceleration_x\":[", "],\"acceleration_y\":[", "],\"acceleration_z\":["};
+        for (int axis = 0; axis < 3; axis++) {
+            out.writeAscii(axes[axis]);
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    out.writeByte(',');
+                }
+                out.writeDecimal(samples[i * 3 + axis]);
+            }
+        }
+        out.writeAscii("],\"roll\":").writeDecimal(O[2]);
+        out.writeAscii(",\"pitch\":").writeDecimal(O[1]);
+        out.writeAscii(",\"yaw\":").writeDecimal(yaw);
+        out.writeAscii(",\"lon\":").writeDecimal(lon);
+        out.writeAscii(",\"lat\":").writeDecimal(lat);
+        out.writeAscii("}}");
+    }
+
+    /**
+     * Write a JSON formatted accelstats event message.
+     * @param out PayloadWriter to append the message to
+     * @param stats Window statistics, with the WindowStats.ACCEL_ channels
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    public static void writeAccelStatsMessage(PayloadWriter out, WindowStats stats, double lon, double lat) {
+        out.writeAscii("{\"d\":{\"t\":").writeDecimal(stats.getStartTime());
+        out.writeAscii(",\"window\":").writeDecimal(stats.getDurationMillis());
+        out.writeAscii(",\"n\":").writeDecimal(stats.getCount());
+        for (int channel = 0; channel < WindowStats.ACCEL_CHANNELS; channel++) {
+            out.writeAscii(",\"").writeAscii(WindowStats.ACCEL_CHANNEL_NAMES[channel]);
+            if (stats.isAngular(channel)) {
+                // circular mean and variance only; see WindowAggregator
+                out.writeAscii("\":{\"mean\":").writeDecimal(stats.getMean(channel));
+            } else {
+                out.writeAscii("\":{\"min\":").writeDecimal(stats.getMin(channel));
+                out.writeAscii(",\"max\":").writeDecimal(stats.getMax(channel));
+                out.writeAscii(",\"mean\":").writeDecimal(stats.getMean(channel));
+                out.writeAscii(",\"rms\":").writeDecimal(stats.getRms(channel));
+            }
+            out.writeAscii(",\"var\":").writeDecimal(stats.getVariance(channel));
+            out.writeByte('}');
+        }
+        out.writeAscii(",\"lon\":").writeDecimal(lon);
+        out.writeAscii(",\"lat\":").writeDecimal(lat);
+        out.writeAscii("}}");
+    }
+
+    /**
+     * Write a JSON formatted vibration event message.
+     * @param out PayloadWriter to append the message to
+     * @param features Vibration spectrum features
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    public static void writeVibrationMessage(PayloadWriter out, VibrationFeatures features, double lon, double lat) {
+        out.writeAscii("{\"d\":{\"t\":").writeDecimal(features.getTime());
+        out.writeAscii(",\"fs\":").writeDecimal(features.getSampleRate());
+        out.writeAscii(",\"windows\":").writeDecimal(features.getWindows());
+        out.writeAscii(",\"rms\":").writeDecimal(features.getRms());
+        out.writeAscii(",\"peak_hz\":[");
+        for (int i = 0; i < features.getPeakCount(); i++) {
+            if (i > 0) {
+                out.writeByte(',');
+            }
+            out.writeDecimal(features.getPeakFrequency(i));
+        }
+        out.writeAscii("],\"peak_amplitude\":[");
+        for (int i = 0; i < features.getPeakCount(); i++) {
+            if (i > 0) {
+                out.writeByte(',');
+            }
+            out.writeDecimal(features.getPeakAmplitude(i));
+        }
+        out.writeAscii("],\"band_hz\":").writeDecimal(features.getBandWidth());
+        out.writeAscii(",\"band_energy\":[");
+        for (int i = 0; i < features.getBandCount(); i++) {
+            if (i > 0) {
+                out.writeByte(',');
+            }
+            out.writeDecimal(features.getBandEnergy(i));
+        }
+        out.writeAscii("],\"lon\":").writeDecimal(lon);
+        out.writeAscii(",\"lat\":").writeDecimal(lat);
+        out.writeAscii("}}");
+    }
+
+    /**
+     * Write a JSON formatted text event message. The text is escaped.
+     * @param out PayloadWriter to append the message to
+     * @param text String of text message to send
+     */
+    public static void writeTextMessage(PayloadWriter out, String text) {
+        out.writeAscii("{\"d\":{\"text\":").writeJsonString(text).writeAscii("}}");
+    }
+
+    /**
+     * Write a JSON formatted touchmove event message.
+     * @param out PayloadWriter to append the message to
+     * @param x Double of relative x position on screen
+     * @param y Double of relative y position on screen
+     * @param dX Double of relative x delta from previous position
+     * @param dY Double of relative y delta from previous position
+     * @param ended True if final message of the touch, false otherwise
+     */
+    public static void writeTouchMessage(PayloadWriter out, double x, double y, double dX, double dY, boolean ended) {
+        out.writeAscii("{\"d\":{\"screenX\":").writeDecimal(x);
+        out.writeAscii(",\"screenY\":").writeDecimal(y);
+        out.writeAscii(",\"deltaX\":").writeDecimal(dX);
+        out.writeAscii(",\"deltaY\":").writeDecimal(dY);
+        if (ended) {
+            out.writeAscii(",\"ended\":1");
+        }
+        out.writeAscii("}}");
+    }
 }
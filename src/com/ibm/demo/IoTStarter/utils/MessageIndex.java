@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Incremental inverted index from lower-cased word tokens to the sequence numbers of
+ * the messages containing them. Messages must be added in increasing sequence order,
+ * which lets each posting list be stored as varint-encoded deltas (usually one byte
+ * per posting) and appended to in O(1).
+ *
+ * A query matches messages containing every token in it; the last token also matches
+ * as a prefix unless the query ends with a separator, so results follow the user's
+ * typing.
+ */
+public class MessageIndex {
+
+    // tokens longer than this are indexed by their first MAX_TOKEN_LENGTH characters
+    private final static int MAX_TOKEN_LENGTH = 32;
+
+    private final TreeMap<String, PostingList> postings = new TreeMap<String, PostingList>();
+    private long lastSequence = -1;
+    private long firstSequence = 0;
+
+    /**
+     * Index a message.
+     *
+     * @param sequence The message's sequence number, greater than any added before.
+     * @param message  The message text.
+     */
+    public synchronized void add(long sequence, String message) {
+        if (sequence <= lastSequence) {
+            throw new IllegalArgumentException("Sequence " + sequence + " added out of order");
+        }
+        lastSequence = sequence;
+        for (String token : tokenize(message)) {
+            PostingList list = postings.get(token);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(token, list);
+            }
+            list.add(sequence);
+        }
+    }
+
+    /**
+     * Find the messages matching a query.
+     *
+     * @param query The words to search for.
+     * @param limit The maximum number of results.
+     * @return The matching sequence numbers, newest first.
+     */
+    public synchronized long[] search(String query, int limit) {
+        ArrayList<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return new long[0];
+        }
+        boolean prefixLast = Character.isLetterOrDigit(query.charAt(query.length() - 1));
+
+        long[] matches = null;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            long[] found = prefixLast && i == tokens.size() - 1 ? findPrefix(token) : find(token);
+            matches = matches == null ? found : intersect(matches, found);
+            if (matches.length == 0) {
+                break;
+            }
+        }
+
+        // newest first, skipping anything pruned since it was indexed
+        int count = 0;
+        long[] results = new long[Math.min(limit, matches.length)];
+        for (int i = matches.length - 1; i >= 0 && count < results.length; i--) {
+            if (matches[i] >= firstSequence) {
+                results[count++] = matches[i];
+            }
+        }
+        return count == results.length ? results : Arrays.copyOf(results, count);
+    }
+
+    private long[] find(String token) {
+        PostingList list = postings.get(token);
+        return list == null ? new long[0] : list.decode(firstSequence);
+    }
+
+    private long[] findPrefix(String prefix) {
+        SortedMap<String, PostingList> range = postings.subMap(prefix, prefix + Character.MAX_VALUE);
+        if (range.size() == 1) {
+            return range.values().iterator().next().decode(firstSequence);
+        }
+        int total = 0;
+        for (PostingList list : range.values()) {
+            total += list.count;
+        }
+        long[] union = new long[total];
+        int size = 0;
+        for (PostingList list : range.values()) {
+            long[] decoded = list.decode(firstSequence);
+            System.arraycopy(decoded, 0, union, size, decoded.length);
+            size += decoded.length;
+        }
+        Arrays.sort(union, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || union[i] != union[unique - 1]) {
+                union[unique++] = union[i];
+            }
+        }
+        return Arrays.copyOf(union, unique);
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Drop the postings of messages that are no longer held. Called when the oldest
+     * messages are deleted; rewrites every posting list, so it is meant to run once
+     * per deleted segment rather than per message.
+     *
+     * @param firstSequence The sequence number of the oldest message still held.
+     */
+    public synchronized void prune(long firstSequence) {
+        this.firstSequence = firstSequence;
+        Iterator<Map.Entry<String, PostingList>> entries = postings.entrySet().iterator();
+        while (entries.hasNext()) {
+            PostingList list = entries.next().getValue();
+            long[] kept = list.decode(firstSequence);
+            if (kept.length == 0) {
+                entries.remove();
+            } else if (kept.length < list.count) {
+                list.clear();
+                for (long sequence : kept) {
+                    list.add(sequence);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of distinct tokens indexed.
+     */
+    public synchronized int getTokenCount() {
+        return postings.size();
+    }
+
+    public synchronized void clear() {
+        postings.clear();
+    }
+
+    /**
+     * Split text into lower-cased runs of letters and digits.
+     */
+    public static ArrayList<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean word = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                tokens.add(text.substring(start, Math.min(i, start + MAX_TOKEN_LENGTH)).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Ascending sequence numbers stored as varint deltas.
+     */
+    private static class PostingList {
+        private byte[] data = new byte[4];
+        private int size = 0;
+        private int count = 0;
+        private long last = 0;
+
+        void add(long sequence) {
+            if (count > 0 && sequence == last) {
+                // token repeated within a message
+                return;
+            }
+            long delta = count == 0 ? sequence : sequence - last;
+            if (size + 10 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + 10));
+            }
+            while (delta >= 0x80) {
+                data[size++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[size++] = (byte) delta;
+            last = sequence;
+            count++;
+        }
+
+        long[] decode(long from) {
+            long[] sequences = new long[count];
+            int n = 0;
+            long sequence = 0;
+            int pos = 0;
+            while (pos < size) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                sequence += delta;
+                if (sequence >= from) {
+                    sequences[n++] = sequence;
+                }
+            }
+            return n == count ? sequences : Arrays.copyOf(sequences, n);
+        }
+
+        void clear() {
+            size = 0;
+            count = 0;
+            last = 0;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Bounded log of received text and alert messages. Entries are kept in a ring buffer
+ * that holds at most maxEntries messages and approximately maxBytes of string data;
+ * appending past either cap evicts the oldest entries. Append, evict and lookup are
+ * all O(1).
+ *
+ * Each entry is identified by a sequence number that keeps increasing across
+ * evictions and clears, so a reader can tell whether an entry it last saw is still
+ * held. Positions (0 = oldest) are also supported for simple readers.
+ */
+public class MessageLog {
+
+    // approximate heap cost of a String beyond its characters
+    private final static int ENTRY_OVERHEAD = 40;
+
+    private String[] entries;
+    private int maxBytes;
+    private int head = 0;
+    private int size = 0;
+    private long bytes = 0;
+    private long firstSequence = 0;
+
+    /**
+     * @param maxEntries Maximum number of messages held.
+     * @param maxBytes   Maximum approximate heap size of the messages held, in bytes.
+     */
+    public MessageLog(int maxEntries, int maxBytes) {
+        this(maxEntries, maxBytes, 0);
+    }
+
+    /**
+     * @param maxEntries    Maximum number of messages held.
+     * @param maxBytes      Maximum approximate heap size of the messages held, in bytes.
+     * @param firstSequence The sequence number of the first message added.
+     */
+    public MessageLog(int maxEntries, int maxBytes, long firstSequence) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.entries = new String[maxEntries];
+        this.maxBytes = maxBytes;
+        this.firstSequence = firstSequence;
+    }
+
+    /**
+     * @return The approximate heap size of message, in bytes.
+     */
+    public static int sizeOf(String message) {
+        return ENTRY_OVERHEAD + 2 * message.length();
+    }
+
+    /**
+     * Append a message, evicting the oldest entries if a cap is exceeded. A message
+     * larger than the byte cap on its own is still kept, as the only entry.
+     *
+     * @param message The message text.
+     * @return The sequence number of the message.
+     */
+    public synchronized long add(String message) {
+        int cost = sizeOf(message);
+        while (size > 0 && (size == entries.length || bytes + cost > maxBytes)) {
+            evictOldest();
+        }
+        entries[(head + size) % entries.length] = message;
+        size++;
+        bytes += cost;
+        return firstSequence + size - 1;
+    }
+
+    private void evictOldest() {
+        bytes -= sizeOf(entries[head]);
+        entries[head] = null;
+        head = (head + 1) % entries.length;
+        size--;
+        firstSequence++;
+    }
+
+    /**
+     * @param position The position of the entry, 0 being the oldest held.
+     * @return The entry, or null if position is out of range.
+     */
+    public synchronized String get(int position) {
+        if (position < 0 || position >= size) {
+            return null;
+        }
+        return entries[(head + position) % entries.length];
+    }
+
+    /**
+     * @param sequence The sequence number returned by add().
+     * @return The entry, or null if it has been evicted or cleared.
+     */
+    public synchronized String getBySequence(long sequence) {
+        long position = sequence - firstSequence;
+        if (position < 0 || position >= size) {
+            return null;
+        }
+        return entries[(int) ((head + position) % entries.length)];
+    }
+
+    /**
+     * @return The sequence number of the oldest entry held.
+     */
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    /**
+     * @return The sequence number the next appended entry will get.
+     */
+    public synchronized long getNextSequence() {
+        return firstSequence + size;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The approximate heap size of the entries held, in bytes.
+     */
+    public synchronized long getByteSize() {
+        return bytes;
+    }
+
+    public synchronized int getMaxEntries() {
+        return entries.length;
+    }
+
+    public synchronized int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Change the caps, keeping the newest entries that fit.
+     *
+     * @param maxEntries Maximum number of messages held.
+     * @param maxBytes   Maximum approximate heap size of the messages held, in bytes.
+     */
+    public synchronized void setLimits(int maxEntries, int maxBytes) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxBytes = maxBytes;
+        while (size > maxEntries || (size > 1 && bytes > maxBytes)) {
+            evictOldest();
+        }
+        String[] resized = new String[maxEntries];
+        for (int i = 0; i < size; i++) {
+            resized[i] = entries[(head + i) % entries.length];
+        }
+        entries = resized;
+        head = 0;
+    }
+
+    /**
+     * Remove all entries. Sequence numbers are not reused.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            entries[(head + i) % entries.length] = null;
+        }
+        firstSequence += size;
+        head = 0;
+        size = 0;
+        bytes = 0;
+    }
+}
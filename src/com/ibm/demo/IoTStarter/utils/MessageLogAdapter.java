@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.util.LruCache;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * List adapter that pages entries lazily out of a MessageStore, so the history shown
+ * can be far larger than what fits on the heap.
+ *
+ * Recent entries are served from the store's in-memory log. Older entries are read
+ * from disk PAGE_SIZE at a time, and the last few full pages are cached, so scrolling
+ * costs one small read per page.
+ *
+ * The store is appended to from the command threads, so the adapter shows the range
+ * of sequence numbers it saw at its last refresh(). The ListView therefore never
+ * sees the count change without a notification; an entry deleted since the refresh
+ * is shown empty until the next one.
+ *
+ * setResults() switches the adapter to showing only the given entries, such as the
+ * results of MessageStore.search(), until it is called with null.
+ */
+public class MessageLogAdapter extends BaseAdapter {
+
+    private final static int PAGE_SIZE = 64;
+    private final static int CACHED_PAGES = 8;
+
+    private final MessageStore store;
+    private final LayoutInflater inflater;
+    private final int resource;
+    private final LruCache<Long, String[]> pages = new LruCache<Long, String[]>(CACHED_PAGES);
+
+    private long firstSequence;
+    private int count;
+    private long[] results;
+
+    /**
+     * @param context  The context used to inflate rows.
+     * @param resource The row layout, a single TextView.
+     * @param store    The store to show.
+     */
+    public MessageLogAdapter(Context context, int resource, MessageStore store) {
+        this.store = store;
+        this.inflater = LayoutInflater.from(context);
+        this.resource = resource;
+        sync();
+    }
+
+    private void sync() {
+        synchronized (store) {
+            firstSequence = store.getFirstSequence();
+            count = (int) Math.min(Integer.MAX_VALUE, store.getNextSequence() - firstSequence);
+        }
+    }
+
+    /**
+     * Pick up entries added, deleted or cleared since the last refresh. Call on the
+     * main thread. Nothing is notified if the store has not changed, and because item
+     * ids are sequence numbers, the ListView rebinds only rows whose entry changed.
+     *
+     * @return The number of entries dropped from the head of the list since the last
+     * refresh, for the caller to keep its scroll position.
+     */
+    public int refresh() {
+        if (results != null) {
+            // search results are replaced through setResults()
+            return 0;
+        }
+        long oldFirst = firstSequence;
+        int oldCount = count;
+        sync();
+        if (firstSequence == oldFirst && count == oldCount) {
+            return 0;
+        }
+        notifyDataSetChanged();
+        return (int) Math.min(firstSequence - oldFirst, oldCount);
+    }
+
+    /**
+     * Show only the given entries, or the whole store if results is null. Call on the
+     * main thread.
+     *
+     * @param results The sequence numbers of the entries to show, in display order.
+     */
+    public void setResults(long[] results) {
+        this.results = results;
+        sync();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * @return True if the adapter is showing search results rather than the whole store.
+     */
+    public boolean isShowingResults() {
+        return results != null;
+    }
+
+    private long sequenceAt(int position) {
+        return results != null ? results[position] : firstSequence + position;
+    }
+
+    @Override
+    public int getCount() {
+        return results != null ? results.length : count;
+    }
+
+    @Override
+    public String getItem(int position) {
+        long sequence = sequenceAt(position);
+        String message = store.getRecent().getBySequence(sequence);
+        if (message == null) {
+            long pageStart = sequence - sequence % PAGE_SIZE;
+            String[] page = pages.get(pageStart);
+            if (page == null) {
+                page = new String[PAGE_SIZE];
+                int end = (int) Math.min(PAGE_SIZE, firstSequence + count - pageStart);
+                boolean complete = end == PAGE_SIZE;
+                int filled = 0;
+                while (filled < end) {
+                    // a page can span two segments, and its start may already be deleted
+                    int n = store.read(pageStart + filled, page, filled, end - filled);
+                    if (n == 0) {
+                        complete = false;
+                        filled++;
+                    } else {
+                        filled += n;
+                    }
+                }
+                if (complete) {
+                    pages.put(pageStart, page);
+                }
+            }
+            message = page[(int) (sequence - pageStart)];
+        }
+        return message == null ? "" : message;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return sequenceAt(position);
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) (convertView != null ? convertView : inflater.inflate(resource, parent, false));
+        // a row still showing the same entry is left alone, so a refresh does not re-lay out unchanged rows
+        Long sequence = sequenceAt(position);
+        if (!sequence.equals(view.getTag())) {
+            view.setText(getItem(position));
+            view.setTag(sequence);
+        }
+        return view;
+    }
+}
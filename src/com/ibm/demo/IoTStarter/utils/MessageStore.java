@@ -0,0 +1,492 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Persistent, append-only store of received text and alert messages, so the message
+ * history survives a process restart.
+ *
+ * Messages are appended to segment files of about segmentSize bytes. Each segment
+ * has a data file of [length][UTF-8 text] records and an index file holding the
+ * 4-byte offset of every record, so any message is found with one index read and one
+ * data read. Files are named after the sequence number of their first message; once
+ * there are more than maxSegments segments the oldest is deleted.
+ *
+ * Opening the store only lists the directory and reads the length of each index
+ * file (plus the last record header, to drop a torn write), so startup cost does not
+ * depend on the size of the history. The most recent messages are also kept in an
+ * in-memory MessageLog, so the usual reads never touch the disk.
+ *
+ * Messages are indexed for search as they are added. The index of the messages
+ * already on disk at startup is built on the first search, on a background thread and
+ * page by page, into a separate MessageIndex, so it costs nothing unless search is used
+ * and both indexes stay in sequence order. The store lock is held only while a page is
+ * read, not while it is indexed.
+ */
+public class MessageStore {
+
+    private final static String TAG = MessageStore.class.getName();
+
+    private final static String DATA_SUFFIX = ".log";
+    private final static String INDEX_SUFFIX = ".idx";
+    private final static int RECORD_OVERHEAD = 4;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayList<Segment> segments = new ArrayList<Segment>();
+    private final MessageLog recent;
+    private final MessageIndex index = new MessageIndex();
+    private final MessageIndex historyIndex = new MessageIndex();
+    private long nextSequence = 0;
+    private Thread indexThread;
+    private boolean historyIndexStarted = false;
+    // sequence number after the last message on disk at startup; later messages are in the live index
+    private long historyEnd = 0;
+    // non-tail segment whose files were last opened for reading
+    private Segment readSegment;
+
+    /**
+     * @param directory         The directory to keep segment files in.
+     * @param segmentSize       The size in bytes after which a new segment is started.
+     * @param maxSegments       The maximum number of segments to keep before deleting the oldest.
+     * @param recentMaxEntries  Maximum number of recent messages also held in memory.
+     * @param recentMaxBytes    Maximum approximate heap size of the recent messages held in memory.
+     */
+    public MessageStore(File directory, int segmentSize, int maxSegments, int recentMaxEntries, int recentMaxBytes) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        open();
+        this.recent = new MessageLog(recentMaxEntries, recentMaxBytes, nextSequence);
+    }
+
+    /**
+     * Open existing segment files left over from a previous run.
+     */
+    private synchronized void open() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, ".open() - Unable to create " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(DATA_SUFFIX)) {
+                continue;
+            }
+            try {
+                long first = Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length()));
+                if (first < nextSequence) {
+                    Log.w(TAG, ".open() - Ignoring overlapping segment " + name);
+                    continue;
+                }
+                Segment segment = new Segment(first);
+                segments.add(segment);
+                nextSequence = first + segment.count;
+            } catch (NumberFormatException e) {
+                Log.w(TAG, ".open() - Ignoring " + name);
+            }
+        }
+        Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (tail != null) {
+            try {
+                tail.recover();
+                nextSequence = tail.first + tail.count;
+            } catch (IOException e) {
+                Log.e(TAG, ".open() - Discarding unreadable segment " + tail.first, e);
+                segments.remove(segments.size() - 1);
+                tail.delete();
+            }
+        }
+        historyEnd = nextSequence;
+        Log.d(TAG, ".open() - " + segments.size() + " segment(s), " + (nextSequence - getFirstSequence())
+                + " message(s)");
+    }
+
+    /**
+     * Append a message.
+     *
+     * @param message The message text.
+     * @return The sequence number of the message.
+     */
+    public synchronized long add(String message) {
+        long sequence = nextSequence++;
+        recent.add(message);
+        byte[] text = JsonCodec.toBytes(message);
+        try {
+            Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (tail == null || tail.dataLength >= segmentSize) {
+                if (tail != null) {
+                    tail.close();
+                }
+                tail = new Segment(sequence);
+                segments.add(tail);
+                if (segments.size() > maxSegments) {
+                    while (segments.size() > maxSegments) {
+                        Segment oldest = segments.remove(0);
+                        if (oldest == readSegment) {
+                            readSegment = null;
+                        }
+                        Log.d(TAG, ".add() - Message store full, deleted " + oldest.count + " message(s)");
+                        oldest.delete();
+                    }
+                    index.prune(segments.get(0).first);
+                    historyIndex.prune(segments.get(0).first);
+                }
+            }
+            if (tail.first + tail.count != sequence) {
+                // a write to this segment failed earlier; start a new segment at this sequence
+                tail.close();
+                tail = new Segment(sequence);
+                segments.add(tail);
+            }
+            tail.append(text);
+        } catch (IOException e) {
+            Log.e(TAG, ".add() - Exception caught while storing a message", e);
+        }
+        index.add(sequence, message);
+        return sequence;
+    }
+
+    /**
+     * Find the messages containing every word of a query; the last word also matches
+     * as a prefix while it is being typed.
+     *
+     * @param query The words to search for.
+     * @param limit The maximum number of results.
+     * @return The matching sequence numbers, newest first. Messages on disk at startup
+     * are included once the background indexing, started by the first search, has
+     * reached them.
+     */
+    public long[] search(String query, int limit) {
+        startIndexing();
+        long[] live = index.search(query, limit);
+        if (live.length == limit) {
+            return live;
+        }
+        long[] history = historyIndex.search(query, limit - live.length);
+        long[] results = Arrays.copyOf(live, live.length + history.length);
+        System.arraycopy(history, 0, results, live.length, history.length);
+        return results;
+    }
+
+    /**
+     * Index the messages held at startup on a background thread, once.
+     */
+    private synchronized void startIndexing() {
+        if (historyIndexStarted) {
+            return;
+        }
+        historyIndexStarted = true;
+        final long from = getFirstSequence();
+        final long to = historyEnd;
+        if (from >= to) {
+            // no history, or all of it deleted since startup
+            return;
+        }
+        indexThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                indexHistory(from, to);
+            }
+        }, "IoTStarter-index");
+        indexThread.setDaemon(true);
+        indexThread.setPriority(Thread.MIN_PRIORITY);
+        indexThread.start();
+    }
+
+    /**
+     * Index thread body. Reads the history a page at a time and indexes each page
+     * after releasing the store, so appends and list reads are only held up by reads.
+     */
+    private void indexHistory(long from, long to) {
+        Thread self = Thread.currentThread();
+        long startTime = SystemClock.elapsedRealtime();
+        String[] page = new String[256];
+        long sequence = from;
+        while (sequence < to) {
+            int n;
+            synchronized (this) {
+                if (indexThread != self) {
+                    // cleared while indexing; drop anything indexed from the last page
+                    historyIndex.prune(getFirstSequence());
+                    return;
+                }
+                sequence = Math.max(sequence, getFirstSequence());
+                n = sequence < to ? read(sequence, page, 0, (int) Math.min(page.length, to - sequence)) : 0;
+            }
+            if (n == 0) {
+                // unreadable or deleted while indexing; skip it
+                sequence++;
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                historyIndex.add(sequence + i, page[i]);
+            }
+            sequence += n;
+        }
+        synchronized (this) {
+            if (indexThread == self) {
+                indexThread = null;
+            }
+            // entries of segments deleted after their page was read
+            historyIndex.prune(getFirstSequence());
+        }
+        Log.d(TAG, ".indexHistory() - Indexed " + (to - from) + " message(s) in "
+                + (SystemClock.elapsedRealtime() - startTime) + " ms");
+    }
+
+    /**
+     * @param sequence The sequence number returned by add().
+     * @return The message, or null if it has been deleted or cannot be read.
+     */
+    public String get(long sequence) {
+        String message = recent.getBySequence(sequence);
+        if (message != null) {
+            return message;
+        }
+        String[] page = new String[1];
+        return read(sequence, page, 0, 1) == 1 ? page[0] : null;
+    }
+
+    /**
+     * Read consecutive messages with one index read and one data read. The read stops
+     * at the end of the segment holding the first message.
+     *
+     * @param sequence The sequence number of the first message.
+     * @param out      Array to store the messages in.
+     * @param offset   Position in out of the first message.
+     * @param length   The most messages to read.
+     * @return The number of messages read, 0 if sequence is not held.
+     */
+    public synchronized int read(long sequence, String[] out, int offset, int length) {
+        Segment segment = find(sequence);
+        if (segment == null) {
+            return 0;
+        }
+        try {
+            if (segment != segments.get(segments.size() - 1) && segment != readSegment) {
+                if (readSegment != null) {
+                    readSegment.close();
+                }
+                readSegment = segment;
+            }
+            return segment.read((int) (sequence - segment.first), out, offset, length);
+        } catch (IOException e) {
+            Log.e(TAG, ".read() - Exception caught while reading message " + sequence, e);
+            return 0;
+        }
+    }
+
+    private Segment find(long sequence) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Segment segment = segments.get(mid);
+            if (sequence < segment.first) {
+                high = mid - 1;
+            } else if (sequence >= segment.first + segment.count) {
+                low = mid + 1;
+            } else {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The sequence number of the oldest message held.
+     */
+    public synchronized long getFirstSequence() {
+        return segments.isEmpty() ? nextSequence : segments.get(0).first;
+    }
+
+    /**
+     * @return The sequence number the next message will get.
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return The number of messages held.
+     */
+    public synchronized long size() {
+        return nextSequence - getFirstSequence();
+    }
+
+    /**
+     * @return The in-memory log of the most recent messages.
+     */
+    public MessageLog getRecent() {
+        return recent;
+    }
+
+    /**
+     * Delete all messages. Sequence numbers are not reused while the process runs.
+     */
+    public synchronized void clear() {
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        readSegment = null;
+        recent.clear();
+        indexThread = null;
+        // nothing left on disk to index
+        historyIndexStarted = true;
+        index.clear();
+        historyIndex.clear();
+    }
+
+    /**
+     * One segment: a data file of records and an index file of record offsets. The
+     * files are opened on first use and closed again when the segment is no longer
+     * the tail or the most recently read segment.
+     */
+    private class Segment {
+        private final long first;
+        private final File dataFile;
+        private final File indexFile;
+        private RandomAccessFile data;
+        private RandomAccessFile index;
+        private int count;
+        private long dataLength;
+
+        Segment(long first) {
+            this.first = first;
+            String name = String.format("%016d", first);
+            this.dataFile = new File(directory, name + DATA_SUFFIX);
+            this.indexFile = new File(directory, name + INDEX_SUFFIX);
+            this.count = (int) (indexFile.length() / 4);
+            this.dataLength = dataFile.length();
+        }
+
+        private void openFiles() throws IOException {
+            if (data == null) {
+                data = new RandomAccessFile(dataFile, "rw");
+                index = new RandomAccessFile(indexFile, "rw");
+            }
+        }
+
+        /**
+         * Drop a record whose data or index entry was only partly written.
+         */
+        void recover() throws IOException {
+            openFiles();
+            index.setLength(count * 4L);
+            while (count > 0) {
+                index.seek((count - 1) * 4L);
+                long offset = index.readInt() & 0xffffffffL;
+                if (offset + RECORD_OVERHEAD <= data.length()) {
+                    data.seek(offset);
+                    long end = offset + RECORD_OVERHEAD + data.readInt();
+                    if (end <= data.length()) {
+                        data.setLength(end);
+                        dataLength = end;
+                        return;
+                    }
+                }
+                count--;
+                index.setLength(count * 4L);
+            }
+            data.setLength(0);
+            dataLength = 0;
+        }
+
+        void append(byte[] text) throws IOException {
+            openFiles();
+            byte[] record = new byte[RECORD_OVERHEAD + text.length];
+            putInt(record, 0, text.length);
+            System.arraycopy(text, 0, record, RECORD_OVERHEAD, text.length);
+            data.seek(dataLength);
+            data.write(record);
+            index.seek(count * 4L);
+            index.writeInt((int) dataLength);
+            dataLength += record.length;
+            count++;
+        }
+
+        int read(int position, String[] out, int outOffset, int length) throws IOException {
+            openFiles();
+            int n = Math.min(length, count - position);
+            if (n <= 0) {
+                return 0;
+            }
+            // offsets of the n records plus the end of the last one
+            byte[] offsets = new byte[(n + 1) * 4];
+            index.seek(position * 4L);
+            boolean toEnd = position + n == count;
+            index.readFully(offsets, 0, toEnd ? n * 4 : offsets.length);
+            long start = getInt(offsets, 0) & 0xffffffffL;
+            long end = toEnd ? dataLength : getInt(offsets, n * 4) & 0xffffffffL;
+            byte[] records = new byte[(int) (end - start)];
+            data.seek(start);
+            data.readFully(records);
+            for (int i = 0; i < n; i++) {
+                int offset = (int) ((getInt(offsets, i * 4) & 0xffffffffL) - start);
+                out[outOffset + i] = JsonCodec.fromBytes(records, offset + RECORD_OVERHEAD, getInt(records, offset));
+            }
+            return n;
+        }
+
+        void close() {
+            try {
+                if (data != null) {
+                    data.close();
+                    index.close();
+                }
+            } catch (IOException e) {
+                // ignore, nothing was buffered
+            }
+            data = null;
+            index = null;
+        }
+
+        void delete() {
+            close();
+            dataFile.delete();
+            indexFile.delete();
+        }
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | (bytes[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Application-wide registry of named counters, gauges and histograms. Metrics are
+ * created on first use and updated without locks from any thread. Counters can also
+ * be kept per topic (or per command) within a family, for per-topic rates, and
+ * histograms per topic within a histogram family.
+ *
+ * snapshot() returns an immutable copy that fragments and diagnostics can read.
+ */
+public class MetricsRegistry {
+
+    private static MetricsRegistry instance;
+
+    /**
+     * A value read when a snapshot is taken, such as a queue depth.
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    private final ConcurrentHashMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, StripedCounter>> families =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, StripedCounter>>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Histogram>> histogramFamilies =
+            new ConcurrentHashMap<String, ConcurrentHashMap<String, Histogram>>();
+
+    private MetricsRegistry() {
+    }
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * @param name The counter name, e.g. Constants.METRIC_PUBLISHED.
+     * @return The counter, created if needed. Keep the reference on hot paths.
+     */
+    public StripedCounter counter(String name) {
+        return getOrCreate(counters, name);
+    }
+
+    /**
+     * @param family The family name, e.g. Constants.METRIC_PUBLISHED_BY_TOPIC.
+     * @param key    The topic or command within the family.
+     * @return The counter for the key, created if needed.
+     */
+    public StripedCounter counter(String family, String key) {
+        ConcurrentHashMap<String, StripedCounter> members = families.get(family);
+        if (members == null) {
+            ConcurrentHashMap<String, StripedCounter> created = new ConcurrentHashMap<String, StripedCounter>();
+            members = families.putIfAbsent(family, created);
+            if (members == null) {
+                members = created;
+            }
+        }
+        return getOrCreate(members, key);
+    }
+
+    /**
+     * @param name The histogram name.
+     * @return The histogram, created if needed.
+     */
+    public Histogram histogram(String name) {
+        return getOrCreateHistogram(histograms, name);
+    }
+
+    /**
+     * @param family The family name, e.g. Constants.METRIC_PUBLISH_ACK_LATENCY.
+     * @param key    The topic (and QoS) within the family.
+     * @return The histogram for the key, created if needed.
+     */
+    public Histogram histogram(String family, String key) {
+        ConcurrentHashMap<String, Histogram> members = histogramFamilies.get(family);
+        if (members == null) {
+            ConcurrentHashMap<String, Histogram> created = new ConcurrentHashMap<String, Histogram>();
+            members = histogramFamilies.putIfAbsent(family, created);
+            if (members == null) {
+                members = created;
+            }
+        }
+        return getOrCreateHistogram(members, key);
+    }
+
+    /**
+     * Register a gauge, replacing any gauge with the same name.
+     * @param name  The gauge name.
+     * @param gauge The gauge to read when a snapshot is taken.
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return An immutable copy of every metric. Each metric is read once, at
+     * approximately the snapshot's timestamp.
+     */
+    public MetricsSnapshot snapshot() {
+        return new MetricsSnapshot(counters, gauges, histograms, families, histogramFamilies);
+    }
+
+    private static StripedCounter getOrCreate(ConcurrentHashMap<String, StripedCounter> map, String name) {
+        StripedCounter counter = map.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter();
+            counter = map.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private static Histogram getOrCreateHistogram(ConcurrentHashMap<String, Histogram> map, String name) {
+        Histogram histogram = map.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = map.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+}
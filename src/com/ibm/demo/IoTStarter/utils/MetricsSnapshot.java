@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable point-in-time copy of the MetricsRegistry. Rates are derived by comparing
+ * two snapshots.
+ */
+public class MetricsSnapshot {
+
+    private final long timestamp;
+    private final Map<String, Long> counters = new HashMap<String, Long>();
+    private final Map<String, Long> gauges = new HashMap<String, Long>();
+    private final Map<String, Histogram.Snapshot> histograms = new HashMap<String, Histogram.Snapshot>();
+    private final Map<String, Map<String, Long>> families = new HashMap<String, Map<String, Long>>();
+    private final Map<String, Map<String, Histogram.Snapshot>> histogramFamilies =
+            new HashMap<String, Map<String, Histogram.Snapshot>>();
+
+    MetricsSnapshot(Map<String, StripedCounter> counters, Map<String, MetricsRegistry.Gauge> gauges,
+                    Map<String, Histogram> histograms, Map<String, ? extends Map<String, StripedCounter>> families,
+                    Map<String, ? extends Map<String, Histogram>> histogramFamilies) {
+        this.timestamp = SystemClock.elapsedRealtime();
+        for (Map.Entry<String, StripedCounter> entry : counters.entrySet()) {
+            this.counters.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, MetricsRegistry.Gauge> entry : gauges.entrySet()) {
+            this.gauges.put(entry.getKey(), entry.getValue().getValue());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            this.histograms.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        for (Map.Entry<String, ? extends Map<String, StripedCounter>> family : families.entrySet()) {
+            Map<String, Long> members = new HashMap<String, Long>();
+            for (Map.Entry<String, StripedCounter> entry : family.getValue().entrySet()) {
+                members.put(entry.getKey(), entry.getValue().sum());
+            }
+            this.families.put(family.getKey(), Collections.unmodifiableMap(members));
+        }
+        for (Map.Entry<String, ? extends Map<String, Histogram>> family : histogramFamilies.entrySet()) {
+            Map<String, Histogram.Snapshot> members = new HashMap<String, Histogram.Snapshot>();
+            for (Map.Entry<String, Histogram> entry : family.getValue().entrySet()) {
+                members.put(entry.getKey(), entry.getValue().snapshot());
+            }
+            this.histogramFamilies.put(family.getKey(), Collections.unmodifiableMap(members));
+        }
+    }
+
+    /**
+     * @return SystemClock.elapsedRealtime() when the snapshot was taken.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return The counter value, or 0 if the counter has never been used.
+     */
+    public long getCounter(String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return The gauge value, or 0 if no such gauge is registered.
+     */
+    public long getGauge(String name) {
+        Long value = gauges.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return The histogram snapshot, or null if the histogram has never been used.
+     */
+    public Histogram.Snapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * @return The counters of a family by key (e.g. by topic), empty if the family has never been used.
+     */
+    public Map<String, Long> getFamily(String family) {
+        Map<String, Long> members = families.get(family);
+        return members == null ? Collections.<String, Long>emptyMap() : members;
+    }
+
+    /**
+     * @return The histograms of a family by key (e.g. by topic and QoS), empty if the family has never been used.
+     */
+    public Map<String, Histogram.Snapshot> getHistogramFamily(String family) {
+        Map<String, Histogram.Snapshot> members = histogramFamilies.get(family);
+        return members == null ? Collections.<String, Histogram.Snapshot>emptyMap() : members;
+    }
+
+    /**
+     * @param previous An earlier snapshot.
+     * @param name     The counter name.
+     * @return The counter's rate per second between the two snapshots.
+     */
+    public double getRate(MetricsSnapshot previous, String name) {
+        return rate(getCounter(name) - previous.getCounter(name), previous);
+    }
+
+    /**
+     * @param previous An earlier snapshot.
+     * @param family   The family name.
+     * @param key      The topic or command within the family.
+     * @return The rate per second of the key's counter between the two snapshots.
+     */
+    public double getRate(MetricsSnapshot previous, String family, String key) {
+        Long now = getFamily(family).get(key);
+        Long then = previous.getFamily(family).get(key);
+        return rate((now == null ? 0 : now) - (then == null ? 0 : then), previous);
+    }
+
+    private double rate(long delta, MetricsSnapshot previous) {
+        long elapsed = timestamp - previous.timestamp;
+        return elapsed <= 0 ? 0 : delta * 1000.0 / elapsed;
+    }
+
+    /**
+     * Render every metric as text, one per line and sorted by name, for the diagnostics
+     * dialog and log. Histograms are shown as count, p50, p99, p999 and max.
+     * @param previous An earlier snapshot to show counter rates against, or null.
+     * @return The metrics as text.
+     */
+    public String format(MetricsSnapshot previous) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> entry : new TreeMap<String, Long>(counters).entrySet()) {
+            appendCounter(text, entry.getKey(), entry.getValue(),
+                    previous == null ? -1 : getRate(previous, entry.getKey()));
+        }
+        for (Map.Entry<String, Long> entry : new TreeMap<String, Long>(gauges).entrySet()) {
+            text.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Map<String, Long>> family : new TreeMap<String, Map<String, Long>>(families).entrySet()) {
+            text.append(family.getKey()).append(":\n");
+            for (Map.Entry<String, Long> entry : new TreeMap<String, Long>(family.getValue()).entrySet()) {
+                text.append("  ");
+                appendCounter(text, entry.getKey(), entry.getValue(),
+                        previous == null ? -1 : getRate(previous, family.getKey(), entry.getKey()));
+            }
+        }
+        for (Map.Entry<String, Histogram.Snapshot> entry :
+                new TreeMap<String, Histogram.Snapshot>(histograms).entrySet()) {
+            appendHistogram(text, entry.getKey(), entry.getValue());
+        }
+        // e.g. send and ack latency by topic and QoS
+        for (Map.Entry<String, Map<String, Histogram.Snapshot>> family :
+                new TreeMap<String, Map<String, Histogram.Snapshot>>(histogramFamilies).entrySet()) {
+            text.append(family.getKey()).append(":\n");
+            for (Map.Entry<String, Histogram.Snapshot> entry :
+                    new TreeMap<String, Histogram.Snapshot>(family.getValue()).entrySet()) {
+                text.append("  ");
+                appendHistogram(text, entry.getKey(), entry.getValue());
+            }
+        }
+        return text.toString();
+    }
+
+    private static void appendCounter(StringBuilder text, String name, long value, double rate) {
+        text.append(name).append(": ").append(value);
+        if (rate >= 0) {
+            text.append(" (").append(String.format("%.1f", rate)).append("/s)");
+        }
+        text.append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder text, String name, Histogram.Snapshot histogram) {
+        text.append(name).append(": n=").append(histogram.getCount());
+        text.append(" p50=").append(histogram.getP50());
+        text.append(" p99=").append(histogram.getP99());
+        text.append(" p999=").append(histogram.getP999());
+        text.append(" max=").append(histogram.getMax()).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return format(null);
+    }
+}
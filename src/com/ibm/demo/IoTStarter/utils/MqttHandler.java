@@ -20,33 +20,101 @@ import android.content.Intent;
 import android.util.Log;
 
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
-import com.ibm.demo.IoTStarter.fragments.IoTFragment;
-import com.ibm.demo.IoTStarter.fragments.LoginFragment;
 import org.eclipse.paho.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
-import org.json.JSONException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.io.File;
+import java.util.ArrayList;
 
 /**
  * This class provides a wrapper around the MQTT client API's and implements
- * the MqttCallback interface.
+ * the MqttCallback interface. Published messages are handed to a PublishPipeline
+ * and written to the client in batches from the pipeline's writer thread. Messages
+ * published while disconnected are kept in an OfflineQueue and replayed on reconnect.
+ *
+ * Depending on the transport mode of the current profile, the client is either a
+ * MqttAndroidClient, which runs the connection in the Paho Android Service, or a
+ * MqttAsyncClient running in the application process.
  */
-public class MqttHandler implements MqttCallback {
+public class MqttHandler implements MqttCallback, PublishPipeline.BatchWriter {
 
     private final static String TAG = MqttHandler.class.getName();
     private static MqttHandler instance;
-    private MqttAndroidClient client;
+    private volatile IMqttAsyncClient client;
     private Context context;
     private IoTStarterApplication app;
+    private PublishPipeline publishPipeline;
+    private OfflineQueue offlineQueue;
+    private ActionListener publishListener;
+
+    private StripedCounter publishedBytes;
+    private StripedCounter publishSpilled;
+    private Histogram publishBatchSize;
+    private StripedCounter receivedBytes;
 
     private MqttHandler(Context context) {
         this.context = context;
         this.app = (IoTStarterApplication) context.getApplicationContext();
         this.client = null;
+        this.publishListener = new ActionListener(context, Constants.ActionStateStatus.PUBLISH);
+        this.publishPipeline = new PublishPipeline(this, Constants.PUBLISH_QUEUE_CAPACITY,
+                Constants.PUBLISH_MAX_BATCH_SIZE, Constants.PUBLISH_LINGER_MS);
+        this.publishPipeline.start();
+        this.offlineQueue = new OfflineQueue(new File(context.getFilesDir(), Constants.OFFLINE_QUEUE_DIR),
+                Constants.OFFLINE_SEGMENT_SIZE, Constants.OFFLINE_MAX_SEGMENTS, Constants.OFFLINE_REPLAY_RATE);
+        registerMetrics();
+    }
+
+    private void registerMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.gauge(Constants.METRIC_PUBLISH_QUEUE_DEPTH, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return publishPipeline.getQueueDepth();
+            }
+        });
+        metrics.gauge(Constants.METRIC_OFFLINE_QUEUE_DEPTH, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return offlineQueue.getDepth();
+            }
+        });
+        metrics.gauge(Constants.METRIC_OFFLINE_EVICTED, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return offlineQueue.getEvictedCount();
+            }
+        });
+        metrics.gauge(Constants.METRIC_OFFLINE_REPLAYED, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return offlineQueue.getReplayedCount();
+            }
+        });
+        metrics.gauge(Constants.METRIC_OFFLINE_REPLAY_RATE, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                // messages per second over the last second of replay
+                return Math.round(offlineQueue.getReplayRate());
+            }
+        });
+        metrics.gauge(Constants.METRIC_PUBLISH_ACK_LATENCY_SMOOTHED, new MetricsRegistry.Gauge() {
+            @Override
+            public long getValue() {
+                return PublishTiming.getSmoothedAckLatencyMicros();
+            }
+        });
+        publishedBytes = metrics.counter(Constants.METRIC_PUBLISHED_BYTES);
+        publishSpilled = metrics.counter(Constants.METRIC_PUBLISH_SPILLED);
+        publishBatchSize = metrics.histogram(Constants.METRIC_PUBLISH_BATCH_SIZE);
+        receivedBytes = metrics.counter(Constants.METRIC_RECEIVED_BYTES);
     }
 
     /**
@@ -62,10 +130,27 @@ public class MqttHandler implements MqttCallback {
     }
 
     /**
-     * Connect MqttAndroidClient to the MQTT server
+     * Connect to the MQTT server. The ConnectionStateMachine keeps the connection
+     * up until disconnect() is called.
      */
     public void connect() {
         Log.d(TAG, ".connect() entered");
+        ConnectionStateMachine.getInstance(context).requestConnect();
+    }
+
+    /**
+     * Disconnect from the MQTT server and stop reconnecting.
+     */
+    public void disconnect() {
+        Log.d(TAG, ".disconnect() entered");
+        ConnectionStateMachine.getInstance(context).requestDisconnect();
+    }
+
+    /**
+     * Connect the MQTT client to the MQTT server. Called by the ConnectionStateMachine.
+     */
+    void openConnection() {
+        Log.d(TAG, ".openConnection() entered");
 
         // check if client is already connected
         if (!isMqttConnected()) {
@@ -87,11 +172,14 @@ public class MqttHandler implements MqttCallback {
                     + ", client id: " + clientId);
 
             String connectionUri = "tcp://" + serverHost + ":" + serverPort;
-            if (client != null) {
-                client.unregisterResources();
-                client = null;
+            releaseClient();
+            try {
+                client = createClient(context, app.getTransportMode(), connectionUri, clientId);
+            } catch (MqttException e) {
+                Log.e(TAG, "Exception caught while creating the MQTT client", e);
+                ConnectionStateMachine.getInstance(context).onConnectFailure(e);
+                return;
             }
-            client = new MqttAndroidClient(context, connectionUri, clientId);
             client.setCallback(this);
 
             // create ActionListener to handle connection results
@@ -116,15 +204,53 @@ public class MqttHandler implements MqttCallback {
                     actionIntent.putExtra(Constants.CONNECTIVITY_MESSAGE, Constants.ERROR_BROKER_UNAVAILABLE);
                     context.sendBroadcast(actionIntent);
                 }
+                ConnectionStateMachine.getInstance(context).onConnectFailure(e);
             }
         }
     }
 
     /**
-     * Disconnect MqttAndroidClient from the MQTT server
+     * Create the MQTT client for the given transport mode.
+     *
+     * @param context       The application context.
+     * @param mode          SERVICE for the Paho Android Service, IN_PROCESS for an in-process MqttAsyncClient.
+     * @param connectionUri The URI of the MQTT server.
+     * @param clientId      The client id to connect with.
+     * @return The new, unconnected client.
+     * @throws MqttException If the in-process client could not be created.
      */
-    public void disconnect() {
-        Log.d(TAG, ".disconnect() entered");
+    static IMqttAsyncClient createClient(Context context, Constants.TransportMode mode, String connectionUri,
+                                         String clientId) throws MqttException {
+        Log.d(TAG, ".createClient() - Using transport mode " + mode);
+        if (mode == Constants.TransportMode.IN_PROCESS) {
+            // clean sessions are used, so in-flight state does not need to survive a restart
+            return new MqttAsyncClient(connectionUri, clientId, new MemoryPersistence());
+        }
+        return new MqttAndroidClient(context, connectionUri, clientId);
+    }
+
+    /**
+     * Release the resources held by the current client before it is replaced.
+     */
+    private void releaseClient() {
+        IMqttAsyncClient oldClient = client;
+        client = null;
+        if (oldClient instanceof MqttAndroidClient) {
+            ((MqttAndroidClient) oldClient).unregisterResources();
+        } else if (oldClient instanceof MqttAsyncClient) {
+            try {
+                ((MqttAsyncClient) oldClient).close();
+            } catch (MqttException e) {
+                Log.w(TAG, ".releaseClient() - Exception caught while closing the client", e);
+            }
+        }
+    }
+
+    /**
+     * Disconnect the MQTT client from the MQTT server. Called by the ConnectionStateMachine.
+     */
+    void closeConnection() {
+        Log.d(TAG, ".closeConnection() entered");
 
         // check if client is actually connected
         if (isMqttConnected()) {
@@ -134,12 +260,15 @@ public class MqttHandler implements MqttCallback {
                 client.disconnect(context, listener);
             } catch (MqttException e) {
                 Log.e(TAG, "Exception caught while attempting to disconnect from server", e.getCause());
+                ConnectionStateMachine.getInstance(context).onDisconnected();
             }
+        } else {
+            ConnectionStateMachine.getInstance(context).onDisconnected();
         }
     }
 
     /**
-     * Subscribe MqttAndroidClient to a topic
+     * Subscribe the MQTT client to a topic
      *
      * @param topic to subscribe to
      * @param qos   to subscribe with
@@ -158,12 +287,12 @@ public class MqttHandler implements MqttCallback {
                 Log.e(TAG, "Exception caught while attempting to subscribe to topic " + topic, e.getCause());
             }
         } else {
-            connectionLost(null);
+            Log.w(TAG, ".subscribe() - Not connected, the subscription is restored on the next connect");
         }
     }
 
     /**
-     * Unsubscribe MqttAndroidClient from a topic
+     * Unsubscribe the MQTT client from a topic
      *
      * @param topic to unsubscribe from
      */
@@ -180,12 +309,12 @@ public class MqttHandler implements MqttCallback {
                 Log.e(TAG, "Exception caught while attempting to unsubscribe from topic " + topic, e.getCause());
             }
         } else {
-            connectionLost(null);
+            Log.w(TAG, ".unsubscribe() - Not connected");
         }
     }
 
     /**
-     * Publish message to a topic
+     * Publish message to a topic.
      *
      * @param topic    to publish the message to
      * @param message  JSON object representation as a string
@@ -193,39 +322,113 @@ public class MqttHandler implements MqttCallback {
      * @param qos      quality of service (0, 1, 2)
      */
     public void publish(String topic, String message, boolean retained, int qos) {
-        Log.d(TAG, ".publish() entered");
+        publish(topic, JsonCodec.toBytes(message), retained, qos);
+    }
+
+    /**
+     * Publish the contents of a payload writer to a topic. The writer can be reset and
+     * reused as soon as this returns; the one copy made here is the exact-size payload
+     * array that the MQTT message keeps.
+     *
+     * @param topic    to publish the message to
+     * @param writer   the writer holding the encoded message payload
+     * @param retained true if retained flag is requred
+     * @param qos      quality of service (0, 1, 2)
+     */
+    public void publish(String topic, PayloadWriter writer, boolean retained, int qos) {
+        publish(topic, writer.toByteArray(), retained, qos);
+    }
+
+    /**
+     * Publish an encoded payload to a topic. The message is queued and written to the
+     * MQTT client by the publish pipeline's writer thread. If the client is not
+     * connected, the message is stored in the offline queue instead.
+     *
+     * @param topic    to publish the message to
+     * @param payload  the encoded message payload
+     * @param retained true if retained flag is requred
+     * @param qos      quality of service (0, 1, 2)
+     */
+    public void publish(String topic, byte[] payload, boolean retained, int qos) {
+        Log.v(TAG, ".publish() entered");
 
+        OutboundMessage outbound = new OutboundMessage(topic, payload, qos, retained);
         // check if client is connected
         if (isMqttConnected()) {
-            // create a new MqttMessage from the message string
-            MqttMessage mqttMsg = new MqttMessage(message.getBytes());
+            publishPipeline.enqueue(outbound);
+        } else {
+            offlineQueue.append(outbound);
+            // no-op unless the state machine still believes the client is connected
+            ConnectionStateMachine.getInstance(context).onConnectionLost(null);
+        }
+    }
+
+    /**
+     * Write a batch of queued messages to the MQTT client. Called on the publish
+     * pipeline's writer thread.
+     *
+     * @param batch The messages drained from the publish queue.
+     */
+    @Override
+    public void writeBatch(ArrayList<OutboundMessage> batch) {
+        Log.v(TAG, ".writeBatch() entered - " + batch.size() + " message(s)");
+
+        IMqttAsyncClient client = this.client;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        publishBatchSize.record(batch.size());
+        int published = 0;
+        for (OutboundMessage message : batch) {
+            if (!isMqttConnected()) {
+                // connection went away while the message was queued - keep it for replay
+                offlineQueue.append(message);
+                publishSpilled.increment();
+                continue;
+            }
+            // create a new MqttMessage from the queued payload
+            MqttMessage mqttMsg = new MqttMessage(message.getPayload());
             // set retained flag
-            mqttMsg.setRetained(retained);
+            mqttMsg.setRetained(message.isRetained());
             // set quality of service
-            mqttMsg.setQos(qos);
+            mqttMsg.setQos(message.getQos());
             try {
-                // create ActionListener to handle message published results
-                ActionListener listener = new ActionListener(context, Constants.ActionStateStatus.PUBLISH);
-                Log.d(TAG, ".publish() - Publishing " + message + " to: " + topic + ", with QoS: " + qos + " with retained flag set to " + retained);
-                client.publish(topic, mqttMsg, context, listener);
-
-                int count = app.getPublishCount();
-                app.setPublishCount(++count);
-
-                String runningActivity = app.getCurrentRunningActivity();
-                if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
-                    Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
-                    actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_PUBLISHED);
-                    context.sendBroadcast(actionIntent);
-                }
-            } catch (MqttPersistenceException e) {
-                Log.e(TAG, "MqttPersistenceException caught while attempting to publish a message", e.getCause());
+                client.publish(message.getTopic(), mqttMsg, PublishTiming.sent(message), publishListener);
+                published++;
+                publishedBytes.add(message.getPayload().length);
+                metrics.counter(Constants.METRIC_PUBLISHED_BY_TOPIC, message.getTopic()).increment();
             } catch (MqttException e) {
-                Log.e(TAG, "MqttException caught while attempting to publish a message", e.getCause());
+                // including MqttPersistenceException - the message was not sent, so keep it for replay
+                Log.e(TAG, "MqttException caught while attempting to publish a message", e);
+                offlineQueue.append(message);
+                publishSpilled.increment();
             }
-        } else {
-            connectionLost(null);
         }
+
+        if (published > 0) {
+            // the visible fragment picks the new count up on its next refresh
+            app.addPublishCount(published);
+        }
+    }
+
+    /**
+     * @return The publish pipeline used by this handler.
+     */
+    public PublishPipeline getPublishPipeline() {
+        return publishPipeline;
+    }
+
+    /**
+     * @return The queue holding messages published while disconnected.
+     */
+    public OfflineQueue getOfflineQueue() {
+        return offlineQueue;
+    }
+
+    /**
+     * Replay messages stored while disconnected. Called once the client has connected.
+     */
+    public void replayOfflineMessages() {
+        Log.d(TAG, ".replayOfflineMessages() entered");
+        offlineQueue.startReplay(publishPipeline);
     }
 
     /**
@@ -240,14 +443,7 @@ public class MqttHandler implements MqttCallback {
             throwable.printStackTrace();
         }
 
-        app.setConnected(false);
-
-        String runningActivity = app.getCurrentRunningActivity();
-        if (runningActivity != null && runningActivity.equals(LoginFragment.class.getName())) {
-            Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_LOGIN);
-            actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_DISCONNECT);
-            context.sendBroadcast(actionIntent);
-        }
+        ConnectionStateMachine.getInstance(context).onConnectionLost(throwable);
     }
 
     /**
@@ -261,26 +457,15 @@ public class MqttHandler implements MqttCallback {
     public void messageArrived(String topic, MqttMessage mqttMessage) throws Exception {
         Log.d(TAG, ".messageArrived() entered");
 
-        int receiveCount = app.getReceiveCount();
-        app.setReceiveCount(++receiveCount);
-        String runningActivity = app.getCurrentRunningActivity();
-        if (runningActivity != null && runningActivity.equals(IoTFragment.class.getName())) {
-            Intent actionIntent = new Intent(Constants.APP_ID + Constants.INTENT_IOT);
-            actionIntent.putExtra(Constants.INTENT_DATA, Constants.INTENT_DATA_RECEIVED);
-            context.sendBroadcast(actionIntent);
-        }
+        app.incrementReceiveCount();
 
-        String payload = new String(mqttMessage.getPayload());
+        byte[] payload = mqttMessage.getPayload();
+        receivedBytes.add(payload.length);
+        MetricsRegistry.getInstance().counter(Constants.METRIC_RECEIVED_BY_TOPIC, topic).increment();
         Log.d(TAG, ".messageArrived - Message received on topic " + topic
-                + ": message is " + payload);
-        // TODO: Process message
-        try {
-            // send the message through the application logic
-            MessageConductor.getInstance(context).steerMessage(payload, topic);
-        } catch (JSONException e) {
-            Log.e(TAG, ".messageArrived() - Exception caught while steering a message", e.getCause());
-            e.printStackTrace();
-        }
+                + ": " + payload.length + " bytes");
+        // send the message through the application logic
+        MessageConductor.getInstance(context).steerMessage(payload, topic);
     }
 
     /**
@@ -291,6 +476,11 @@ public class MqttHandler implements MqttCallback {
     @Override
     public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
         Log.d(TAG, ".deliveryComplete() entered");
+
+        Object userContext = iMqttDeliveryToken.getUserContext();
+        if (userContext instanceof PublishTiming) {
+            ((PublishTiming) userContext).acknowledged();
+        }
     }
 
     /**
@@ -299,7 +489,7 @@ public class MqttHandler implements MqttCallback {
      * @return True if client is connected, false if not.
      */
     private boolean isMqttConnected() {
-        Log.d(TAG, ".isMqttConnected() entered");
+        Log.v(TAG, ".isMqttConnected() entered");
         boolean connected = false;
         try {
             if ((client != null) && (client.isConnected())) {
@@ -308,7 +498,7 @@ public class MqttHandler implements MqttCallback {
         } catch (Exception e) {
             // swallowing the exception as it means the client is not connected
         }
-        Log.d(TAG, ".isMqttConnected() - returning " + connected);
+        Log.v(TAG, ".isMqttConnected() - returning " + connected);
         return connected;
     }
 }
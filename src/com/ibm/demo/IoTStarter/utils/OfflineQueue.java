@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Disk-backed, append-only store for messages published while the MQTT client
+ * is disconnected. Messages are written to fixed-size memory-mapped segment files.
+ * When the number of segments exceeds the cap, the oldest segment is evicted.
+ * Once the client reconnects, the queue is replayed into the PublishPipeline
+ * in order at a controlled rate.
+ *
+ * Segment layout: a header of [magic][readPos][writePos] followed by records of
+ * [length][qos][retained][topicLength][topic][payload].
+ */
+public class OfflineQueue {
+
+    private final static String TAG = OfflineQueue.class.getName();
+
+    private final static int MAGIC = 0x494f5451; // "IOTQ"
+    private final static int HEADER_SIZE = 12;
+    private final static int READ_POS_OFFSET = 4;
+    private final static int WRITE_POS_OFFSET = 8;
+    private final static int RECORD_OVERHEAD = 4 + 1 + 1 + 2;
+    private final static String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private long nextSegmentId = 0;
+
+    // head position returned by the last peek(), so remove() only consumes that record
+    private Segment peekedSegment;
+    private int peekedPos;
+
+    private int depth = 0;
+    private long evictedCount = 0;
+    private long replayedCount = 0;
+    private double replayRate = 0.0;
+
+    private volatile int replayRateLimit;
+    private Thread replayThread;
+
+    /**
+     * @param directory   The directory to keep segment files in.
+     * @param segmentSize The size in bytes of each segment file.
+     * @param maxSegments The maximum number of segment files to keep before evicting the oldest.
+     * @param replayRateLimit The maximum number of messages per second to replay after reconnecting.
+     */
+    public OfflineQueue(File directory, int segmentSize, int maxSegments, int replayRateLimit) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.replayRateLimit = replayRateLimit;
+        open();
+    }
+
+    /**
+     * Open existing segment files left over from a previous run.
+     */
+    private synchronized void open() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, ".open() - Unable to create " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                Segment segment = new Segment(file, segmentSize, false);
+                segments.addLast(segment);
+                depth += segment.count;
+                nextSegmentId = Math.max(nextSegmentId, id + 1);
+            } catch (NumberFormatException e) {
+                Log.w(TAG, ".open() - Ignoring " + name);
+            } catch (IOException e) {
+                Log.e(TAG, ".open() - Discarding unreadable segment " + name, e);
+                file.delete();
+            }
+        }
+        Log.d(TAG, ".open() - " + segments.size() + " segment(s), " + depth + " message(s) waiting");
+    }
+
+    /**
+     * Append a message to the tail of the queue, evicting the oldest segment if the
+     * size cap is reached.
+     *
+     * @param message The message to store.
+     * @return True if the message was stored.
+     */
+    public synchronized boolean append(OutboundMessage message) {
+        byte[] topic;
+        try {
+            topic = message.getTopic().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return false;
+        }
+        int recordSize = RECORD_OVERHEAD + topic.length + message.getPayload().length;
+        if (recordSize > segmentSize - HEADER_SIZE) {
+            Log.w(TAG, ".append() - Message too large for offline queue: " + recordSize + " bytes");
+            return false;
+        }
+
+        try {
+            Segment tail = segments.peekLast();
+            if (tail == null || !tail.hasRoom(recordSize)) {
+                tail = new Segment(new File(directory, String.format("%016d", nextSegmentId++) + SEGMENT_SUFFIX),
+                        segmentSize, true);
+                segments.addLast(tail);
+                while (segments.size() > maxSegments) {
+                    Segment oldest = segments.removeFirst();
+                    depth -= oldest.count;
+                    evictedCount += oldest.count;
+                    Log.w(TAG, ".append() - Offline queue full, evicted " + oldest.count + " message(s)");
+                    oldest.delete();
+                }
+            }
+            tail.write(topic, message);
+            depth++;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, ".append() - Exception caught while storing a message", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return The oldest message in the queue without removing it, or null if the queue is empty.
+     */
+    public synchronized OutboundMessage peek() {
+        dropEmptyHead();
+        Segment head = segments.peekFirst();
+        if (head == null || head.count == 0) {
+            peekedSegment = null;
+            return null;
+        }
+        peekedSegment = head;
+        peekedPos = head.readPos;
+        return head.read(false);
+    }
+
+    /**
+     * Remove the message returned by the last peek(). If that message is no longer at the
+     * head, because append() evicted its segment in the meantime, nothing is removed, so
+     * a message that was never peeked is not lost.
+     *
+     * @return True if the message was removed.
+     */
+    public synchronized boolean remove() {
+        Segment head = segments.peekFirst();
+        if (head == null || head != peekedSegment || head.readPos != peekedPos || head.count == 0) {
+            peekedSegment = null;
+            return false;
+        }
+        peekedSegment = null;
+        head.read(true);
+        depth--;
+        dropEmptyHead();
+        return true;
+    }
+
+    /**
+     * Delete fully read segments at the head of the queue, keeping the tail for appends.
+     */
+    private void dropEmptyHead() {
+        while (segments.size() > 1 && segments.peekFirst().count == 0) {
+            segments.removeFirst().delete();
+        }
+    }
+
+    /**
+     * Start replaying stored messages into the publish pipeline. Replay stops when the
+     * queue is empty or stopReplay() is called.
+     *
+     * @param pipeline The pipeline to replay messages into.
+     */
+    public synchronized void startReplay(final PublishPipeline pipeline) {
+        if (replayThread != null || depth == 0) {
+            return;
+        }
+        Log.d(TAG, ".startReplay() - Replaying " + depth + " message(s)");
+        replayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replayLoop(pipeline);
+            }
+        }, "IoTStarter-replay");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    /**
+     * Stop replaying stored messages. Messages not yet replayed remain in the queue.
+     */
+    public synchronized void stopReplay() {
+        if (replayThread != null) {
+            replayThread.interrupt();
+            replayThread = null;
+        }
+    }
+
+    /**
+     * Replay thread body. Move messages into the pipeline no faster than replayRateLimit
+     * per second, backing off while the pipeline is full.
+     */
+    private void replayLoop(PublishPipeline pipeline) {
+        Thread self = Thread.currentThread();
+        long windowStart = System.nanoTime();
+        int windowCount = 0;
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (replayThread != self) {
+                        return;
+                    }
+                }
+                OutboundMessage message = peek();
+                if (message == null) {
+                    break;
+                }
+                if (!pipeline.offer(message)) {
+                    // backpressure, not a drop; the message stays stored until it is queued
+                    Thread.sleep(Constants.OFFLINE_REPLAY_BACKOFF_MS);
+                    continue;
+                }
+                // removes only the record just peeked; if append() evicted its segment in the
+                // meantime the message has still been replayed and nothing else is consumed
+                remove();
+                windowCount++;
+
+                long now = System.nanoTime();
+                long elapsed = now - windowStart;
+                if (elapsed >= 1000000000L) {
+                    synchronized (this) {
+                        replayedCount += windowCount;
+                        replayRate = windowCount * 1e9 / elapsed;
+                    }
+                    windowStart = now;
+                    windowCount = 0;
+                }
+                int limit = replayRateLimit;
+                if (limit > 0) {
+                    Thread.sleep(1000L / limit);
+                }
+            }
+        } catch (InterruptedException e) {
+            // replay stopped
+        } finally {
+            synchronized (this) {
+                replayedCount += windowCount;
+                replayRate = 0.0;
+                if (replayThread == self) {
+                    replayThread = null;
+                }
+            }
+            Log.d(TAG, ".replayLoop() - Replay finished, " + getDepth() + " message(s) remaining");
+        }
+    }
+
+    /**
+     * @return The number of messages waiting to be replayed.
+     */
+    public synchronized int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return The number of messages discarded because the size cap was reached.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * @return The number of messages replayed into the publish pipeline.
+     */
+    public synchronized long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * @return The replay rate, in messages per second, measured over the last second of replay.
+     */
+    public synchronized double getReplayRate() {
+        return replayRate;
+    }
+
+    public void setReplayRateLimit(int replayRateLimit) {
+        this.replayRateLimit = replayRateLimit;
+    }
+
+    /**
+     * A single memory-mapped segment file.
+     */
+    private static class Segment {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        private int readPos;
+        private int writePos;
+        private int count;
+
+        Segment(File file, int size, boolean create) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            if (create) {
+                raf.setLength(size);
+            }
+            if (!create && raf.length() < HEADER_SIZE) {
+                raf.close();
+                throw new IOException("Truncated segment");
+            }
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(READ_POS_OFFSET, HEADER_SIZE);
+                buffer.putInt(WRITE_POS_OFFSET, HEADER_SIZE);
+            } else if (buffer.getInt(0) != MAGIC) {
+                raf.close();
+                throw new IOException("Bad segment header");
+            }
+            readPos = buffer.getInt(READ_POS_OFFSET);
+            writePos = buffer.getInt(WRITE_POS_OFFSET);
+            if (readPos < HEADER_SIZE || writePos > buffer.capacity() || readPos > writePos) {
+                raf.close();
+                throw new IOException("Bad segment positions");
+            }
+            // count the records still to be read; a torn or zero-filled record after a power
+            // loss makes the whole segment unreadable rather than crashing the replay
+            int pos = readPos;
+            while (pos < writePos) {
+                if (pos + RECORD_OVERHEAD > writePos) {
+                    raf.close();
+                    throw new IOException("Truncated record at " + pos);
+                }
+                int length = buffer.getInt(pos);
+                int topicLength = buffer.getShort(pos + 6) & 0xffff;
+                if (length < RECORD_OVERHEAD - 4 || length > writePos - pos - 4
+                        || topicLength > length - (RECORD_OVERHEAD - 4)) {
+                    raf.close();
+                    throw new IOException("Bad record length at " + pos);
+                }
+                pos += 4 + length;
+                count++;
+            }
+        }
+
+        boolean hasRoom(int recordSize) {
+            return writePos + recordSize <= buffer.capacity();
+        }
+
+        void write(byte[] topic, OutboundMessage message) {
+            byte[] payload = message.getPayload();
+            buffer.position(writePos);
+            buffer.putInt(RECORD_OVERHEAD - 4 + topic.length + payload.length);
+            buffer.put((byte) message.getQos());
+            buffer.put((byte) (message.isRetained() ? 1 : 0));
+            buffer.putShort((short) topic.length);
+            buffer.put(topic);
+            buffer.put(payload);
+            writePos = buffer.position();
+            buffer.putInt(WRITE_POS_OFFSET, writePos);
+            count++;
+        }
+
+        OutboundMessage read(boolean advance) {
+            int pos = readPos;
+            int length = buffer.getInt(pos);
+            int qos = buffer.get(pos + 4);
+            boolean retained = buffer.get(pos + 5) != 0;
+            int topicLength = buffer.getShort(pos + 6) & 0xffff;
+            if (advance) {
+                readPos = pos + 4 + length;
+                buffer.putInt(READ_POS_OFFSET, readPos);
+                count--;
+                return null;
+            }
+            byte[] topic = new byte[topicLength];
+            byte[] payload = new byte[length - (RECORD_OVERHEAD - 4) - topicLength];
+            buffer.position(pos + RECORD_OVERHEAD);
+            buffer.get(topic);
+            buffer.get(payload);
+            try {
+                return new OutboundMessage(new String(topic, "UTF-8"), payload, qos, retained);
+            } catch (UnsupportedEncodingException e) {
+                return null;
+            }
+        }
+
+        void delete() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // ignore, the file is being removed
+            }
+            file.delete();
+        }
+    }
+}
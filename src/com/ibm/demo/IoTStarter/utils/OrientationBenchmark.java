@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the accuracy and cost of OrientationFilter on a synthetic sensor trace with a
+ * known rotation, comparing the per-event estimate (the SensorManager.getRotationMatrix()
+ * equivalent), the low-pass used without a gyroscope and the gyroscope-aided filter.
+ *
+ * The trace rotates the device about all three axes at rateHz for the given duration and
+ * adds Gaussian noise to the accelerometer (0.3 m/s^2) and magnetometer (1.5 uT), a
+ * 1.5 m/s^2 burst of linear acceleration every 4 s, and a constant bias plus noise to the
+ * gyroscope. The first 5 s are excluded from the error while the filters settle.
+ *
+ * Uses no Android classes, so it also runs on a desktop JVM:
+ *   java -cp classes com.ibm.demo.IoTStarter.utils.OrientationBenchmark
+ */
+public class OrientationBenchmark {
+
+    private final static double[] GRAVITY = {0, 0, 9.81};
+    private final static double[] GEOMAGNETIC = {0, 22, -40};
+    private final static double[] GYRO_BIAS = {0.02, -0.015, 0.01};
+    private final static double ACCEL_NOISE = 0.3;
+    private final static double MAGNETIC_NOISE = 1.5;
+    private final static double GYRO_NOISE = 0.01;
+    private final static double LINEAR_ACCEL_BURST = 1.5;
+    private final static double SETTLE_S = 5;
+    private final static int WARM_UP_RUNS = 10;
+
+    /**
+     * The estimators compared.
+     */
+    public enum Mode {
+        RAW, LOW_PASS, GYRO
+    }
+
+    /**
+     * Measurements for a single estimator.
+     */
+    public static class Result {
+        public final Mode mode;
+        public final double[] rmsErrorDegrees;
+        public final double nanosPerUpdate;
+
+        Result(Mode mode, double[] rmsErrorDegrees, double nanosPerUpdate) {
+            this.mode = mode;
+            this.rmsErrorDegrees = rmsErrorDegrees;
+            this.nanosPerUpdate = nanosPerUpdate;
+        }
+
+        @Override
+        public String toString() {
+            return mode + ": " + String.format("rms error azimuth %.2f, pitch %.2f, roll %.2f deg, %.0f ns/update",
+                    rmsErrorDegrees[0], rmsErrorDegrees[1], rmsErrorDegrees[2], nanosPerUpdate);
+        }
+    }
+
+    public static void main(String[] args) {
+        for (Result result : runAll(120, 50, 42)) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Run the benchmark for every mode on the same trace.
+     *
+     * @param durationS The length of the trace in seconds.
+     * @param rateHz    The sensor event rate.
+     * @param seed      The seed of the sensor noise.
+     * @return The results, RAW first.
+     */
+    public static List<Result> runAll(double durationS, double rateHz, long seed) {
+        List<Result> results = new ArrayList<Result>();
+        // warm up so that interpretation and compilation are not measured
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            for (Mode mode : Mode.values()) {
+                run(mode, durationS, rateHz, seed);
+            }
+        }
+        for (Mode mode : Mode.values()) {
+            results.add(run(mode, durationS, rateHz, seed));
+        }
+        return results;
+    }
+
+    /**
+     * Replay the synthetic trace through one estimator.
+     *
+     * @param mode      The estimator to measure.
+     * @param durationS The length of the trace in seconds.
+     * @param rateHz    The sensor event rate.
+     * @param seed      The seed of the sensor noise.
+     * @return The measurements. Each update is one gyroscope (GYRO only), accelerometer and
+     *         magnetometer event plus reading the orientation.
+     */
+    public static Result run(Mode mode, double durationS, double rateHz, long seed) {
+        int events = (int) (durationS * rateHz);
+        long[] timestamps = new long[events];
+        float[] accel = new float[events * 3];
+        float[] magnetic = new float[events * 3];
+        float[] gyro = new float[events * 3];
+        float[] expected = new float[events * 3];
+        generate(rateHz, seed, timestamps, accel, magnetic, gyro, expected);
+
+        OrientationFilter filter = new OrientationFilter(mode == Mode.RAW ? 0f
+                : mode == Mode.LOW_PASS ? Constants.ORIENTATION_SMOOTHING_TIME_CONSTANT_S
+                : Constants.ORIENTATION_GYRO_TIME_CONSTANT_S);
+        float[] accelEvent = new float[3];
+        float[] magneticEvent = new float[3];
+        float[] gyroEvent = new float[3];
+        float[] orientation = new float[3];
+        float[] estimates = new float[events * 3];
+        boolean[] ready = new boolean[events];
+
+        // the trace is generated beforehand so that only the filter is timed
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            long timestamp = timestamps[i];
+            if (mode == Mode.GYRO) {
+                System.arraycopy(gyro, i * 3, gyroEvent, 0, 3);
+                filter.updateGyroscope(timestamp, gyroEvent);
+            }
+            System.arraycopy(accel, i * 3, accelEvent, 0, 3);
+            filter.updateAccelerometer(timestamp, accelEvent);
+            System.arraycopy(magnetic, i * 3, magneticEvent, 0, 3);
+            filter.updateMagnetometer(timestamp, magneticEvent);
+            ready[i] = filter.getOrientation(orientation);
+            System.arraycopy(orientation, 0, estimates, i * 3, 3);
+        }
+        long nanos = System.nanoTime() - start;
+
+        double[] squaredError = new double[3];
+        int measured = 0;
+        for (int i = (int) (SETTLE_S * rateHz); i < events; i++) {
+            if (ready[i]) {
+                for (int k = 0; k < 3; k++) {
+                    double error = wrap(estimates[i * 3 + k] - expected[i * 3 + k]);
+                    squaredError[k] += error * error;
+                }
+                measured++;
+            }
+        }
+        double[] rms = new double[3];
+        for (int k = 0; k < 3; k++) {
+            rms[k] = measured == 0 ? Double.NaN : Math.toDegrees(Math.sqrt(squaredError[k] / measured));
+        }
+        return new Result(mode, rms, events == 0 ? 0 : (double) nanos / events);
+    }
+
+    /**
+     * Fill in the noisy sensor events of the trace, three values per event, and the
+     * orientation computed from the noise-free accelerometer and magnetometer values.
+     */
+    private static void generate(double rateHz, long seed, long[] timestamps, float[] accel, float[] magnetic,
+                                 float[] gyro, float[] expected) {
+        Random random = new Random(seed);
+        // noise-free reference with the same formulas
+        OrientationFilter truth = new OrientationFilter(0f);
+        float[] trueAccel = new float[3];
+        float[] trueMagnetic = new float[3];
+        float[] rate = new float[3];
+        float[] orientation = new float[3];
+        int burstPeriod = (int) Math.max(1, rateHz / 2);
+
+        for (int i = 0; i < timestamps.length; i++) {
+            double t = i / rateHz;
+            timestamps[i] = (long) (t * 1e9);
+            double[] rotation = rotation(t);
+            toDevice(rotation, GRAVITY, trueAccel);
+            toDevice(rotation, GEOMAGNETIC, trueMagnetic);
+            truth.updateAccelerometer(timestamps[i], trueAccel);
+            truth.updateMagnetometer(timestamps[i], trueMagnetic);
+            truth.getOrientation(orientation);
+            angularRate(t, rotation, rate);
+
+            // half a second of hand movement every eight half seconds
+            boolean burst = (i / burstPeriod) % 8 == 0;
+            for (int k = 0; k < 3; k++) {
+                accel[i * 3 + k] = trueAccel[k] + (float) (ACCEL_NOISE * random.nextGaussian()
+                        + (burst ? LINEAR_ACCEL_BURST : 0));
+                magnetic[i * 3 + k] = trueMagnetic[k] + (float) (MAGNETIC_NOISE * random.nextGaussian());
+                gyro[i * 3 + k] = rate[k] + (float) (GYRO_BIAS[k] + GYRO_NOISE * random.nextGaussian());
+                expected[i * 3 + k] = orientation[k];
+            }
+        }
+    }
+
+    /**
+     * @return The device-to-world rotation matrix at time t, row major: a drifting heading
+     *         with oscillating pitch and roll.
+     */
+    private static double[] rotation(double t) {
+        double a = 1.2 * Math.sin(0.7 * t) + 0.3 * t;
+        double b = 0.6 * Math.sin(1.3 * t);
+        double c = 0.8 * Math.sin(0.9 * t + 1);
+        double[] rz = {Math.cos(a), -Math.sin(a), 0, Math.sin(a), Math.cos(a), 0, 0, 0, 1};
+        double[] rx = {1, 0, 0, 0, Math.cos(b), -Math.sin(b), 0, Math.sin(b), Math.cos(b)};
+        double[] ry = {Math.cos(c), 0, Math.sin(c), 0, 1, 0, -Math.sin(c), 0, Math.cos(c)};
+        return multiply(multiply(rz, rx), ry);
+    }
+
+    /**
+     * Angular rate in device coordinates, from the skew-symmetric R^T dR/dt.
+     */
+    private static void angularRate(double t, double[] rotation, float[] out) {
+        double h = 1e-4;
+        double[] after = rotation(t + h);
+        double[] before = rotation(t - h);
+        double[] derivative = new double[9];
+        for (int k = 0; k < 9; k++) {
+            derivative[k] = (after[k] - before[k]) / (2 * h);
+        }
+        double[] transpose = new double[9];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                transpose[row * 3 + column] = rotation[column * 3 + row];
+            }
+        }
+        double[] w = multiply(transpose, derivative);
+        out[0] = (float) w[7];
+        out[1] = (float) w[2];
+        out[2] = (float) w[3];
+    }
+
+    private static double[] multiply(double[] a, double[] b) {
+        double[] c = new double[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                for (int k = 0; k < 3; k++) {
+                    c[i * 3 + j] += a[i * 3 + k] * b[k * 3 + j];
+                }
+            }
+        }
+        return c;
+    }
+
+    private static void toDevice(double[] rotation, double[] world, float[] out) {
+        for (int i = 0; i < 3; i++) {
+            out[i] = (float) (rotation[i] * world[0] + rotation[3 + i] * world[1] + rotation[6 + i] * world[2]);
+        }
+    }
+
+    private static double wrap(double angle) {
+        while (angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while (angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Incremental orientation estimate from the accelerometer, magnetometer and, when the
+ * device has one, the gyroscope. Replaces calling SensorManager.getRotationMatrix() and
+ * getOrientation() on every event.
+ *
+ * The filter keeps the gravity and geomagnetic field vectors in device coordinates. A
+ * gyroscope event rotates both by the measured angular rate, which follows fast motion
+ * without noise; each accelerometer or magnetometer event pulls its vector toward the
+ * measurement, which removes the gyroscope's drift. The pull is a first-order low-pass
+ * with the given time constant, so the blend does not depend on the sensor rate. Without
+ * a gyroscope the same update is a plain low-pass of the two vectors.
+ *
+ * Azimuth, pitch and roll are computed from the filtered vectors with the same
+ * conventions as SensorManager.getOrientation(). Working on vectors rather than angles
+ * has no gimbal lock and no wrap-around at +/- pi.
+ *
+ * All state is preallocated; updates allocate nothing. Not thread safe; used from the
+ * sensor thread only.
+ */
+public class OrientationFilter {
+
+    // ignore gaps longer than this between events instead of integrating across them
+    private final static float MAX_DT_S = 0.5f;
+
+    private final float timeConstant;
+
+    private final float[] gravity = new float[3];
+    private final float[] geomagnetic = new float[3];
+    private boolean hasGravity = false;
+    private boolean hasGeomagnetic = false;
+    private long lastAccelTimestamp;
+    private long lastMagneticTimestamp;
+    private long lastGyroTimestamp;
+    private boolean hasGyroTimestamp = false;
+
+    /**
+     * @param timeConstant Seconds over which measurements replace the estimate. Longer
+     *                     values smooth more; with a gyroscope they also rely on it longer.
+     */
+    public OrientationFilter(float timeConstant) {
+        this.timeConstant = timeConstant;
+    }
+
+    /**
+     * @param timestamp SensorEvent timestamp in nanoseconds.
+     * @param values    Accelerometer x, y, z in m/s^2.
+     */
+    public void updateAccelerometer(long timestamp, float[] values) {
+        if (!hasGravity) {
+            System.arraycopy(values, 0, gravity, 0, 3);
+            hasGravity = true;
+        } else {
+            blend(gravity, values, gain(timestamp - lastAccelTimestamp));
+        }
+        lastAccelTimestamp = timestamp;
+    }
+
+    /**
+     * @param timestamp SensorEvent timestamp in nanoseconds.
+     * @param values    Magnetic field x, y, z in uT.
+     */
+    public void updateMagnetometer(long timestamp, float[] values) {
+        if (!hasGeomagnetic) {
+            System.arraycopy(values, 0, geomagnetic, 0, 3);
+            hasGeomagnetic = true;
+        } else {
+            blend(geomagnetic, values, gain(timestamp - lastMagneticTimestamp));
+        }
+        lastMagneticTimestamp = timestamp;
+    }
+
+    /**
+     * @param timestamp SensorEvent timestamp in nanoseconds.
+     * @param values    Angular rate about x, y, z in rad/s.
+     */
+    public void updateGyroscope(long timestamp, float[] values) {
+        if (hasGyroTimestamp) {
+            float dt = (timestamp - lastGyroTimestamp) * 1e-9f;
+            if (dt > 0 && dt < MAX_DT_S) {
+                // a vector fixed in the world turns the other way in device coordinates
+                float wx = -values[0] * dt;
+                float wy = -values[1] * dt;
+                float wz = -values[2] * dt;
+                if (hasGravity) {
+                    rotate(gravity, wx, wy, wz);
+                }
+                if (hasGeomagnetic) {
+                    rotate(geomagnetic, wx, wy, wz);
+                }
+            }
+        }
+        lastGyroTimestamp = timestamp;
+        hasGyroTimestamp = true;
+    }
+
+    /**
+     * @return True once both the accelerometer and the magnetometer have reported.
+     */
+    public boolean isReady() {
+        return hasGravity && hasGeomagnetic;
+    }
+
+    /**
+     * Forget the estimate, e.g. when the sensors are re-registered.
+     */
+    public void reset() {
+        hasGravity = false;
+        hasGeomagnetic = false;
+        hasGyroTimestamp = false;
+    }
+
+    /**
+     * Compute the orientation from the current estimate.
+     *
+     * @param orientation Receives azimuth, pitch and roll in radians, as from
+     *                    SensorManager.getOrientation().
+     * @return False if the estimate is not ready or the device is in free fall or near a
+     *         magnetic pole, and orientation is unchanged.
+     */
+    public boolean getOrientation(float[] orientation) {
+        if (!isReady()) {
+            return false;
+        }
+        float ax = gravity[0];
+        float ay = gravity[1];
+        float az = gravity[2];
+        float ex = geomagnetic[0];
+        float ey = geomagnetic[1];
+        float ez = geomagnetic[2];
+        // east = geomagnetic x gravity, north = gravity x east, as in getRotationMatrix()
+        float hx = ey * az - ez * ay;
+        float hy = ez * ax - ex * az;
+        float hz = ex * ay - ey * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float normA = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        if (normH < 0.1f || normA < 0.1f) {
+            return false;
+        }
+        hx /= normH;
+        hy /= normH;
+        hz /= normH;
+        ax /= normA;
+        ay /= normA;
+        az /= normA;
+        float my = az * hx - ax * hz;
+        orientation[0] = (float) Math.atan2(hy, my);
+        orientation[1] = (float) Math.asin(Math.max(-1f, Math.min(1f, -ay)));
+        orientation[2] = (float) Math.atan2(-ax, az);
+        return true;
+    }
+
+    // weight of a new measurement after dt nanoseconds
+    private float gain(long dtNanos) {
+        float dt = dtNanos * 1e-9f;
+        if (dt <= 0) {
+            return 0;
+        }
+        if (dt >= MAX_DT_S) {
+            return 1;
+        }
+        return dt / (timeConstant + dt);
+    }
+
+    private static void blend(float[] estimate, float[] measurement, float gain) {
+        estimate[0] += gain * (measurement[0] - estimate[0]);
+        estimate[1] += gain * (measurement[1] - estimate[1]);
+        estimate[2] += gain * (measurement[2] - estimate[2]);
+    }
+
+    // rotate v by the small angle (rx, ry, rz): v += r x v, renormalised to keep its length
+    private static void rotate(float[] v, float rx, float ry, float rz) {
+        float x = v[0];
+        float y = v[1];
+        float z = v[2];
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        float nx = x + ry * z - rz * y;
+        float ny = y + rz * x - rx * z;
+        float nz = z + rx * y - ry * x;
+        float newLength = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        if (newLength > 0) {
+            float scale = length / newLength;
+            v[0] = nx * scale;
+            v[1] = ny * scale;
+            v[2] = nz * scale;
+        }
+    }
+}
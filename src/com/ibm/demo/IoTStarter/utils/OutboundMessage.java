@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * A message waiting in the publish pipeline to be written to the MQTT client.
+ */
+public class OutboundMessage {
+    private final String topic;
+    private final byte[] payload;
+    private final int qos;
+    private final boolean retained;
+    private final long enqueueTime;
+
+    /**
+     * @param topic    The topic to publish the message to.
+     * @param payload  The message payload.
+     * @param qos      Quality of service (0, 1, 2).
+     * @param retained True if the retained flag is required.
+     */
+    public OutboundMessage(String topic, byte[] payload, int qos, boolean retained) {
+        this.topic = topic;
+        this.payload = payload;
+        this.qos = qos;
+        this.retained = retained;
+        this.enqueueTime = System.nanoTime();
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public boolean isRetained() {
+        return retained;
+    }
+
+    /**
+     * @return The System.nanoTime() at which the message was created.
+     */
+    public long getEnqueueTime() {
+        return enqueueTime;
+    }
+}
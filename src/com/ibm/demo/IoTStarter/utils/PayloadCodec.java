@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Encodes event payloads and decodes command payloads for one wire format.
+ * The format name is used as the /fmt/ segment of event and command topics.
+ *
+ * Events are encoded by appending to a caller-owned PayloadWriter, so a publisher
+ * that reuses its writer does not allocate per message.
+ */
+public interface PayloadCodec {
+
+    /**
+     * @return The format name used in the topic, e.g. "json".
+     */
+    String getFormat();
+
+    /**
+     * Encode an accel event message.
+     * @param out The writer to append the payload to.
+     * @param G Float array with accelerometer x, y, z data
+     * @param O Float array with gyroscope roll, pitch data
+     * @param yaw Float representing gyroscope yaw value
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    void encodeAccel(PayloadWriter out, float G[], float O[], float yaw, double lon, double lat);
+
+    /**
+     * Encode a batch of accelerometer samples as one accel event message. Per-sample
+     * values are written as arrays: "dt" holds each sample's offset in milliseconds from
+     * "t", the wall-clock time in milliseconds of the first sample. Orientation and
+     * location are the latest values and are written once.
+     * @param out The writer to append the payload to.
+     * @param time Wall-clock time of the first sample, in milliseconds since the epoch
+     * @param timestamps SensorEvent timestamps of the samples, in nanoseconds
+     * @param samples Accelerometer x, y, z of each sample, interleaved
+     * @param count Number of samples
+     * @param O Float array with gyroscope roll, pitch data
+     * @param yaw Float representing gyroscope yaw value
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    void encodeAccelBatch(PayloadWriter out, long time, long[] timestamps, float[] samples, int count,
+                          float O[], float yaw, double lon, double lat);
+
+    /**
+     * Encode the statistics of one window of accelerometer and orientation samples as an
+     * accelstats event message. Each channel is written as an object holding min, max,
+     * mean, rms and var (population variance). The angular channels (WindowStats.isAngular),
+     * azimuth and roll, hold only the circular mean and circular variance as mean and var.
+     * @param out The writer to append the payload to.
+     * @param stats The window statistics, with the WindowStats.ACCEL_ channels
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    void encodeAccelStats(PayloadWriter out, WindowStats stats, double lon, double lat);
+
+    /**
+     * Encode vibration spectrum features as a vibration event message: the strongest
+     * peaks as "peak_hz" and "peak_amplitude" arrays and the energy of each frequency
+     * band as a "band_energy" array, with the band width in "band_hz".
+     * @param out The writer to append the payload to.
+     * @param features The features of the spectrum
+     * @param lon Double containing device longitude
+     * @param lat Double containing device latitude
+     */
+    void encodeVibration(PayloadWriter out, VibrationFeatures features, double lon, double lat);
+
+    /**
+     * Encode a text event message.
+     * @param out The writer to append the payload to.
+     * @param text String of text message to send
+     */
+    void encodeText(PayloadWriter out, String text);
+
+    /**
+     * Encode a touchmove event message.
+     * @param out The writer to append the payload to.
+     * @param x Double of relative x position on screen
+     * @param y Double of relative y position on screen
+     * @param dX Double of relative x delta from previous position
+     * @param dY Double of relative y delta from previous position
+     * @param ended True if final message of the touch, false otherwise
+     */
+    void encodeTouch(PayloadWriter out, double x, double y, double dX, double dY, boolean ended);
+
+    /**
+     * Read the well-known command fields (r, g, b, alpha, text) directly from the payload
+     * bytes into message, without building a JSON tree.
+     * @param command The command name from the topic.
+     * @param payload The payload received.
+     * @param message The message to store the fields in.
+     * @return True if the payload was read, false if it has a shape the streaming reader
+     *         does not handle and decodeCommand() should be used instead.
+     */
+    boolean readCommand(String command, byte[] payload, CommandMessage message);
+
+    /**
+     * Decode a command payload.
+     * @param command The command name from the topic.
+     * @param payload The payload received.
+     * @return The contents of the "d" object of the command.
+     * @throws JSONException If the payload is not valid for this format.
+     */
+    JSONObject decodeCommand(String command, byte[] payload) throws JSONException;
+}
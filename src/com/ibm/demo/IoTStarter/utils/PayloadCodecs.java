@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the available payload codecs, keyed by topic format name.
+ */
+public class PayloadCodecs {
+
+    private final static Map<String, PayloadCodec> codecs = new LinkedHashMap<String, PayloadCodec>();
+    private final static PayloadCodec defaultCodec = new JsonCodec();
+
+    static {
+        register(defaultCodec);
+        register(new CborCodec());
+        register(new BinaryCodec());
+    }
+
+    /**
+     * Make a codec available for publishing and for decoding commands received in its format.
+     * @param codec The codec to register.
+     */
+    public static synchronized void register(PayloadCodec codec) {
+        codecs.put(codec.getFormat(), codec);
+    }
+
+    /**
+     * @param format The format name from the topic, e.g. "json".
+     * @return The codec for the format, or null if the format is unknown.
+     */
+    public static synchronized PayloadCodec get(String format) {
+        return codecs.get(format);
+    }
+
+    /**
+     * @return The /fmt/json codec.
+     */
+    public static PayloadCodec getDefault() {
+        return defaultCodec;
+    }
+
+    /**
+     * @return The registered format names, in registration order.
+     */
+    public static synchronized List<String> getFormats() {
+        return new ArrayList<String>(codecs.keySet());
+    }
+}
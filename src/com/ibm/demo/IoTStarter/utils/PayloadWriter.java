@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Reusable, growable byte buffer that payload codecs encode into. Numbers and text
+ * are written directly as bytes, without intermediate Strings, so a writer that is
+ * kept by its owner and reset() before each message does not allocate once it has
+ * grown to the size of the largest message.
+ *
+ * A PayloadWriter is not thread safe; each publishing thread keeps its own.
+ */
+public class PayloadWriter {
+
+    // fractional digits written for float and double values
+    public final static int FLOAT_DIGITS = 6;
+    public final static int DOUBLE_DIGITS = 8;
+
+    private final static long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private byte[] buffer;
+    private int size = 0;
+
+    public PayloadWriter() {
+        this(256);
+    }
+
+    /**
+     * @param capacity The initial capacity in bytes.
+     */
+    public PayloadWriter(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Discard the contents so the writer can be reused for the next message.
+     * @return This writer.
+     */
+    public PayloadWriter reset() {
+        size = 0;
+        return this;
+    }
+
+    /**
+     * @return The backing array. Only the first size() bytes are valid.
+     */
+    public byte[] array() {
+        return buffer;
+    }
+
+    /**
+     * @return The number of bytes written.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A copy of the bytes written.
+     */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[size];
+        System.arraycopy(buffer, 0, copy, 0, size);
+        return copy;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, size + extra)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            buffer = grown;
+        }
+    }
+
+    /**************************************************************************
+     * Raw bytes
+     **************************************************************************/
+
+    public PayloadWriter writeByte(int value) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    public PayloadWriter writeBytes(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    /**
+     * Write the low-order bytes of a value, most significant first.
+     * @param value The value to write.
+     * @param bytes The number of bytes to write (1 - 8).
+     */
+    public PayloadWriter writeBigEndian(long value, int bytes) {
+        ensureCapacity(bytes);
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (value >>> shift);
+        }
+        return this;
+    }
+
+    /**
+     * Write the low-order bytes of a value, least significant first.
+     * @param value The value to write.
+     * @param bytes The number of bytes to write (1 - 8).
+     */
+    public PayloadWriter writeLittleEndian(long value, int bytes) {
+        ensureCapacity(bytes);
+        for (int i = 0; i < bytes; i++) {
+            buffer[size++] = (byte) (value >>> (i * 8));
+        }
+        return this;
+    }
+
+    public PayloadWriter writeFloatLE(float value) {
+        return writeLittleEndian(Float.floatToIntBits(value), 4);
+    }
+
+    public PayloadWriter writeDoubleLE(double value) {
+        return writeLittleEndian(Double.doubleToLongBits(value), 8);
+    }
+
+    /**************************************************************************
+     * Text
+     **************************************************************************/
+
+    /**
+     * Write a string containing only ASCII characters, such as a JSON key or punctuation.
+     */
+    public PayloadWriter writeAscii(String text) {
+        int length = text.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * @return The number of bytes text occupies when encoded as UTF-8.
+     */
+    public static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Write text encoded as UTF-8.
+     */
+    public PayloadWriter writeUtf8(CharSequence text) {
+        ensureCapacity(utf8Length(text));
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xc0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                buffer[size++] = (byte) (0xe0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Write text as a quoted JSON string, escaping quotes, backslashes and control characters.
+     */
+    public PayloadWriter writeJsonString(CharSequence text) {
+        writeByte('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                writeUtf8(text.subSequence(start, i));
+                writeByte('\\');
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        writeByte(c);
+                        break;
+                    case '\n':
+                        writeByte('n');
+                        break;
+                    case '\r':
+                        writeByte('r');
+                        break;
+                    case '\t':
+                        writeByte('t');
+                        break;
+                    default:
+                        writeAscii("u00");
+                        writeByte(Character.forDigit(c >> 4, 16));
+                        writeByte(Character.forDigit(c & 0xf, 16));
+                        break;
+                }
+                start = i + 1;
+            }
+        }
+        writeUtf8(text.subSequence(start, text.length()));
+        return writeByte('"');
+    }
+
+    /**************************************************************************
+     * Decimal numbers
+     **************************************************************************/
+
+    /**
+     * Write a long in decimal.
+     */
+    public PayloadWriter writeDecimal(long value) {
+        if (value == Long.MIN_VALUE) {
+            return writeAscii("-9223372036854775808");
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        while (digits < 19 && value >= POWERS_OF_TEN[digits]) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[size + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size += digits;
+        return this;
+    }
+
+    /**
+     * Write a float in decimal with up to FLOAT_DIGITS fractional digits.
+     */
+    public PayloadWriter writeDecimal(float value) {
+        return writeFixed(value, FLOAT_DIGITS);
+    }
+
+    /**
+     * Write a double in decimal with up to DOUBLE_DIGITS fractional digits.
+     */
+    public PayloadWriter writeDecimal(double value) {
+        return writeFixed(value, DOUBLE_DIGITS);
+    }
+
+    /**
+     * Write a value in fixed-point decimal, rounded to the given number of fractional
+     * digits with trailing zeros removed. NaN and infinities are written as null, which
+     * is what JSON allows in their place. Values too large for fixed point fall back to
+     * Double.toString().
+     *
+     * @param value  The value to write.
+     * @param digits The maximum number of fractional digits.
+     */
+    public PayloadWriter writeFixed(double value, int digits) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return writeAscii("null");
+        }
+        double magnitude = Math.abs(value);
+        long scale = POWERS_OF_TEN[digits];
+        if (magnitude * scale >= 1e17) {
+            return writeAscii(Double.toString(value));
+        }
+
+        long scaled = (long) (magnitude * scale + 0.5);
+        if (value < 0 && scaled != 0) {
+            writeByte('-');
+        }
+        writeDecimal(scaled / scale);
+        long fraction = scaled % scale;
+        ensureCapacity(digits + 2);
+        buffer[size++] = '.';
+        if (fraction == 0) {
+            buffer[size++] = '0';
+            return this;
+        }
+        // drop trailing zeros
+        int length = digits;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            length--;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            buffer[size + i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        size += length;
+        return this;
+    }
+}
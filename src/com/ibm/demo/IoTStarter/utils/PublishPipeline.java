@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue and single writer thread that sits between callers of
+ * MqttHandler.publish() and the MQTT client. Callers only enqueue; the writer
+ * thread drains the queue in batches of up to maxBatchSize messages, waiting at
+ * most lingerMillis for a batch to fill before writing it.
+ */
+public class PublishPipeline {
+
+    private final static String TAG = PublishPipeline.class.getName();
+
+    /**
+     * Receives batches of messages drained from the queue, on the writer thread.
+     */
+    public interface BatchWriter {
+        void writeBatch(ArrayList<OutboundMessage> batch);
+    }
+
+    private final ArrayBlockingQueue<OutboundMessage> queue;
+    private final BatchWriter writer;
+    private volatile int maxBatchSize;
+    private volatile long lingerMillis;
+    private volatile boolean running = false;
+    private Thread writerThread;
+    private final StripedCounter droppedCount = MetricsRegistry.getInstance().counter(Constants.METRIC_PUBLISH_DROPPED);
+
+    /**
+     * @param writer       The writer to hand drained batches to.
+     * @param capacity     Maximum number of messages waiting in the queue.
+     * @param maxBatchSize Maximum number of messages handed to the writer at once.
+     * @param lingerMillis Maximum time to wait for a batch to fill.
+     */
+    public PublishPipeline(BatchWriter writer, int capacity, int maxBatchSize, long lingerMillis) {
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<OutboundMessage>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Start the writer thread if it is not already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "IoTStarter-publish");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stop the writer thread. Messages still in the queue are discarded.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (writerThread != null) {
+            writerThread.interrupt();
+            writerThread = null;
+        }
+        queue.clear();
+    }
+
+    /**
+     * Add a message to the queue without blocking.
+     *
+     * @param message The message to publish.
+     * @return True if the message was queued, false if the queue was full and the message was dropped.
+     */
+    public boolean enqueue(OutboundMessage message) {
+        if (offer(message)) {
+            return true;
+        }
+        droppedCount.increment();
+        Log.w(TAG, ".enqueue() - Publish queue full, dropping message for " + message.getTopic());
+        return false;
+    }
+
+    /**
+     * Add a message to the queue without blocking, for callers that keep the message and
+     * retry when the queue is full, such as the offline replay. A full queue is not
+     * counted as a drop.
+     *
+     * @param message The message to publish.
+     * @return True if the message was queued, false if the queue was full.
+     */
+    public boolean offer(OutboundMessage message) {
+        return queue.offer(message);
+    }
+
+    /**
+     * Writer thread body. Block for the first message of a batch, then linger
+     * for more until the batch is full or the linger time has passed.
+     */
+    private void drainLoop() {
+        ArrayList<OutboundMessage> batch = new ArrayList<OutboundMessage>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                int batchSize = maxBatchSize;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                queue.drainTo(batch, batchSize - batch.size());
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    OutboundMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    writer.writeBatch(batch);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, ".drainLoop() - Exception caught while writing a batch", e);
+                }
+                batch.clear();
+            }
+        }
+        Log.d(TAG, ".drainLoop() - Writer thread exiting");
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = Math.max(0, lingerMillis);
+    }
+}
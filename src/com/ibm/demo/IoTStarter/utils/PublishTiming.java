@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing of one publish, carried as the user context of its IMqttDeliveryToken so the
+ * completion callbacks can find it without a lookup table.
+ *
+ * Two latencies are recorded, in microseconds, per topic and QoS:
+ *   enqueue-to-send  from MqttHandler.publish() until the writer hands the message to the client
+ *   send-to-ack      from the hand-off until the token completes: the PUBACK (QoS 1) or
+ *                    PUBCOMP (QoS 2), or the network write for QoS 0
+ *
+ * A smoothed send-to-ack latency across all topics is also kept, for publishers that
+ * adapt their rate to the link (SampleScheduler).
+ */
+public class PublishTiming {
+
+    // weight of each new sample in the smoothed latency is 1/2^SMOOTHING_SHIFT
+    private final static int SMOOTHING_SHIFT = 3;
+    private final static AtomicLong smoothedAckMicros = new AtomicLong();
+
+    private final String key;
+    private final long sendTime;
+    private final AtomicBoolean acknowledged = new AtomicBoolean();
+
+    private PublishTiming(String key, long sendTime) {
+        this.key = key;
+        this.sendTime = sendTime;
+    }
+
+    /**
+     * Record the enqueue-to-send latency of a message about to be handed to the MQTT client.
+     *
+     * @param message The message being published.
+     * @return The timing to pass as the publish's user context.
+     */
+    public static PublishTiming sent(OutboundMessage message) {
+        long now = System.nanoTime();
+        String key = key(message.getTopic(), message.getQos());
+        MetricsRegistry.getInstance().histogram(Constants.METRIC_PUBLISH_SEND_LATENCY, key)
+                .record((now - message.getEnqueueTime()) / 1000);
+        return new PublishTiming(key, now);
+    }
+
+    /**
+     * Record the send-to-ack latency. Both the action listener and deliveryComplete()
+     * report the same token, so only the first call is recorded.
+     */
+    public void acknowledged() {
+        if (acknowledged.compareAndSet(false, true)) {
+            long micros = (System.nanoTime() - sendTime) / 1000;
+            MetricsRegistry.getInstance().histogram(Constants.METRIC_PUBLISH_ACK_LATENCY, key).record(micros);
+            smooth(micros);
+        }
+    }
+
+    private static void smooth(long micros) {
+        long current;
+        long next;
+        do {
+            current = smoothedAckMicros.get();
+            next = current == 0 ? micros : current + ((micros - current) >> SMOOTHING_SHIFT);
+        } while (!smoothedAckMicros.compareAndSet(current, next));
+    }
+
+    /**
+     * @return The exponentially weighted moving average of the send-to-ack latency of all
+     *         publishes, in microseconds, or 0 before the first acknowledgement.
+     */
+    public static long getSmoothedAckLatencyMicros() {
+        return smoothedAckMicros.get();
+    }
+
+    /**
+     * Record a publish that failed after it was handed to the client.
+     */
+    public void failed() {
+        if (acknowledged.compareAndSet(false, true)) {
+            MetricsRegistry.getInstance().counter(Constants.METRIC_PUBLISH_FAILED, key).increment();
+        }
+    }
+
+    /**
+     * @return The key of the latency histograms for a topic and QoS.
+     */
+    public static String key(String topic, int qos) {
+        return topic + " qos" + qos;
+    }
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs a sampling task on a dedicated looper thread, adapting its interval to the state
+ * of the publish path.
+ *
+ * Each run is scheduled one interval after the previous scheduled time, not after the
+ * previous run finished, so the rate does not drift. A run that finishes late does not
+ * cause a burst of catch-up runs: missed slots are skipped and the next run starts at
+ * once.
+ *
+ * After each run the link is checked for congestion: the publish queue holding
+ * SAMPLE_CONGESTION_QUEUE_DEPTH or more messages, or the smoothed send-to-ack latency
+ * reaching SAMPLE_CONGESTION_ACK_LATENCY_MS. The rate is adapted AIMD-style: on
+ * congestion the interval doubles, up to the maximum interval; otherwise the rate
+ * grows by 1/SAMPLE_RECOVERY_STEPS of the configured rate per run, back to the
+ * configured interval.
+ */
+public class SampleScheduler {
+
+    private final static String TAG = SampleScheduler.class.getName();
+
+    private final PublishPipeline pipeline;
+    private final Handler handler;
+
+    // guarded by this
+    private Runnable task;
+    private int generation = 0;
+    private boolean running = false;
+    private long baseIntervalMillis;
+    private long maxIntervalMillis;
+    private long nextRunTime;
+
+    private volatile long intervalMillis;
+
+    /**
+     * @param name     Name of the scheduler's thread.
+     * @param pipeline The publish pipeline whose queue depth is watched for congestion.
+     */
+    public SampleScheduler(String name, PublishPipeline pipeline) {
+        this.pipeline = pipeline;
+        HandlerThread thread = new HandlerThread(name);
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Start running a task, replacing any task that was running.
+     *
+     * @param task              The task to run.
+     * @param intervalMillis    The configured interval; the first run is one interval from now.
+     * @param maxIntervalMillis The longest interval congestion can back off to.
+     */
+    public synchronized void start(Runnable task, long intervalMillis, long maxIntervalMillis) {
+        Log.d(TAG, ".start() entered - interval: " + intervalMillis + " ms");
+        handler.removeCallbacksAndMessages(null);
+        this.task = task;
+        this.baseIntervalMillis = Math.max(1, intervalMillis);
+        this.maxIntervalMillis = Math.max(this.baseIntervalMillis, maxIntervalMillis);
+        this.intervalMillis = this.baseIntervalMillis;
+        this.running = true;
+        this.nextRunTime = SystemClock.uptimeMillis() + this.baseIntervalMillis;
+        post(++generation);
+    }
+
+    /**
+     * Stop running the task. A run already in progress completes but is not rescheduled.
+     */
+    public synchronized void stop() {
+        Log.d(TAG, ".stop() entered");
+        running = false;
+        task = null;
+        generation++;
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return The current, possibly backed-off, interval in milliseconds.
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    // called with the lock held
+    private void post(final int runGeneration) {
+        handler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                runOnce(runGeneration);
+            }
+        }, nextRunTime);
+    }
+
+    private void runOnce(int runGeneration) {
+        Runnable current;
+        synchronized (this) {
+            if (!running || runGeneration != generation) {
+                return;
+            }
+            current = task;
+        }
+
+        try {
+            current.run();
+        } catch (RuntimeException e) {
+            Log.e(TAG, ".runOnce() - Exception caught while running the task", e);
+        }
+
+        synchronized (this) {
+            if (!running || runGeneration != generation) {
+                return;
+            }
+            long interval = nextInterval(intervalMillis, baseIntervalMillis, maxIntervalMillis, isCongested());
+            if (interval != intervalMillis) {
+                Log.d(TAG, ".runOnce() - interval is now " + interval + " ms");
+                intervalMillis = interval;
+            }
+            nextRunTime += interval;
+            long now = SystemClock.uptimeMillis();
+            if (nextRunTime < now) {
+                // skip the slots missed while the run was late
+                nextRunTime = now;
+            }
+            post(runGeneration);
+        }
+    }
+
+    private boolean isCongested() {
+        return pipeline.getQueueDepth() >= Constants.SAMPLE_CONGESTION_QUEUE_DEPTH
+                || PublishTiming.getSmoothedAckLatencyMicros() >= Constants.SAMPLE_CONGESTION_ACK_LATENCY_MS * 1000;
+    }
+
+    /**
+     * The AIMD step: double the interval on congestion, otherwise add 1/SAMPLE_RECOVERY_STEPS
+     * of the configured rate to the current rate.
+     *
+     * @param interval  The current interval.
+     * @param base      The configured interval, the shortest the result can be.
+     * @param max       The longest the result can be.
+     * @param congested True if the link is congested.
+     * @return The next interval.
+     */
+    static long nextInterval(long interval, long base, long max, boolean congested) {
+        if (congested) {
+            return Math.min(max, interval * 2);
+        }
+        if (interval <= base) {
+            return base;
+        }
+        // 1/next = 1/interval + 1/(base * steps)
+        long scaledBase = base * Constants.SAMPLE_RECOVERY_STEPS;
+        return Math.max(base, interval * scaledBase / (scaledBase + interval));
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Latest accelerometer and orientation reading, written by the sensor thread and read
+ * by publishing threads without locks or allocation.
+ *
+ * The reading is double buffered behind a sequence counter. The writer fills the copy
+ * readers are not using and then advances the sequence, which switches readers to it.
+ * A reader copies the current copy and retries if the sequence moved meanwhile, so it
+ * always gets the x/y/z/azimuth/pitch/roll/yaw of a single update. A write in progress
+ * never makes a reader retry; only a completed write does.
+ *
+ * The values are kept as float bits in an AtomicIntegerArray so every access is
+ * ordered with the sequence counter under the Java memory model.
+ */
+public class SensorSnapshot {
+
+    public final static int ACCEL_X = 0;
+    public final static int ACCEL_Y = 1;
+    public final static int ACCEL_Z = 2;
+    public final static int AZIMUTH = 3;
+    public final static int PITCH = 4;
+    public final static int ROLL = 5;
+    public final static int YAW = 6;
+    public final static int FIELDS = 7;
+
+    private final AtomicIntegerArray copies = new AtomicIntegerArray(2 * FIELDS);
+    private volatile long sequence = 0;
+
+    /**
+     * Publish a new reading. Called only on the sensor thread.
+     *
+     * @param accel       Accelerometer x, y, z.
+     * @param orientation Orientation azimuth, pitch, roll, as from SensorManager.getOrientation().
+     * @param yaw         Yaw (heading) from the orientation filter.
+     */
+    public void write(float[] accel, float[] orientation, float yaw) {
+        long next = sequence + 1;
+        int base = (int) (next & 1) * FIELDS;
+        copies.set(base + ACCEL_X, Float.floatToRawIntBits(accel[0]));
+        copies.set(base + ACCEL_Y, Float.floatToRawIntBits(accel[1]));
+        copies.set(base + ACCEL_Z, Float.floatToRawIntBits(accel[2]));
+        copies.set(base + AZIMUTH, Float.floatToRawIntBits(orientation[0]));
+        copies.set(base + PITCH, Float.floatToRawIntBits(orientation[1]));
+        copies.set(base + ROLL, Float.floatToRawIntBits(orientation[2]));
+        copies.set(base + YAW, Float.floatToRawIntBits(yaw));
+        sequence = next;
+    }
+
+    /**
+     * Copy the latest reading. Safe from any thread.
+     *
+     * @param out Receives the FIELDS values, indexed by ACCEL_X ... YAW.
+     * @return The sequence number of the reading, 0 if nothing has been written.
+     */
+    public long read(float[] out) {
+        while (true) {
+            long before = sequence;
+            int base = (int) (before & 1) * FIELDS;
+            for (int i = 0; i < FIELDS; i++) {
+                out[i] = Float.intBitsToFloat(copies.get(base + i));
+            }
+            if (sequence == before) {
+                return before;
+            }
+        }
+    }
+
+    /**
+     * @return The number of readings written.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Last-writer-wins coalescing for idempotent state commands such as color. Values
+ * offered for a key are held until the next frame, at most FRAME_INTERVAL_MS away, and
+ * only the latest one is then applied on the main thread. Intermediate values that are
+ * overwritten before their frame are dropped and counted as coalesced. The offered,
+ * applied and coalesced counts are registered per key in the MetricsRegistry.
+ */
+public class StateCoalescer {
+
+    private final static String TAG = StateCoalescer.class.getName();
+
+    /**
+     * Applies the latest value of a key. Called on the main thread.
+     */
+    public interface StateApplier {
+        void applyState(String key, Object value);
+    }
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+    private final AtomicBoolean framePending = new AtomicBoolean(false);
+    private final long frameIntervalMillis;
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            framePending.set(false);
+            for (Slot slot : slots.values()) {
+                Object value = slot.pending.getAndSet(null);
+                if (value != null) {
+                    slot.appliedCount.increment();
+                    slot.applier.applyState(slot.key, value);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param frameIntervalMillis Longest time an offered value waits before it is applied.
+     */
+    public StateCoalescer(long frameIntervalMillis) {
+        this.frameIntervalMillis = frameIntervalMillis;
+    }
+
+    /**
+     * @param key     The state key, usually the command name.
+     * @param applier The applier to hand the latest value of the key to.
+     */
+    public void register(String key, StateApplier applier) {
+        slots.put(key, new Slot(key, applier));
+    }
+
+    /**
+     * Offer a new value for a key, replacing any value not yet applied.
+     *
+     * @param key   A registered state key.
+     * @param value The new value. Must not be null.
+     */
+    public void offer(String key, Object value) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            Log.w(TAG, ".offer() - No applier registered for " + key);
+            return;
+        }
+        slot.offeredCount.increment();
+        if (slot.pending.getAndSet(value) != null) {
+            slot.coalescedCount.increment();
+        }
+        if (framePending.compareAndSet(false, true)) {
+            handler.postDelayed(frame, frameIntervalMillis);
+        }
+    }
+
+    /**
+     * @return The number of values offered for the key.
+     */
+    public long getOfferedCount(String key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.offeredCount.sum();
+    }
+
+    /**
+     * @return The number of values applied for the key.
+     */
+    public long getAppliedCount(String key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.appliedCount.sum();
+    }
+
+    /**
+     * @return The number of values for the key that were replaced before being applied.
+     */
+    public long getCoalescedCount(String key) {
+        Slot slot = slots.get(key);
+        return slot == null ? 0 : slot.coalescedCount.sum();
+    }
+
+    private static class Slot {
+        final String key;
+        final StateApplier applier;
+        final AtomicReference<Object> pending = new AtomicReference<Object>();
+        final StripedCounter offeredCount;
+        final StripedCounter appliedCount;
+        final StripedCounter coalescedCount;
+
+        Slot(String key, StateApplier applier) {
+            this.key = key;
+            this.applier = applier;
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            this.offeredCount = metrics.counter(Constants.METRIC_STATE_OFFERED, key);
+            this.appliedCount = metrics.counter(Constants.METRIC_STATE_APPLIED, key);
+            this.coalescedCount = metrics.counter(Constants.METRIC_STATE_COALESCED, key);
+        }
+    }
+}
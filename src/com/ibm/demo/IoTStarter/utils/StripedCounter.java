@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter for values updated from several threads. Increments go to one of
+ * several stripes chosen by the calling thread, so threads rarely contend on the same
+ * cache line; sum() adds the stripes up. This is the LongAdder idea, which is not
+ * available on Android.
+ */
+public class StripedCounter {
+
+    // stripes are spaced a cache line (8 longs) apart to avoid false sharing
+    private final static int SPACING = 8;
+    private final static int STRIPES = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * SPACING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+        cells.addAndGet(stripe * SPACING, delta);
+    }
+
+    /**
+     * @return The current total. Increments made while summing may or may not be included.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * SPACING);
+        }
+        return sum;
+    }
+
+    /**
+     * Set the total back to zero. Increments made while resetting are kept.
+     */
+    public void reset() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            long value = cells.get(stripe * SPACING);
+            cells.addAndGet(stripe * SPACING, -value);
+        }
+    }
+}
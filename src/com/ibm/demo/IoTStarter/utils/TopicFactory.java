@@ -36,4 +36,44 @@ public class TopicFactory {
     public static String getCommandTopic(String command) {
         return Constants.COMMAND_TOPIC + command + Constants.FORMAT_TOPIC;
     }
+
+    /**
+     * @param event The event to create a topic string for.
+     * @param codec The codec the event payload is encoded with.
+     * @return The event topic for the specified event string, in the codec's format.
+     */
+    public static String getEventTopic(String event, PayloadCodec codec) {
+        return Constants.EVENT_TOPIC + event + Constants.FORMAT_PREFIX + codec.getFormat();
+    }
+
+    /**
+     * @param command The command to create a topic string for.
+     * @param format The format to create a topic string for, or "+" for any format.
+     * @return The command topic for the specified command and format strings.
+     */
+    public static String getCommandTopic(String command, String format) {
+        return Constants.COMMAND_TOPIC + command + Constants.FORMAT_PREFIX + format;
+    }
+
+    /**
+     * @param topic A command topic of the form iot-2/cmd/[command]/fmt/[format].
+     * @return The command segment of the topic, or null if the topic is not a command topic.
+     */
+    public static String getCommand(String topic) {
+        if (!topic.startsWith(Constants.COMMAND_TOPIC)) {
+            return null;
+        }
+        int start = Constants.COMMAND_TOPIC.length();
+        int end = topic.indexOf('/', start);
+        return end < 0 ? topic.substring(start) : topic.substring(start, end);
+    }
+
+    /**
+     * @param topic An event or command topic ending in /fmt/[format].
+     * @return The format segment of the topic, or null if the topic has none.
+     */
+    public static String getFormat(String topic) {
+        int index = topic.lastIndexOf(Constants.FORMAT_PREFIX);
+        return index < 0 ? null : topic.substring(index + Constants.FORMAT_PREFIX.length());
+    }
 }
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.android.service.MqttAndroidClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the SERVICE and IN_PROCESS transport modes by publishing a burst of
+ * messages to a broker (typically one running on the local network) and measuring
+ * messages per second and process CPU time per message.
+ *
+ * The MqttService is declared without android:process, so it runs in the app's process
+ * and the CPU time of SERVICE mode includes the service; it also includes any other work
+ * the app does meanwhile, such as sensor publishing. Compare the modes with the app idle.
+ *
+ * Must be run from a background thread, for example:
+ *   TransportBenchmark.runAll(context, "tcp://192.168.1.10:1883", 10000, 200, 0);
+ * IoTStarterApplication.runTransportBenchmark() does so from the menu.
+ */
+public class TransportBenchmark {
+
+    private final static String TAG = TransportBenchmark.class.getName();
+    private final static long COMPLETION_TIMEOUT_MS = 120000;
+    private final static long MAX_INFLIGHT_BACKOFF_MS = 1;
+    // Paho's default in-flight window; the benchmark never has more publishes outstanding, so
+    // neither client refuses one for exceeding it
+    private final static int MAX_INFLIGHT = 10;
+
+    /**
+     * Measurements for a single transport mode.
+     */
+    public static class Result {
+        public final Constants.TransportMode mode;
+        public final int messages;
+        // publishes that failed or had not completed by the timeout
+        public final int failed;
+        public final long elapsedNanos;
+        public final long cpuMillis;
+
+        Result(Constants.TransportMode mode, int messages, int failed, long elapsedNanos, long cpuMillis) {
+            this.mode = mode;
+            this.messages = messages;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.cpuMillis = cpuMillis;
+        }
+
+        /**
+         * @return The messages delivered per second; failed publishes are not counted.
+         */
+        public double getMessagesPerSecond() {
+            return (messages - failed) * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * @return The CPU time per delivered message.
+         */
+        public double getCpuMicrosPerMessage() {
+            int delivered = messages - failed;
+            return delivered == 0 ? 0 : cpuMillis * 1000.0 / delivered;
+        }
+
+        @Override
+        public String toString() {
+            return mode + ": " + messages + " messages, " + failed + " failed, "
+                    + String.format("%.1f msg/s, %.1f us CPU/msg", getMessagesPerSecond(), getCpuMicrosPerMessage());
+        }
+    }
+
+    /**
+     * Run the benchmark for both transport modes and log the results.
+     *
+     * @param context      The application context.
+     * @param serverUri    The broker to publish to, e.g. tcp://host:1883.
+     * @param messageCount The number of messages to publish in each mode.
+     * @param payloadSize  The size in bytes of each message payload.
+     * @param qos          The quality of service to publish with.
+     * @return The results, SERVICE first.
+     */
+    public static List<Result> runAll(Context context, String serverUri, int messageCount, int payloadSize, int qos)
+            throws MqttException, InterruptedException {
+        List<Result> results = new ArrayList<Result>();
+        for (Constants.TransportMode mode : Constants.TransportMode.values()) {
+            Result result = run(context, mode, serverUri, messageCount, payloadSize, qos);
+            Log.i(TAG, result.toString());
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * @param serverUri A broker URI, e.g. tcp://host:1883.
+     * @return True if the URI is one of the shared brokers the app connects to (IoT Foundation,
+     *         quickstart or the MessageSight demo), which the benchmark must not load.
+     */
+    public static boolean isSharedBroker(String serverUri) {
+        String host = Uri.parse(serverUri).getHost();
+        if (host == null) {
+            return false;
+        }
+        host = host.toLowerCase();
+        return host.equals(Constants.M2M_DEMO_SERVER) || host.equals(Constants.QUICKSTART_SERVER)
+                || host.equals(Constants.SETTINGS_MQTT_SERVER) || host.endsWith("." + Constants.SETTINGS_MQTT_SERVER);
+    }
+
+    /**
+     * Publish messageCount messages with the given transport mode and wait until all of
+     * them have completed.
+     *
+     * @param context      The application context.
+     * @param mode         The transport mode to measure.
+     * @param serverUri    The broker to publish to, e.g. tcp://host:1883.
+     * @param messageCount The number of messages to publish.
+     * @param payloadSize  The size in bytes of each message payload.
+     * @param qos          The quality of service to publish with.
+     * @return The measurements.
+     */
+    public static Result run(Context context, Constants.TransportMode mode, String serverUri, int messageCount,
+                             int payloadSize, int qos) throws MqttException, InterruptedException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("TransportBenchmark must not run on the main thread");
+        }
+        if (isSharedBroker(serverUri)) {
+            throw new IllegalArgumentException("TransportBenchmark must not run against shared broker " + serverUri);
+        }
+
+        String clientId = "bench-" + mode.name().toLowerCase() + "-" + System.currentTimeMillis() % 100000;
+        String topic = "iot-starter/bench/" + clientId;
+        IMqttAsyncClient client = MqttHandler.createClient(context, mode, serverUri, clientId);
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        client.connect(options).waitForCompletion(COMPLETION_TIMEOUT_MS);
+
+        try {
+            byte[] payload = new byte[payloadSize];
+            // warm up so that class loading and connection setup are not measured
+            publishAll(client, topic, payload, qos, Math.max(1, messageCount / 10));
+
+            long cpuStart = Process.getElapsedCpuTime();
+            long start = System.nanoTime();
+            int failed = publishAll(client, topic, payload, qos, messageCount);
+            long elapsed = System.nanoTime() - start;
+            long cpu = Process.getElapsedCpuTime() - cpuStart;
+            return new Result(mode, messageCount, failed, elapsed, cpu);
+        } finally {
+            client.disconnect().waitForCompletion(COMPLETION_TIMEOUT_MS);
+            if (client instanceof MqttAndroidClient) {
+                ((MqttAndroidClient) client).unregisterResources();
+            } else {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Publish count messages, keeping at most MAX_INFLIGHT outstanding, and wait for them.
+     *
+     * The in-process client refuses a publish beyond its in-flight window by throwing, while
+     * the service client reports it later through onFailure. Limiting the outstanding
+     * publishes here applies the same flow control to both modes, so they are measured alike.
+     *
+     * @return The number of publishes that failed or did not complete in time.
+     */
+    private static int publishAll(IMqttAsyncClient client, String topic, byte[] payload, int qos, int count)
+            throws MqttException, InterruptedException {
+        final CountDownLatch completed = new CountDownLatch(count);
+        final Semaphore inflight = new Semaphore(MAX_INFLIGHT);
+        final AtomicInteger failed = new AtomicInteger();
+        IMqttActionListener listener = new IMqttActionListener() {
+            @Override
+            public void onSuccess(IMqttToken token) {
+                inflight.release();
+                completed.countDown();
+            }
+
+            @Override
+            public void onFailure(IMqttToken token, Throwable throwable) {
+                failed.incrementAndGet();
+                inflight.release();
+                completed.countDown();
+            }
+        };
+
+        for (int i = 0; i < count; i++) {
+            MqttMessage message = new MqttMessage(payload);
+            message.setQos(qos);
+            if (!inflight.tryAcquire(COMPLETION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, ".publishAll() - Timed out waiting for the in-flight window");
+                // unsent and outstanding messages have not counted down
+                return (int) completed.getCount() + failed.get();
+            }
+            while (true) {
+                try {
+                    client.publish(topic, message, null, listener);
+                    break;
+                } catch (MqttException e) {
+                    if (e.getReasonCode() != MqttException.REASON_CODE_MAX_INFLIGHT) {
+                        throw e;
+                    }
+                    Thread.sleep(MAX_INFLIGHT_BACKOFF_MS);
+                }
+            }
+        }
+
+        if (!completed.await(COMPLETION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, ".publishAll() - Timed out with " + completed.getCount() + " message(s) outstanding");
+        }
+        return (int) completed.getCount() + failed.get();
+    }
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Throttles UI redraws to at most one per refresh interval. The data path updates the
+ * application's counters and calls invalidate(), which is cheap and safe from any
+ * thread; the visible fragment's redraw runs on the main thread at the next refresh
+ * boundary, once no matter how many invalidations happened in between. Nothing runs
+ * on the main thread while nothing is invalidated.
+ */
+public class UiRefresher {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile Runnable target;
+    private volatile long intervalMillis;
+    private long lastRefresh = 0;
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            lastRefresh = SystemClock.uptimeMillis();
+            Runnable redraw = target;
+            if (redraw != null) {
+                redraw.run();
+            }
+        }
+    };
+
+    /**
+     * @param intervalMillis Minimum time between redraws.
+     */
+    public UiRefresher(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Set the redraw to run, or null when no view is showing. Called on the main thread.
+     * @param target The redraw of the visible fragment.
+     */
+    public void setTarget(Runnable target) {
+        this.target = target;
+        if (target == null) {
+            handler.removeCallbacks(frame);
+            scheduled.set(false);
+        }
+    }
+
+    /**
+     * Request a redraw at the next refresh boundary. Can be called from any thread.
+     */
+    public void invalidate() {
+        if (target == null || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        handler.postAtTime(frame, Math.max(now, lastRefresh + intervalMillis));
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @param intervalMillis Minimum time between redraws, e.g. FRAME_INTERVAL_MS for the display rate.
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+}
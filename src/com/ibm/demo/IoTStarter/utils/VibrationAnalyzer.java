@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Frequency analysis of the accelerometer magnitude for vibration monitoring.
+ *
+ * Samples are kept in a sliding window of one FFT size. Every hop samples the window
+ * has its mean (gravity) removed, is multiplied by a Hann window and transformed, and
+ * its power spectrum is added to a running average (Welch's method). getFeatures()
+ * reads the strongest spectral peaks and the energy in equal-width frequency bands from
+ * the averaged spectrum and starts a new average. The sample rate is measured from the
+ * sample timestamps, so the bin frequencies follow the rate the sensor actually delivers.
+ *
+ * All buffers are allocated up front; adding samples and reading features allocate
+ * nothing. Not thread safe; used from the publishing thread only.
+ */
+public class VibrationAnalyzer {
+
+    private final Fft fft;
+    private final int size;
+    private final int hop;
+
+    // sliding window of magnitudes and their timestamps (ns)
+    private final float[] ring;
+    private final long[] ringTime;
+    private int position = 0;
+    private int filled = 0;
+    private int sinceLastWindow = 0;
+
+    private final double[] hann;
+    private final double hannSum;
+    private final double hannSquareSum;
+    private final double[] re;
+    private final double[] im;
+
+    // averaged |X(k)|^2 over the windows since the last getFeatures()
+    private final double[] power;
+    private int windows = 0;
+    private double sampleRateSum = 0;
+    private long lastTimestamp;
+
+    /**
+     * @param size FFT size in samples; a power of two.
+     * @param hop  Samples between the starts of consecutive windows; size / 2 for 50% overlap.
+     */
+    public VibrationAnalyzer(int size, int hop) {
+        this.fft = new Fft(size);
+        this.size = size;
+        this.hop = Math.max(1, Math.min(size, hop));
+        this.ring = new float[size];
+        this.ringTime = new long[size];
+        this.re = new double[size];
+        this.im = new double[size];
+        this.power = new double[size / 2 + 1];
+        this.hann = new double[size];
+        double sum = 0;
+        double squareSum = 0;
+        for (int i = 0; i < size; i++) {
+            hann[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / size);
+            sum += hann[i];
+            squareSum += hann[i] * hann[i];
+        }
+        this.hannSum = sum;
+        this.hannSquareSum = squareSum;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Add an accelerometer sample.
+     * @param timestamp SensorEvent timestamp in nanoseconds.
+     */
+    public void add(long timestamp, float x, float y, float z) {
+        ring[position] = (float) Math.sqrt(x * x + y * y + z * z);
+        ringTime[position] = timestamp;
+        position = (position + 1) % size;
+        lastTimestamp = timestamp;
+        if (filled < size) {
+            filled++;
+        }
+        if (++sinceLastWindow >= hop && filled == size) {
+            sinceLastWindow = 0;
+            analyzeWindow();
+        }
+    }
+
+    /**
+     * Discard the samples in the window, after a gap in the input. The running average is kept.
+     */
+    public void restart() {
+        filled = 0;
+        sinceLastWindow = 0;
+    }
+
+    private void analyzeWindow() {
+        // position is the oldest sample
+        long span = ringTime[(position + size - 1) % size] - ringTime[position];
+        if (span <= 0) {
+            return;
+        }
+        double mean = 0;
+        for (int i = 0; i < size; i++) {
+            mean += ring[i];
+        }
+        mean /= size;
+        for (int i = 0; i < size; i++) {
+            re[i] = (ring[(position + i) % size] - mean) * hann[i];
+            im[i] = 0;
+        }
+        fft.transform(re, im);
+        for (int k = 0; k < power.length; k++) {
+            power[k] += re[k] * re[k] + im[k] * im[k];
+        }
+        sampleRateSum += (size - 1) * 1e9 / span;
+        windows++;
+    }
+
+    /**
+     * Write the features of the spectrum averaged since the last call, and start a new average.
+     *
+     * @param timeOffsetMillis Offset from SensorEvent timestamps to wall-clock milliseconds.
+     * @param out The features; its peak and band counts set how many are computed.
+     * @return The number of windows averaged; 0 if none completed, and out is not changed.
+     */
+    public int getFeatures(long timeOffsetMillis, VibrationFeatures out) {
+        if (windows == 0) {
+            return 0;
+        }
+        double sampleRate = sampleRateSum / windows;
+        double binWidth = sampleRate / size;
+        int bins = power.length;
+        for (int k = 0; k < bins; k++) {
+            power[k] /= windows;
+        }
+
+        // one-sided mean square per bin: 2 |X(k)|^2 / (N * sum(w^2)); DC is excluded
+        double meanSquareScale = 2 / (size * hannSquareSum);
+        int bands = out.bandEnergy.length;
+        out.bandWidth = (float) (sampleRate / 2 / bands);
+        for (int band = 0; band < bands; band++) {
+            out.bandEnergy[band] = 0;
+        }
+        double total = 0;
+        for (int k = 1; k < bins; k++) {
+            double meanSquare = power[k] * meanSquareScale;
+            int band = Math.min(bands - 1, (int) (k * binWidth / out.bandWidth));
+            out.bandEnergy[band] += meanSquare;
+            total += meanSquare;
+        }
+
+        // strongest local maxima, kept sorted by power in the output arrays
+        int maxPeaks = out.peakFrequency.length;
+        int peaks = 0;
+        float[] peakPower = out.peakAmplitude;
+        for (int k = 1; k < bins - 1; k++) {
+            double p = power[k];
+            if (p <= power[k - 1] || p < power[k + 1]) {
+                continue;
+            }
+            if (peaks == maxPeaks && p <= peakPower[peaks - 1]) {
+                continue;
+            }
+            int slot = peaks < maxPeaks ? peaks++ : peaks - 1;
+            while (slot > 0 && peakPower[slot - 1] < p) {
+                peakPower[slot] = peakPower[slot - 1];
+                out.peakFrequency[slot] = out.peakFrequency[slot - 1];
+                slot--;
+            }
+            peakPower[slot] = (float) p;
+            // parabolic interpolation of the peak position between bins
+            double left = Math.sqrt(power[k - 1]);
+            double centre = Math.sqrt(p);
+            double right = Math.sqrt(power[k + 1]);
+            double denominator = left - 2 * centre + right;
+            double offset = denominator != 0 ? 0.5 * (left - right) / denominator : 0;
+            out.peakFrequency[slot] = (float) ((k + offset) * binWidth);
+        }
+        // convert peak power to the amplitude of a sinusoid, 2 |X(k)| / sum(w), corrected for the
+        // Hann main lobe's attenuation at the peak's offset from the bin centre
+        for (int i = 0; i < peaks; i++) {
+            double bin = out.peakFrequency[i] / binWidth;
+            double offset = Math.abs(bin - Math.round(bin));
+            double response = 1;
+            if (offset > 1e-6) {
+                response = Math.sin(Math.PI * offset) / (Math.PI * offset) / (1 - offset * offset);
+            }
+            out.peakAmplitude[i] = (float) (2 * Math.sqrt(peakPower[i]) / hannSum / response);
+        }
+        out.peakCount = peaks;
+        out.sampleRate = (float) sampleRate;
+        out.rms = (float) Math.sqrt(total);
+        out.windows = windows;
+        out.time = timeOffsetMillis + lastTimestamp / 1000000;
+
+        int averaged = windows;
+        for (int k = 0; k < bins; k++) {
+            power[k] = 0;
+        }
+        windows = 0;
+        sampleRateSum = 0;
+        return averaged;
+    }
+}
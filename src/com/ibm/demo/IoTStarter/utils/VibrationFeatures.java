@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Vibration spectrum features of the accelerometer magnitude, filled in by
+ * VibrationAnalyzer. Reused from message to message by its owner.
+ */
+public class VibrationFeatures {
+
+    final float[] peakFrequency;
+    final float[] peakAmplitude;
+    final float[] bandEnergy;
+    int peakCount;
+    float bandWidth;
+    float sampleRate;
+    float rms;
+    int windows;
+    long time;
+
+    /**
+     * @param peaks Maximum number of spectral peaks.
+     * @param bands Number of frequency bands.
+     */
+    public VibrationFeatures(int peaks, int bands) {
+        this.peakFrequency = new float[peaks];
+        this.peakAmplitude = new float[peaks];
+        this.bandEnergy = new float[bands];
+    }
+
+    /**
+     * @return Wall-clock time of the end of the analysed samples, in milliseconds since the epoch.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return Number of FFT windows averaged.
+     */
+    public int getWindows() {
+        return windows;
+    }
+
+    /**
+     * @return Measured sample rate in Hz.
+     */
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return RMS of the vibration (magnitude with its mean removed), in m/s^2.
+     */
+    public float getRms() {
+        return rms;
+    }
+
+    /**
+     * @return Number of peaks found, strongest first; at most the configured number.
+     */
+    public int getPeakCount() {
+        return peakCount;
+    }
+
+    /**
+     * @return Frequency of a peak in Hz.
+     */
+    public float getPeakFrequency(int peak) {
+        return peakFrequency[peak];
+    }
+
+    /**
+     * @return Amplitude of a peak, in m/s^2, as for a sinusoid at that frequency.
+     */
+    public float getPeakAmplitude(int peak) {
+        return peakAmplitude[peak];
+    }
+
+    public int getBandCount() {
+        return bandEnergy.length;
+    }
+
+    /**
+     * @return Width in Hz of each band; band i covers [i * width, (i + 1) * width).
+     */
+    public float getBandWidth() {
+        return bandWidth;
+    }
+
+    /**
+     * @return Mean-square acceleration in a band, in (m/s^2)^2.
+     */
+    public float getBandEnergy(int band) {
+        return bandEnergy[band];
+    }
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Incremental per-window statistics (min, max, mean, variance and RMS) of a multi-channel
+ * sensor stream, for publishing summaries instead of raw samples.
+ *
+ * The window is divided into panes of one slide each. Every pane keeps a fixed set of
+ * running values per channel (count, min, max, and mean and sum of squared deviations,
+ * updated with Welford's method), so memory is constant however many samples arrive.
+ * advance() merges the panes of the window into a WindowStats and starts a new pane,
+ * dropping the oldest. One pane gives tumbling windows; n panes give windows of n slides
+ * that move by one slide.
+ *
+ * Angular channels, such as azimuth and roll which wrap at +/- pi, are aggregated as
+ * the sine and cosine of each sample. Their statistics are the circular mean and the
+ * circular variance (1 - length of the mean unit vector, from 0 for constant angles to
+ * 1 for angles spread evenly); min, max and RMS have no meaning for them and are NaN.
+ *
+ * add() and advance() may be called from different threads.
+ */
+public class WindowAggregator {
+
+    private final int channels;
+    private final int panes;
+    private final boolean[] angular;
+    // first running-value slot of each channel; angular channels use two, for sine and cosine
+    private final int[] slot;
+    private final int slots;
+
+    // per pane
+    private final long[] paneCount;
+    private final long[] paneStart;
+    // per pane and slot, at [pane * slots + slot]
+    private final float[] paneMin;
+    private final float[] paneMax;
+    private final double[] paneMean;
+    private final double[] paneM2;
+
+    // per slot, the window being merged in advance()
+    private final float[] windowMin;
+    private final float[] windowMax;
+    private final double[] windowMean;
+    private final double[] windowM2;
+
+    private int current = 0;
+
+    /**
+     * @param channels  Number of values in each sample.
+     * @param angular   Which channels are angles in radians, or null if none are.
+     * @param panes     Number of slides in a window; 1 for tumbling windows.
+     * @param startTime Wall-clock start time of the first pane, in milliseconds.
+     */
+    public WindowAggregator(int channels, boolean[] angular, int panes, long startTime) {
+        this.channels = channels;
+        this.panes = Math.max(1, panes);
+        this.angular = new boolean[channels];
+        this.slot = new int[channels];
+        int next = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            this.angular[channel] = angular != null && angular[channel];
+            slot[channel] = next;
+            next += this.angular[channel] ? 2 : 1;
+        }
+        this.slots = next;
+        this.paneCount = new long[this.panes];
+        this.paneStart = new long[this.panes];
+        this.paneMin = new float[this.panes * slots];
+        this.paneMax = new float[this.panes * slots];
+        this.paneMean = new double[this.panes * slots];
+        this.paneM2 = new double[this.panes * slots];
+        this.windowMin = new float[slots];
+        this.windowMax = new float[slots];
+        this.windowMean = new double[slots];
+        this.windowM2 = new double[slots];
+        for (int pane = 0; pane < this.panes; pane++) {
+            paneStart[pane] = startTime;
+        }
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getPanes() {
+        return panes;
+    }
+
+    /**
+     * Add a sample to the current pane.
+     * @param values The sample; the first getChannels() values are used.
+     */
+    public synchronized void add(float[] values) {
+        long n = ++paneCount[current];
+        int base = current * slots;
+        for (int channel = 0; channel < channels; channel++) {
+            float value = values[channel];
+            int i = base + slot[channel];
+            if (angular[channel]) {
+                addValue(i, n, (float) Math.sin(value));
+                addValue(i + 1, n, (float) Math.cos(value));
+            } else {
+                addValue(i, n, value);
+            }
+        }
+    }
+
+    private void addValue(int i, long n, float value) {
+        if (n == 1) {
+            paneMin[i] = value;
+            paneMax[i] = value;
+            paneMean[i] = value;
+            paneM2[i] = 0;
+        } else {
+            if (value < paneMin[i]) {
+                paneMin[i] = value;
+            } else if (value > paneMax[i]) {
+                paneMax[i] = value;
+            }
+            double delta = value - paneMean[i];
+            paneMean[i] += delta / n;
+            paneM2[i] += delta * (value - paneMean[i]);
+        }
+    }
+
+    /**
+     * Close the current pane, write the statistics of the window ending with it, and start
+     * a new pane in place of the oldest.
+     *
+     * @param now The wall-clock time, in milliseconds; the end of the window.
+     * @param out The statistics of the window. Channels with no samples are left at 0.
+     * @return The number of samples in the window.
+     */
+    public synchronized long advance(long now, WindowStats out) {
+        for (int i = 0; i < slots; i++) {
+            windowMin[i] = 0;
+            windowMax[i] = 0;
+            windowMean[i] = 0;
+            windowM2[i] = 0;
+        }
+        long count = 0;
+        // oldest pane first; the one after current, wrapping around
+        int oldest = (current + 1) % panes;
+        out.startTime = paneStart[oldest];
+        for (int k = 0; k < panes; k++) {
+            int pane = (oldest + k) % panes;
+            long n = paneCount[pane];
+            if (n == 0) {
+                continue;
+            }
+            int base = pane * slots;
+            long merged = count + n;
+            for (int s = 0; s < slots; s++) {
+                int i = base + s;
+                if (count == 0) {
+                    windowMin[s] = paneMin[i];
+                    windowMax[s] = paneMax[i];
+                    windowMean[s] = paneMean[i];
+                    windowM2[s] = paneM2[i];
+                } else {
+                    // Chan et al. pairwise combination of mean and squared deviations
+                    windowMin[s] = Math.min(windowMin[s], paneMin[i]);
+                    windowMax[s] = Math.max(windowMax[s], paneMax[i]);
+                    double delta = paneMean[i] - windowMean[s];
+                    windowMean[s] += delta * n / merged;
+                    windowM2[s] += paneM2[i] + delta * delta * count * n / merged;
+                }
+            }
+            count = merged;
+        }
+
+        for (int channel = 0; channel < channels; channel++) {
+            int s = slot[channel];
+            out.angular[channel] = angular[channel];
+            if (count == 0) {
+                out.min[channel] = 0;
+                out.max[channel] = 0;
+                out.mean[channel] = 0;
+                out.variance[channel] = 0;
+            } else if (angular[channel]) {
+                double sin = windowMean[s];
+                double cos = windowMean[s + 1];
+                out.min[channel] = Float.NaN;
+                out.max[channel] = Float.NaN;
+                out.mean[channel] = Math.atan2(sin, cos);
+                out.variance[channel] = Math.max(0, 1 - Math.sqrt(sin * sin + cos * cos));
+            } else {
+                out.min[channel] = windowMin[s];
+                out.max[channel] = windowMax[s];
+                out.mean[channel] = windowMean[s];
+                out.variance[channel] = windowM2[s] / count;
+            }
+        }
+        out.count = count;
+        out.durationMillis = now - out.startTime;
+
+        current = oldest;
+        paneCount[current] = 0;
+        paneStart[current] = now;
+        return count;
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2014 IBM Corp.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * and Eclipse Distribution License v1.0 which accompany this distribution.
+ *
+ * The Eclipse Public License is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ * and the Eclipse Distribution License is available at
+ *   http://www.eclipse.org/org/documents/edl-v10.php.
+ *
+ * Contributors:
+ *    Mike Robertson - initial contribution
+ *******************************************************************************/
+package com.ibm.demo.IoTStarter.utils;
+
+/**
+ * Statistics of each channel of a sensor stream over one window, filled in by
+ * WindowAggregator. Reused from window to window by its owner.
+ */
+public class WindowStats {
+
+    // channels of the accel stats event
+    public final static int ACCEL_X = 0;
+    public final static int ACCEL_Y = 1;
+    public final static int ACCEL_Z = 2;
+    public final static int AZIMUTH = 3;
+    public final static int PITCH = 4;
+    public final static int ROLL = 5;
+    public final static int ACCEL_CHANNELS = 6;
+
+    public final static String[] ACCEL_CHANNEL_NAMES = {
+            "acceleration_x", "acceleration_y", "acceleration_z", "azimuth", "pitch", "roll"};
+    // azimuth and roll wrap at +/- pi; pitch stays within +/- pi/2
+    public final static boolean[] ACCEL_ANGULAR_CHANNELS = {false, false, false, true, false, true};
+
+    private final int channels;
+    final boolean[] angular;
+    final float[] min;
+    final float[] max;
+    final double[] mean;
+    final double[] variance;
+    long startTime;
+    long durationMillis;
+    long count;
+
+    public WindowStats(int channels) {
+        this.channels = channels;
+        this.min = new float[channels];
+        this.max = new float[channels];
+        this.mean = new double[channels];
+        this.variance = new double[channels];
+        this.angular = new boolean[channels];
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return Wall-clock time of the start of the window, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return Length of the window in milliseconds.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return Number of samples in the window.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return True if the channel is an angle aggregated as a circular quantity: its mean
+     *         is the circular mean, its variance the circular variance (0 - 1), and its
+     *         min, max and RMS are NaN.
+     */
+    public boolean isAngular(int channel) {
+        return angular[channel];
+    }
+
+    public float getMin(int channel) {
+        return min[channel];
+    }
+
+    public float getMax(int channel) {
+        return max[channel];
+    }
+
+    public float getMean(int channel) {
+        return (float) mean[channel];
+    }
+
+    /**
+     * @return The population variance of the channel's samples, or the circular variance
+     *         of an angular channel.
+     */
+    public float getVariance(int channel) {
+        return (float) variance[channel];
+    }
+
+    /**
+     * @return The root mean square of the channel's samples.
+     */
+    public float getRms(int channel) {
+        if (angular[channel]) {
+            return Float.NaN;
+        }
+        return (float) Math.sqrt(variance[channel] + mean[channel] * mean[channel]);
+    }
+}
@@ -23,8 +23,9 @@ import android.view.MotionEvent;
 
 import com.ibm.demo.IoTStarter.IoTStarterApplication;
 import com.ibm.demo.IoTStarter.utils.Constants;
-import com.ibm.demo.IoTStarter.utils.MessageFactory;
 import com.ibm.demo.IoTStarter.utils.MqttHandler;
+import com.ibm.demo.IoTStarter.utils.PayloadCodec;
+import com.ibm.demo.IoTStarter.utils.PayloadWriter;
 import com.ibm.demo.IoTStarter.utils.TopicFactory;
 
 /**
@@ -44,6 +45,8 @@ public class DrawingView extends View {
     private int strokeWidth = 5; //width of pencil
     private float previousX;
     private float previousY;
+    // reused for every touchmove event; only touched on the UI thread
+    private final PayloadWriter payloadWriter = new PayloadWriter();
     //canvas
     private Canvas drawCanvas; //canvas
     public int width = 0; //canvas width
@@ -191,10 +194,10 @@ public class DrawingView extends View {
 
         IoTStarterApplication app = (IoTStarterApplication) context.getApplicationContext();
 
-        String messageData = MessageFactory.getTouchMessage(relativeX, relativeY, relativeDX, relativeDY, ended);
+        PayloadCodec codec = app.getPayloadCodec();
+        codec.encodeTouch(payloadWriter.reset(), relativeX, relativeY, relativeDX, relativeDY, ended);
 
-        Log.v(TAG, "Publishing touch message: " + messageData);
         MqttHandler mqttHandler = MqttHandler.getInstance(context);
-        mqttHandler.publish(TopicFactory.getEventTopic(Constants.TOUCH_EVENT), messageData, false, 0);
+        mqttHandler.publish(TopicFactory.getEventTopic(Constants.TOUCH_EVENT, codec), payloadWriter, false, 0);
     }
 }
\ No newline at end of file